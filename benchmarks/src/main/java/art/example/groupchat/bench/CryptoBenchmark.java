@@ -0,0 +1,64 @@
+package art.example.groupchat.bench;
+
+import art.example.groupchat.core.crypto.CryptoUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AES-GCM cost of {@link CryptoUtils#encrypt} and {@link CryptoUtils#decrypt} as a function of the payload size.
+ * The buffer variants reuse direct buffers, the way a network relay would.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CryptoBenchmark {
+
+    @Param({"32", "1024", "65536", "1048576"})
+    int payloadSize;
+
+    private byte[] key;
+    private byte[] plaintext;
+    private byte[] ciphertext;
+    private ByteBuffer plaintextBuffer;
+    private ByteBuffer ciphertextBuffer;
+    private ByteBuffer output;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        key = CryptoUtils.randomBytes(32);
+        plaintext = CryptoUtils.randomBytes(payloadSize);
+        ciphertext = CryptoUtils.encrypt(plaintext, key);
+        plaintextBuffer = ByteBuffer.allocateDirect(payloadSize);
+        plaintextBuffer.put(plaintext).flip();
+        ciphertextBuffer = ByteBuffer.allocateDirect(ciphertext.length);
+        ciphertextBuffer.put(ciphertext).flip();
+        output = ByteBuffer.allocateDirect(ciphertext.length);
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        return CryptoUtils.encrypt(plaintext, key);
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        return CryptoUtils.decrypt(ciphertext, key);
+    }
+
+    @Benchmark
+    public int encryptBuffer() {
+        output.clear();
+        return CryptoUtils.encrypt(plaintextBuffer.duplicate(), output, key);
+    }
+
+    @Benchmark
+    public int decryptBuffer() {
+        output.clear();
+        return CryptoUtils.decrypt(ciphertextBuffer.duplicate(), output, key);
+    }
+}
@@ -0,0 +1,84 @@
+package art.example.groupchat.bench;
+
+import art.example.groupchat.core.crypto.CryptoUtils;
+import art.example.groupchat.core.crypto.X25519Utils;
+import art.example.groupchat.core.crypto.XECKeyPair;
+import art.example.groupchat.core.tree.DHTree;
+import art.example.groupchat.core.tree.LeafNode;
+
+import java.security.interfaces.XECPublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Key material of a group with one admin and {@code groupSize - 1} members, the way the admin sees it at setup.
+ */
+class GroupFixture {
+    static final String ADMIN = "admin";
+
+    final XECKeyPair adminIdKey = X25519Utils.newKeyPair();
+    final XECKeyPair setupKey = X25519Utils.newKeyPair();
+    final List<String> usernames = new ArrayList<>();
+    final Map<String, XECKeyPair> memberIdKeys = new HashMap<>();
+    final Map<String, XECKeyPair> memberEphemeralKeys = new HashMap<>();
+
+    GroupFixture(int groupSize) {
+        for (int i = 0; i < groupSize - 1; i++) {
+            String username = "member-" + i;
+            usernames.add(username);
+            memberIdKeys.put(username, X25519Utils.newKeyPair());
+            memberEphemeralKeys.put(username, X25519Utils.newKeyPair());
+        }
+    }
+
+    /**
+     * @return secret leaves of the group, admin first
+     */
+    List<LeafNode> leaves() {
+        return leaves(null);
+    }
+
+    /**
+     * @param pool pool deriving the leaves in parallel, null for the sequential setup
+     * @return secret leaves of the group, admin first
+     */
+    List<LeafNode> leaves(ForkJoinPool pool) {
+        Map<String, XECPublicKey> theirIdKeys = new HashMap<>();
+        Map<String, XECPublicKey> theirEphemeralKeys = new HashMap<>();
+        for (String username : usernames) {
+            theirIdKeys.put(username, memberIdKeys.get(username).getPublic());
+            theirEphemeralKeys.put(username, memberEphemeralKeys.get(username).getPublic());
+        }
+        if (pool != null) {
+            return DHTree.setupLeavesNode(ADMIN, adminIdKey, setupKey, new ArrayList<>(usernames),
+                    theirIdKeys, theirEphemeralKeys, pool);
+        }
+        return DHTree.setupLeavesNode(
+                ADMIN,
+                adminIdKey,
+                setupKey,
+                new ArrayList<>(usernames),
+                theirIdKeys,
+                theirEphemeralKeys
+        );
+    }
+
+    /**
+     * @return leaf secret of a member, as the member recomputes it from the setup message
+     */
+    XECKeyPair leafKey(String username) {
+        return CryptoUtils.recomputeExchangeKey(
+                memberIdKeys.get(username),
+                adminIdKey.getPublic(),
+                memberEphemeralKeys.get(username),
+                setupKey.getPublic()
+        );
+    }
+
+    String lastMember() {
+        return usernames.get(usernames.size() - 1);
+    }
+}
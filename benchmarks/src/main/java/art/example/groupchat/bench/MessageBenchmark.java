@@ -0,0 +1,136 @@
+package art.example.groupchat.bench;
+
+import art.example.groupchat.core.GroupState;
+import art.example.groupchat.core.Message;
+import art.example.groupchat.core.MessageClient;
+import art.example.groupchat.core.serialize.BinaryCodec;
+import art.example.groupchat.core.crypto.X25519Utils;
+import art.example.groupchat.core.crypto.XECKeyPair;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end cost of {@link MessageClient#sendMessage} and {@link MessageClient#receiveMessage}: tree update,
+ * group key derivation, AES-GCM and serialization.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+    private static final int GROUP_ID = 0;
+    private static final int BURST = 16;
+
+    /**
+     * Admin sending to a receiver in a group of {@code groupSize}. The receive benchmarks reach it through
+     * their inbox: JMH makes a second instance when a state is both a parameter and a dependency.
+     */
+    @State(Scope.Thread)
+    public static class Group {
+        @Param({"2", "16", "128", "1024", "4096"})
+        int groupSize;
+
+        @Param({"32", "1024", "65536", "1048576"})
+        int payloadSize;
+
+        /**
+         * admin messages per tree update, e.g. {@code -p ratchetMessages=1,64} to compare with sender chains
+         */
+        @Param({"1"})
+        int ratchetMessages;
+
+        MessageClient admin;
+        MessageClient receiver;
+        String plaintext;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            admin = new MessageClient(GroupFixture.ADMIN);
+            receiver = new MessageClient("receiver");
+            admin.creatNewGroup(GROUP_ID);
+
+            // fill the group directly, addMember would rebuild the whole tree for every member
+            GroupState groupState = admin.getGroupState(GROUP_ID);
+            for (int i = 0; i < groupSize - 2; i++) {
+                XECKeyPair idKey = X25519Utils.newKeyPair();
+                XECKeyPair ephemeralKey = X25519Utils.newKeyPair();
+                groupState.addMember("member-" + i, idKey.getPublic(), ephemeralKey.getPublic());
+            }
+            String setupMessage = admin.addMember(GROUP_ID, "receiver",
+                    receiver.getIdKey(), receiver.joinGroup(GROUP_ID));
+            receiver.receiveSetupMessage(setupMessage);
+            admin.setRatchetInterval(ratchetMessages, 1, TimeUnit.HOURS);
+
+            plaintext = "x".repeat(payloadSize);
+        }
+    }
+
+    /**
+     * The admin's next message, made fresh for every invocation: receiving an applied message again would take
+     * the journal path for past epochs.
+     */
+    @State(Scope.Thread)
+    public static class Inbox {
+        Group group;
+        String message;
+
+        @Setup(Level.Invocation)
+        public void fill(Group group) {
+            this.group = group;
+            message = group.admin.sendMessage(GROUP_ID, group.plaintext);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Burst {
+        Group group;
+        byte[][] messages;
+
+        @Setup(Level.Invocation)
+        public void fill(Group group) {
+            this.group = group;
+            byte[] raw = group.plaintext.getBytes(StandardCharsets.UTF_8);
+            messages = new byte[BURST][];
+            for (int i = 0; i < BURST; i++) {
+                messages[i] = BinaryCodec.toBytes(group.admin.createMessage(GROUP_ID, raw));
+            }
+        }
+    }
+
+    @Benchmark
+    public String sendMessage(Group group) {
+        return group.admin.sendMessage(GROUP_ID, group.plaintext);
+    }
+
+    @Benchmark
+    public String receiveMessage(Inbox inbox) {
+        return inbox.group.receiver.receiveMessage(inbox.message);
+    }
+
+    /**
+     * A burst of messages received one by one.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void receiveBurst(Burst burst, Blackhole blackhole) {
+        for (byte[] bytes : burst.messages) {
+            blackhole.consume(burst.group.receiver.receiveMessage(BinaryCodec.toMessage(bytes)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public List<byte[]> receiveBurstBatched(Burst burst) {
+        List<Message> messages = new ArrayList<>(BURST);
+        for (byte[] bytes : burst.messages) {
+            messages.add(BinaryCodec.toMessage(bytes));
+        }
+        return burst.group.receiver.receiveMessages(messages);
+    }
+}
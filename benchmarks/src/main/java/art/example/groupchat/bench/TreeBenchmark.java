@@ -0,0 +1,106 @@
+package art.example.groupchat.bench;
+
+import art.example.groupchat.core.serialize.BinaryCodec;
+import art.example.groupchat.core.serialize.SerializeUtils;
+import art.example.groupchat.core.tree.DHTree;
+import art.example.groupchat.core.tree.LeafNode;
+import art.example.groupchat.core.tree.Node;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the ratchet tree operations as a function of the group size.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TreeBenchmark {
+
+    @Param({"2", "16", "128", "1024", "4096"})
+    int groupSize;
+
+    private GroupFixture fixture;
+    private List<LeafNode> leaves;
+    private LeafNode senderLeaf;
+    private LeafNode receiverSenderLeaf;
+    private Queue<BigInteger> updatePath;
+    private String jsonTree;
+    private byte[] binaryTree;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new GroupFixture(groupSize);
+        leaves = fixture.leaves();
+
+        // admin sends from its own leaf in the secret tree
+        Node secretTree = DHTree.buildSecretTree(fixture.leaves());
+        String json = SerializeUtils.toJson(secretTree);
+        jsonTree = json;
+        binaryTree = BinaryCodec.toBytes(secretTree);
+        senderLeaf = DHTree.findLeafNode(GroupFixture.ADMIN, secretTree);
+        updatePath = new LinkedList<>();
+        DHTree.createPublicPath(senderLeaf, updatePath);
+
+        // the last member receives the admin's update
+        String receiver = fixture.lastMember();
+        Node receiverTree = DHTree.buildPublicTree(json);
+        LeafNode receiverLeaf = DHTree.findLeafNode(receiver, receiverTree);
+        receiverLeaf.setKeyPair(fixture.leafKey(receiver));
+        DHTree.rebuildSecretTree(receiverLeaf);
+        receiverSenderLeaf = DHTree.findLeafNode(GroupFixture.ADMIN, receiverTree);
+    }
+
+    @Benchmark
+    public Node buildSecretTree() {
+        return DHTree.buildSecretTree(leaves);
+    }
+
+    /**
+     * Full admin setup on one thread: leaf exchanges and tree.
+     */
+    @Benchmark
+    public Node setupGroup() {
+        return DHTree.buildSecretTree(fixture.leaves());
+    }
+
+    /**
+     * Full admin setup on the common fork join pool.
+     */
+    @Benchmark
+    public Node setupGroupParallel() {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        return DHTree.buildSecretTree(fixture.leaves(pool), pool);
+    }
+
+    @Benchmark
+    public Node decodeJsonTree() {
+        return SerializeUtils.toTree(jsonTree);
+    }
+
+    @Benchmark
+    public Node decodeBinaryTree() {
+        return BinaryCodec.toTree(binaryTree);
+    }
+
+    @Benchmark
+    public Queue<BigInteger> createPublicPath() {
+        Queue<BigInteger> path = new LinkedList<>();
+        DHTree.createPublicPath(senderLeaf, path);
+        return path;
+    }
+
+    @Benchmark
+    public Node updatePath() {
+        DHTree.updatePath(receiverSenderLeaf, new LinkedList<>(updatePath));
+        return receiverSenderLeaf;
+    }
+}
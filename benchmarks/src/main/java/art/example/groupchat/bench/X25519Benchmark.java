@@ -0,0 +1,73 @@
+package art.example.groupchat.bench;
+
+import art.example.groupchat.core.crypto.JcaX25519Engine;
+import art.example.groupchat.core.crypto.PureX25519Engine;
+import art.example.groupchat.core.crypto.X25519Engine;
+import art.example.groupchat.core.crypto.X25519Utils;
+import art.example.groupchat.core.crypto.XECKeyPair;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.security.interfaces.XECPublicKey;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one X25519 operation of the tree on each {@link X25519Engine}: a node secret, a public key from a
+ * u-coordinate and a new key pair.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class X25519Benchmark {
+
+    @Param({"jca", "pure"})
+    String engine;
+
+    private X25519Engine before;
+    private XECKeyPair myKeyPair;
+    private XECPublicKey theirPublicKey;
+    private BigInteger theirU;
+    private byte[] scalar;
+    private byte[] u;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        before = X25519Utils.getEngine();
+        X25519Utils.setEngine("pure".equals(engine) ? new PureX25519Engine() : new JcaX25519Engine());
+        myKeyPair = X25519Utils.newKeyPair();
+        XECKeyPair theirKeyPair = X25519Utils.newKeyPair();
+        theirPublicKey = theirKeyPair.getPublic();
+        theirU = theirKeyPair.getPublicU();
+        scalar = myKeyPair.getPrivate().getScalar().orElseThrow();
+        u = new byte[32];
+        X25519Utils.encodeU(theirU, u, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        X25519Utils.setEngine(before);
+    }
+
+    @Benchmark
+    public byte[] exchange() {
+        return X25519Utils.exchange(myKeyPair, theirPublicKey);
+    }
+
+    @Benchmark
+    public byte[] exchangeRaw() {
+        return X25519Utils.exchange(scalar, u);
+    }
+
+    @Benchmark
+    public byte[] exchangeFromU() {
+        return X25519Utils.exchange(myKeyPair, X25519Utils.fromU(theirU));
+    }
+
+    @Benchmark
+    public BigInteger newKeyPair() {
+        return X25519Utils.newKeyPair().getPublicU();
+    }
+}
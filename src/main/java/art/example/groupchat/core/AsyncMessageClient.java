@@ -0,0 +1,189 @@
+package art.example.groupchat.core;
+
+import art.example.groupchat.core.serialize.SerializeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous façade over {@link MessageClient}. <br>
+ * Each group is owned by a lightweight actor: calls are queued to the group's bounded mailbox and run one
+ * at a time on a shared {@link Executor}. An actor is dropped once its mailbox is drained and made again by
+ * the next call, so an idle group costs nothing here, not even a map entry. A full mailbox rejects the call, the returned future then fails with
+ * {@link RejectedExecutionException} and the caller is expected to slow down. <br>
+ * Any executor works; on Java 21 and later {@code Executors.newVirtualThreadPerTaskExecutor()} runs every
+ * mailbox drain on its own virtual thread.
+ */
+public class AsyncMessageClient {
+
+    /**
+     * mailbox tasks run by one drain before the actor yields its thread to other groups
+     */
+    private static final int DRAIN_BATCH = 64;
+
+    private final MessageClient client;
+    private final Executor executor;
+    private final int mailboxCapacity;
+    private final Map<Integer, GroupActor> actors;
+
+    public AsyncMessageClient(MessageClient client, Executor executor, int mailboxCapacity) {
+        if (mailboxCapacity <= 0) throw new IllegalArgumentException("Mailbox capacity must be positive");
+        this.client = client;
+        this.executor = executor;
+        this.mailboxCapacity = mailboxCapacity;
+        this.actors = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Use the common fork join pool and mailboxes of 1024 calls
+     */
+    public AsyncMessageClient(MessageClient client) {
+        this(client, ForkJoinPool.commonPool(), 1024);
+    }
+
+    public CompletableFuture<Message> sendMessage(int groupId, byte[] plaintext) {
+        return submit(groupId, () -> client.createMessage(groupId, plaintext));
+    }
+
+    /**
+     * @return future of the message in json form
+     */
+    public CompletableFuture<String> sendMessage(int groupId, String plaintext) {
+        byte[] raw = plaintext.getBytes(StandardCharsets.UTF_8);
+        return sendMessage(groupId, raw).thenApply(SerializeUtils::toJson);
+    }
+
+    /**
+     * @return future of the plaintext, completed with null if the message was buffered for a later epoch
+     */
+    public CompletableFuture<byte[]> receiveMessage(Message message) {
+        return submit(message.getGroupId(), () -> client.receiveMessage(message));
+    }
+
+    /**
+     * @param msgJson message in json form, decoded on the calling thread to find its group
+     * @return future of the plaintext
+     */
+    public CompletableFuture<String> receiveMessage(String msgJson) {
+        return receiveMessage(SerializeUtils.toMessage(msgJson))
+                .thenApply(raw -> raw == null ? null : new String(raw, StandardCharsets.UTF_8));
+    }
+
+    public CompletableFuture<Void> receiveSetupMessage(SetupMessage setupMessage) {
+        return submit(setupMessage.getGroupId(), () -> {
+            client.receiveSetupMessage(setupMessage);
+            return null;
+        });
+    }
+
+    public MessageClient getClient() {
+        return client;
+    }
+
+    /**
+     * @return number of groups with calls queued or running
+     */
+    public int getActiveGroupCount() {
+        return actors.size();
+    }
+
+    /**
+     * Queue a call to the actor of a group
+     */
+    private <T> CompletableFuture<T> submit(int groupId, Supplier<T> call) {
+        Call<T> task = new Call<>(call);
+        GroupActor actor = actors.computeIfAbsent(groupId, GroupActor::new);
+        try {
+            // actor vừa bị bỏ thì tạo actor mới cho nhóm
+            while (!actor.enqueue(task)) {
+                actor = actors.computeIfAbsent(groupId, GroupActor::new);
+            }
+        } catch (RejectedExecutionException e) {
+            task.future.completeExceptionally(e);
+            return task.future;
+        }
+        actor.schedule();
+        return task.future;
+    }
+
+    private static class Call<T> {
+        private final Supplier<T> call;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Call(Supplier<T> call) {
+            this.call = call;
+        }
+
+        void run() {
+            try {
+                future.complete(call.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private class GroupActor implements Runnable {
+        private final int groupId;
+        private final BlockingQueue<Call<?>> mailbox = new LinkedBlockingQueue<>(mailboxCapacity);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // đã bị gỡ khỏi bảng actor, không nhận thêm lời gọi; chỉ đổi khi giữ khóa của actor
+        private boolean retired;
+
+        GroupActor(int groupId) {
+            this.groupId = groupId;
+        }
+
+        /**
+         * @return false if the actor was retired, the call then goes to a new actor of the group
+         * @throws RejectedExecutionException if the mailbox is full
+         */
+        synchronized boolean enqueue(Call<?> call) {
+            if (retired) return false;
+            if (!mailbox.offer(call))
+                throw new RejectedExecutionException("Mailbox of group " + groupId + " is full");
+            return true;
+        }
+
+        /**
+         * Remove the actor from the table if nothing is queued or running, checked under the lock of
+         * {@link #enqueue} so that no call is left in a retired mailbox
+         */
+        private synchronized void retire() {
+            if (scheduled.get() || !mailbox.isEmpty()) return;
+            retired = true;
+            actors.remove(groupId, this);
+        }
+
+        void schedule() {
+            if (!scheduled.compareAndSet(false, true)) return;
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // executor is shut down, nothing will drain the mailbox any more
+                Call<?> call;
+                while ((call = mailbox.poll()) != null) {
+                    call.future.completeExceptionally(e);
+                }
+                scheduled.set(false);
+                retire();
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < DRAIN_BATCH; i++) {
+                Call<?> call = mailbox.poll();
+                if (call == null) break;
+                call.run();
+            }
+            scheduled.set(false);
+            // a call may have arrived after the last poll
+            if (!mailbox.isEmpty()) schedule();
+            else retire();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package art.example.groupchat.core;
+
+import art.example.groupchat.core.store.GroupStore;
+import art.example.groupchat.core.store.SpillFile;
+import art.example.groupchat.core.store.StateCodec;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+/**
+ * Groups of a {@link MessageClient}: a bounded set of live trees, the others in {@link StateCodec} form. <br>
+ * A cold group is decoded when it is next used; once there are more live groups than the limit, the least
+ * recently used are encoded again, a batch at a time. A group whose lock is held or that buffers messages
+ * is never evicted. The compact form is kept on the heap, or in a {@link SpillFile} mapped from the disk; a
+ * group recovered from a snapshot stays sealed in the {@link GroupStore} until it is used. <br>
+ * An evicted group loses its journal and its sender chains, like a recovered one: messages older than its
+ * epoch are rejected and own next message updates the tree. <br>
+ * Every call on a group is made under the group's lock.
+ */
+final class GroupCache {
+
+    private final IntFunction<ReentrantLock> locks;
+    private final Map<Integer, Entry> live;
+    // dạng nén trên heap
+    private final Map<Integer, ByteBuffer> cold;
+    // lát đã niêm phong của snapshot được ánh xạ khi khôi phục, mở bằng store
+    private final Map<Integer, ByteBuffer> sealed;
+    private final GroupStore store;
+    private final ReentrantLock evicting;
+    private volatile int capacity = Integer.MAX_VALUE;
+    private volatile SpillFile spill;
+
+    /**
+     * @param locks lock of each group
+     * @param store store the sealed groups are recovered from, null if there is none
+     */
+    GroupCache(IntFunction<ReentrantLock> locks, GroupStore store) {
+        this.locks = locks;
+        this.store = store;
+        live = new ConcurrentHashMap<>();
+        cold = new ConcurrentHashMap<>();
+        sealed = new ConcurrentHashMap<>();
+        evicting = new ReentrantLock();
+    }
+
+    /**
+     * @param capacity most live groups, at least 1
+     * @param spill    file for the compact form of the groups evicted from now on, null to keep it on the heap
+     */
+    void setLimit(int capacity, SpillFile spill) {
+        if (capacity < 1) throw new IllegalArgumentException("At least one live group");
+        this.capacity = capacity;
+        this.spill = spill;
+        evict();
+    }
+
+    /**
+     * @return live group, decoded first if it was cold; null if there is no such group
+     */
+    GroupState get(int groupId) {
+        Entry entry = live.get(groupId);
+        if (entry != null) {
+            entry.lastUse = System.nanoTime();
+            return entry.groupState;
+        }
+        ByteBuffer encoded = removeCold(groupId);
+        if (encoded == null) return null;
+        GroupState groupState = StateCodec.toGroupState(encoded);
+        groupState.expireEpoch();
+        live.put(groupId, new Entry(groupState));
+        evict();
+        return groupState;
+    }
+
+    void put(GroupState groupState) {
+        removeCold(groupState.getGroupId());
+        live.put(groupState.getGroupId(), new Entry(groupState));
+        evict();
+    }
+
+    /**
+     * Add a group recovered sealed from a snapshot of the store
+     */
+    void putSealed(int groupId, ByteBuffer group) {
+        live.remove(groupId);
+        sealed.put(groupId, group);
+    }
+
+    void remove(int groupId) {
+        live.remove(groupId);
+        removeCold(groupId);
+    }
+
+    /**
+     * @return live group, without decoding a cold one
+     */
+    GroupState getLive(int groupId) {
+        Entry entry = live.get(groupId);
+        return entry == null ? null : entry.groupState;
+    }
+
+    /**
+     * @return compact form of a cold group, null if the group is live or unknown
+     */
+    ByteBuffer getEncoded(int groupId) {
+        ByteBuffer encoded = cold.get(groupId);
+        SpillFile spill = this.spill;
+        if (encoded == null && spill != null) encoded = spill.get(groupId);
+        ByteBuffer group = encoded == null ? sealed.get(groupId) : null;
+        if (group != null) encoded = store.unseal(group);
+        return encoded == null ? null : encoded.duplicate();
+    }
+
+    Set<Integer> groupIds() {
+        Set<Integer> ids = new HashSet<>(live.keySet());
+        ids.addAll(cold.keySet());
+        ids.addAll(sealed.keySet());
+        SpillFile spill = this.spill;
+        if (spill != null) ids.addAll(spill.groupIds());
+        return ids;
+    }
+
+    int liveCount() {
+        return live.size();
+    }
+
+    /**
+     * Encode the least recently used groups until a batch below the limit, one thread at a time
+     */
+    private void evict() {
+        int limit = capacity;
+        if (live.size() <= limit || !evicting.tryLock()) return;
+        try {
+            // xóa thêm một phần để không phải quét lại ở mỗi lần nạp
+            int excess = live.size() - (limit - limit / 16);
+            PriorityQueue<Map.Entry<Integer, Entry>> oldest = new PriorityQueue<>(
+                    Comparator.comparingLong((Map.Entry<Integer, Entry> e) -> e.getValue().lastUse).reversed());
+            for (Map.Entry<Integer, Entry> entry : live.entrySet()) {
+                oldest.add(entry);
+                if (oldest.size() > excess) oldest.poll();
+            }
+            for (Map.Entry<Integer, Entry> victim : oldest) {
+                ReentrantLock lock = locks.apply(victim.getKey());
+                // nhóm đang được dùng thì bỏ qua
+                if (!lock.tryLock()) continue;
+                try {
+                    Entry entry = live.get(victim.getKey());
+                    if (entry == null || entry.groupState.hasPending()) continue;
+                    putCold(victim.getKey(), ByteBuffer.wrap(StateCodec.toBytes(entry.groupState)));
+                    live.remove(victim.getKey());
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } finally {
+            evicting.unlock();
+        }
+    }
+
+    private void putCold(int groupId, ByteBuffer encoded) {
+        SpillFile spill = this.spill;
+        if (spill != null) spill.put(groupId, encoded);
+        else cold.put(groupId, encoded);
+    }
+
+    private ByteBuffer removeCold(int groupId) {
+        ByteBuffer encoded = cold.remove(groupId);
+        SpillFile spill = this.spill;
+        if (encoded == null && spill != null) encoded = spill.remove(groupId);
+        ByteBuffer group = sealed.remove(groupId);
+        if (encoded == null && group != null) encoded = store.unseal(group);
+        return encoded;
+    }
+
+    private static final class Entry {
+        private final GroupState groupState;
+        private volatile long lastUse;
+
+        Entry(GroupState groupState) {
+            this.groupState = groupState;
+            lastUse = System.nanoTime();
+        }
+    }
+}
@@ -1,27 +1,75 @@
 package art.example.groupchat.core;
 
+import art.example.groupchat.core.crypto.SenderChain;
+import art.example.groupchat.core.tree.DHTree;
+import art.example.groupchat.core.tree.LeafNode;
 import art.example.groupchat.core.tree.Node;
+import art.example.groupchat.core.tree.PathChange;
+import art.example.groupchat.core.tree.PreparedPath;
 
 import java.security.interfaces.XECPublicKey;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.function.Supplier;
 
 public class GroupState {
+    /**
+     * number of past updates that can be undone, messages older than this are rejected. The journal keeps the
+     * old path secrets, so it is also how long a replaced key stays in memory
+     */
+    public static final int JOURNAL_DEPTH = 16;
+    /**
+     * how far ahead of the current epoch a message may be buffered
+     */
+    public static final int MAX_AHEAD = 64;
+    /**
+     * number of messages waiting for an earlier epoch
+     */
+    public static final int MAX_PENDING = 256;
+
     private final int groupId;
     private final List<String> members;
     private Node root;
+    // chỉ mục username -> node lá của cây hiện tại, được dựng lại mỗi khi thay cây
+    private final Map<String, LeafNode> leaves;
     // danh sách khóa công khai của các thành viên trong nhóm
     private Map<String, XECPublicKey> idKeys;
     // danh sách khóa tạm thời (ephemeral keys) của các thành viên
     private final Map<String, XECPublicKey> ephemeralKeys;
+    // số cập nhật cây đã áp dụng từ lần dựng cây gần nhất
+    private int epoch;
+    // các cập nhật gần nhất, cái cuối tạo ra epoch hiện tại
+    private final Deque<PathChange> journal;
+    // các cập nhật thua một cập nhật đồng thời, và các cập nhật dựa trên chúng, theo id của epoch chúng tạo ra
+    private final Map<Long, Fork> forks;
+    // tin nhắn đến sớm, theo epoch mà chúng dựa trên
+    private final NavigableMap<Integer, List<Message>> pending;
+    // tin nhắn dựa trên một cập nhật chưa tới, theo id của epoch mà cập nhật đó tạo ra
+    private final Map<Long, List<Message>> waiting;
+    // tin nhắn chờ đã có cập nhật của chúng, trả về ở lần takePending tới
+    private final List<Message> ready;
+    private final NavigableMap<Integer, MembershipMessage> pendingMembership;
+    private int pendingCount;
+    // thời điểm nhóm tới epoch hiện tại, theo System.nanoTime
+    private long epochStart;
+    // chuỗi khóa của từng người gửi, theo epoch mà chuỗi được dẫn xuất
+    private final NavigableMap<Integer, Map<String, SenderChain>> chains;
+    // đường đi của lá mình được tính trước cho lần gửi tới, không được lưu
+    private PreparedPath preparedPath;
 
     public GroupState(int groupId) {
         this.groupId = groupId;
         members = new ArrayList<>();
         idKeys = new HashMap<>();
         ephemeralKeys = new HashMap<>();
+        leaves = new HashMap<>();
+        journal = new ArrayDeque<>();
+        forks = new HashMap<>();
+        pending = new TreeMap<>();
+        waiting = new HashMap<>();
+        ready = new ArrayList<>();
+        pendingMembership = new TreeMap<>();
+        chains = new TreeMap<>();
+        epochStart = System.nanoTime();
     }
 
     public void addMember(String username, XECPublicKey idKey, XECPublicKey ephemeralKey) {
@@ -42,6 +90,30 @@ public class GroupState {
 
     public void setRoot(Node root) {
         this.root = root;
+        leaves.clear();
+        DHTree.indexLeaves(root, leaves);
+    }
+
+    /**
+     * Index a leaf added or filled by an incremental change, without walking the tree
+     * @param root root of the tree, new if the leaf was appended
+     * @param leaf leaf of the new member
+     */
+    public void addLeaf(Node root, LeafNode leaf) {
+        this.root = root;
+        leaves.put(leaf.getUsername(), leaf);
+    }
+
+    public void removeLeaf(String username) {
+        leaves.remove(username);
+    }
+
+    /**
+     * @param username member alias
+     * @return leaf node of the member in the current tree, null if the member has no leaf
+     */
+    public LeafNode getLeaf(String username) {
+        return leaves.get(username);
     }
 
     public void setIdKeys(Map<String, XECPublicKey> idKeys) {
@@ -63,4 +135,293 @@ public class GroupState {
     public Map<String, XECPublicKey> getEphemeralKeys() {
         return ephemeralKeys;
     }
+
+    public int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return {@link DHTree#getEpochId(Node)} of the current tree
+     */
+    public long getEpochId() {
+        PathChange last = journal.peekLast();
+        return last == null ? DHTree.getEpochId(root) : last.getEpochId();
+    }
+
+    /**
+     * Start over at an epoch, after the tree was rebuilt or received in a setup message
+     */
+    public void resetEpoch(int epoch) {
+        this.epoch = epoch;
+        epochStart = System.nanoTime();
+        journal.clear();
+        forks.clear();
+        chains.clear();
+        pending.clear();
+        pendingMembership.clear();
+        waiting.clear();
+        ready.clear();
+        pendingCount = 0;
+        preparedPath = null;
+    }
+
+    /**
+     * Record an update applied on the current epoch and move to the next one
+     */
+    public void recordChange(PathChange change) {
+        journal.addLast(change);
+        if (journal.size() > JOURNAL_DEPTH) journal.removeFirst();
+        epoch++;
+        epochStart = System.nanoTime();
+        // khóa nhóm của các epoch ngoài nhật ký không còn tính lại được
+        int oldest = epoch - journal.size();
+        chains.headMap(oldest, false).clear();
+        forks.values().removeIf(fork -> fork.epoch < oldest);
+        for (Iterator<List<Message>> it = waiting.values().iterator(); it.hasNext(); ) {
+            List<Message> messages = it.next();
+            int count = messages.size();
+            messages.removeIf(message -> message.getEpoch() < oldest);
+            pendingCount -= count - messages.size();
+            if (messages.isEmpty()) it.remove();
+        }
+        release(change.getEpochId());
+    }
+
+    /**
+     * Replace the updates made since an epoch by a concurrent update on that epoch that wins over them, after
+     * they were undone. They are kept as a branch, for the messages made on top of them
+     * @param baseEpoch epoch the winning update is based on
+     * @param baseId    epoch id of the tree on that epoch
+     * @param change    winning update, applied
+     */
+    public void replaceChangesSince(int baseEpoch, long baseId, PathChange change) {
+        List<PathChange> lost = changesSince(baseEpoch);
+        long parent = baseId;
+        for (int i = 0; i < lost.size(); i++) {
+            PathChange fork = lost.get(i);
+            forks.put(fork.getEpochId(), new Fork(baseEpoch + i, parent, fork));
+            parent = fork.getEpochId();
+        }
+        dropChangesSince(baseEpoch);
+        recordChange(change);
+    }
+
+    /**
+     * Keep an update that lost a concurrent race, or was made on top of one, after it was undone
+     * @param baseEpoch epoch the update is based on
+     * @param parent    epoch id of the tree it is based on
+     * @param change    the update
+     */
+    public void recordFork(int baseEpoch, long parent, PathChange change) {
+        forks.putIfAbsent(change.getEpochId(), new Fork(baseEpoch, parent, change));
+        release(change.getEpochId());
+    }
+
+    /**
+     * @param epochId epoch id of a tree off the journal
+     * @return updates from the one based on the journal to the one that made that tree, oldest first, null if
+     * that tree is unknown
+     */
+    List<Fork> getBranch(long epochId) {
+        Fork fork = forks.get(epochId);
+        if (fork == null) return null;
+        List<Fork> branch = new ArrayList<>();
+        for (; fork != null; fork = forks.get(fork.parent)) {
+            branch.add(fork);
+        }
+        Collections.reverse(branch);
+        return branch;
+    }
+
+    /**
+     * Move to the next epoch after a change that cannot be undone, such as a membership change
+     */
+    public void recordBarrier() {
+        recordBarrier(epoch);
+    }
+
+    /**
+     * Move to the epoch after a past one, after a change made on that epoch that cannot be undone; the updates
+     * made since it are forgotten, they were undone
+     * @param baseEpoch epoch the change is based on
+     */
+    public void recordBarrier(int baseEpoch) {
+        journal.clear();
+        forks.clear();
+        chains.clear();
+        epoch = baseEpoch + 1;
+        epochStart = System.nanoTime();
+        // tin nhắn dựa trên các epoch đã bị hủy không còn áp dụng được
+        for (List<Message> stale : pending.headMap(epoch, false).values()) {
+            pendingCount -= stale.size();
+        }
+        pending.headMap(epoch, false).clear();
+        pendingCount -= pendingMembership.headMap(epoch, false).size();
+        pendingMembership.headMap(epoch, false).clear();
+        for (List<Message> stale : waiting.values()) {
+            pendingCount -= stale.size();
+        }
+        waiting.clear();
+    }
+
+    /**
+     * Forget the updates made on top of an epoch, after they were undone
+     */
+    public void dropChangesSince(int baseEpoch) {
+        while (epoch > baseEpoch) {
+            journal.removeLast();
+            epoch--;
+        }
+        chains.tailMap(epoch, false).clear();
+        epochStart = System.nanoTime();
+    }
+
+    /**
+     * Treat the current epoch as expired, so own next message updates the tree instead of going on a sender
+     * chain, e.g. after the state was recovered without its chains
+     */
+    public void expireEpoch() {
+        epochStart = System.nanoTime() - Long.MAX_VALUE;
+    }
+
+    /**
+     * @return nanoseconds since the group reached the current epoch
+     */
+    public long getEpochAge() {
+        long age = System.nanoTime() - epochStart;
+        // epoch đã hết hạn: tràn số sau expireEpoch
+        return age < 0 ? Long.MAX_VALUE : age;
+    }
+
+    /**
+     * @param preparedPath own next path computed ahead, replaces the one kept before
+     */
+    public void setPreparedPath(PreparedPath preparedPath) {
+        this.preparedPath = preparedPath;
+    }
+
+    /**
+     * @return own next path computed ahead, null if there is none; it may be stale, check it against the tree
+     */
+    public PreparedPath getPreparedPath() {
+        return preparedPath;
+    }
+
+    /**
+     * @return own next path computed ahead, removed so it is used at most once; null if there is none
+     */
+    public PreparedPath takePreparedPath() {
+        PreparedPath path = preparedPath;
+        preparedPath = null;
+        return path;
+    }
+
+    /**
+     * @param epoch    epoch the chain is derived on, within the journal
+     * @param sender   alias of the sender
+     * @param groupKey group key of that epoch, called only when the chain does not exist yet
+     * @return chain of the sender on the epoch
+     */
+    public SenderChain getChain(int epoch, String sender, Supplier<byte[]> groupKey) {
+        return chains.computeIfAbsent(epoch, e -> new HashMap<>())
+                .computeIfAbsent(sender, s -> new SenderChain(groupKey.get(), s));
+    }
+
+    /**
+     * @param baseEpoch an epoch before the current one
+     * @return updates applied since that epoch, oldest first, null if the journal does not reach back that far
+     */
+    public List<PathChange> changesSince(int baseEpoch) {
+        int count = epoch - baseEpoch;
+        if (baseEpoch < 0 || count > journal.size()) return null;
+        List<PathChange> changes = new ArrayList<>(count);
+        Iterator<PathChange> it = journal.descendingIterator();
+        for (int i = 0; i < count; i++) {
+            changes.add(it.next());
+        }
+        Collections.reverse(changes);
+        return changes;
+    }
+
+    /**
+     * Keep a message made on a future epoch until the group reaches it
+     */
+    public void buffer(Message message) {
+        checkWindow(message.getEpoch());
+        pending.computeIfAbsent(message.getEpoch(), e -> new ArrayList<>()).add(message);
+        pendingCount++;
+    }
+
+    /**
+     * Keep a message made on top of an update that has not arrived yet, until it does
+     * @param parent epoch id of the tree the message is based on
+     */
+    public void await(long parent, Message message) {
+        checkWindow(message.getEpoch());
+        waiting.computeIfAbsent(parent, id -> new ArrayList<>()).add(message);
+        pendingCount++;
+    }
+
+    public void buffer(MembershipMessage message) {
+        checkWindow(message.getEpoch());
+        if (pendingMembership.putIfAbsent(message.getEpoch(), message) == null) pendingCount++;
+    }
+
+    private void checkWindow(int messageEpoch) {
+        if (messageEpoch - epoch > MAX_AHEAD)
+            throw new RuntimeException("Epoch " + messageEpoch + " is too far ahead of epoch " + epoch);
+        if (pendingCount >= MAX_PENDING)
+            throw new RuntimeException("Too many messages waiting in group " + groupId);
+    }
+
+    /**
+     * @return true if messages or membership changes wait for a later epoch
+     */
+    public boolean hasPending() {
+        return pendingCount > 0;
+    }
+
+    /**
+     * @return messages buffered for the current epoch or whose update arrived, removed from the buffer, null
+     * if there is none
+     */
+    public List<Message> takePending() {
+        List<Message> messages;
+        if (!ready.isEmpty()) {
+            messages = new ArrayList<>(ready);
+            ready.clear();
+        } else {
+            messages = pending.remove(epoch);
+        }
+        if (messages != null) pendingCount -= messages.size();
+        return messages;
+    }
+
+    public MembershipMessage takePendingMembership() {
+        MembershipMessage message = pendingMembership.remove(epoch);
+        if (message != null) pendingCount--;
+        return message;
+    }
+
+    private void release(long epochId) {
+        List<Message> messages = waiting.remove(epochId);
+        if (messages != null) ready.addAll(messages);
+    }
+
+    /**
+     * An update off the journal: it lost a concurrent race, or is based on one that did
+     */
+    static final class Fork {
+        // epoch mà cập nhật dựa trên
+        final int epoch;
+        // id của cây mà cập nhật dựa trên
+        final long parent;
+        final PathChange change;
+
+        Fork(int epoch, long parent, PathChange change) {
+            this.epoch = epoch;
+            this.parent = parent;
+            this.change = change;
+        }
+    }
 }
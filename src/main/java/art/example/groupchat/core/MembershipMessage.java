@@ -0,0 +1,121 @@
+package art.example.groupchat.core;
+
+import art.example.groupchat.core.crypto.X25519Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Queue;
+
+/**
+ * Incremental membership change sent by the admin to the current members: the public keys of the direct
+ * path of the changed leaf, instead of a whole new tree. <br>
+ * The change carries a MAC under the group key before it and a confirmation under the group key after it,
+ * both over {@link #getAuthenticatedData()}
+ */
+public class MembershipMessage {
+    private final int groupId;
+    // epoch mà thay đổi được tính dựa trên
+    private final int epoch;
+    // id của cây ở epoch đó bên quản trị viên
+    private final long parent;
+    private final String member;
+    // true khi thêm thành viên, false khi xóa
+    private final boolean added;
+    // vị trí lá của thành viên mới, bằng số lá hiện có nếu lá được nối vào cuối cây
+    private final int leaf;
+    // khóa định danh của thành viên mới, null khi xóa
+    private final BigInteger idKey;
+    // khóa công khai trên đường đi từ lá thay đổi tới gốc, lá trước
+    private final Queue<BigInteger> updatePath;
+    // MAC theo khóa nhóm trước thay đổi
+    private final byte[] mac;
+    // MAC theo khóa nhóm sau thay đổi
+    private final byte[] confirmation;
+
+    /**
+     * @param parent       epoch id of the admin's tree on that epoch
+     * @param mac          MAC under the group key of the epoch
+     * @param confirmation MAC under the group key after the change
+     */
+    public MembershipMessage(int groupId, int epoch, long parent, String member, boolean added, int leaf,
+                             BigInteger idKey, Queue<BigInteger> updatePath, byte[] mac, byte[] confirmation) {
+        this.groupId = groupId;
+        this.epoch = epoch;
+        this.parent = parent;
+        this.member = member;
+        this.added = added;
+        this.leaf = leaf;
+        this.idKey = idKey;
+        this.updatePath = updatePath;
+        this.mac = mac;
+        this.confirmation = confirmation;
+    }
+
+    public int getGroupId() {
+        return groupId;
+    }
+
+    public int getEpoch() {
+        return epoch;
+    }
+
+    public long getParent() {
+        return parent;
+    }
+
+    public String getMember() {
+        return member;
+    }
+
+    public boolean isAdded() {
+        return added;
+    }
+
+    public int getLeaf() {
+        return leaf;
+    }
+
+    public BigInteger getIdKey() {
+        return idKey;
+    }
+
+    public Queue<BigInteger> getUpdatePath() {
+        return updatePath;
+    }
+
+    public byte[] getMac() {
+        return mac;
+    }
+
+    public byte[] getConfirmation() {
+        return confirmation;
+    }
+
+    /**
+     * @return every field but the MAC and the confirmation, in a fixed order
+     */
+    public byte[] getAuthenticatedData() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + (updatePath.size() + 1) * 32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(groupId);
+            out.writeInt(epoch);
+            out.writeLong(parent);
+            out.writeUTF(member);
+            out.writeBoolean(added);
+            out.writeInt(leaf);
+            byte[] key = new byte[32];
+            if (idKey != null) X25519Utils.encodeU(idKey, key, 0);
+            out.write(key);
+            out.writeByte(updatePath.size());
+            for (BigInteger u : updatePath) {
+                X25519Utils.encodeU(u, key, 0);
+                out.write(key);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
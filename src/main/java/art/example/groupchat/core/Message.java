@@ -1,16 +1,57 @@
 package art.example.groupchat.core;
 
+import art.example.groupchat.core.tree.DHTree;
+import art.example.groupchat.core.tree.Node;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+
 public class Message {
     private final String from;
     private final int groupId;
-    private final String updatePath;
-    private final String cipherText;
+    // epoch của nhóm mà người gửi tính đường đi dựa trên, sau tin nhắn nhóm ở epoch + 1
+    private final int epoch;
+    // id của cây ở epoch đó bên người gửi, phân biệt hai cập nhật đồng thời trên cùng epoch
+    private final long parent;
+    // chỉ số trong chuỗi khóa của người gửi ở epoch, chỉ dùng khi không có đường cập nhật
+    private final int counter;
+    // khóa công khai trên đường đi từ lá của người gửi tới gốc, lá trước
+    private final Queue<BigInteger> updatePath;
+    // nonce + bản mã AES-GCM, có thể là một phần của buffer nhận từ mạng
+    private final ByteBuffer cipherText;
 
-    public Message(String from, int groupId, String updatePath, String cipherText) {
+    /**
+     * Message updating the tree
+     */
+    public Message(String from, int groupId, int epoch, long parent, Queue<BigInteger> updatePath,
+                   byte[] cipherText) {
+        this(from, groupId, epoch, parent, 0, updatePath, cipherText);
+    }
+
+    /**
+     * @param epoch      epoch the update path is based on, or the epoch of the sender chain if the path is empty
+     * @param parent     epoch id of the sender's tree on that epoch, see {@link DHTree#getEpochId(Node)}
+     * @param counter    index of the message key in the sender chain
+     * @param updatePath new public keys of the sender's path, empty for a message of the sender chain
+     */
+    public Message(String from, int groupId, int epoch, long parent, int counter, Queue<BigInteger> updatePath,
+                   byte[] cipherText) {
+        this(from, groupId, epoch, parent, counter, updatePath, ByteBuffer.wrap(cipherText));
+    }
+
+    /**
+     * @param cipherText nonce, ciphertext and tag from the position to the limit, kept as a view without copying
+     */
+    public Message(String from, int groupId, int epoch, long parent, int counter, Queue<BigInteger> updatePath,
+                   ByteBuffer cipherText) {
         this.from = from;
         this.groupId = groupId;
+        this.epoch = epoch;
+        this.parent = parent;
+        this.counter = counter;
         this.updatePath = updatePath;
-        this.cipherText = cipherText;
+        this.cipherText = cipherText.slice();
     }
 
     public String getFrom() {
@@ -21,11 +62,56 @@ public class Message {
         return groupId;
     }
 
-    public String getUpdatePath() {
+    public int getEpoch() {
+        return epoch;
+    }
+
+    public long getParent() {
+        return parent;
+    }
+
+    public int getCounter() {
+        return counter;
+    }
+
+    /**
+     * @return true if the message is encrypted with the sender chain instead of updating the tree
+     */
+    public boolean isChained() {
+        return updatePath.isEmpty();
+    }
+
+    public Queue<BigInteger> getUpdatePath() {
         return updatePath;
     }
 
-    public String getCipherText() {
-        return cipherText;
+    /**
+     * @return nonce, ciphertext and tag; a copy if the message is a view of a larger buffer
+     */
+    public byte[] getCipherText() {
+        if (cipherText.hasArray() && cipherText.arrayOffset() == 0
+                && cipherText.limit() == cipherText.array().length) {
+            return cipherText.array();
+        }
+        byte[] copy = new byte[cipherText.remaining()];
+        cipherText.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * @return this message if it owns its ciphertext, otherwise a copy that does not depend on the buffer it was
+     * decoded from
+     */
+    public Message detached() {
+        if (cipherText.hasArray() && cipherText.arrayOffset() == 0
+                && cipherText.limit() == cipherText.array().length) return this;
+        return new Message(from, groupId, epoch, parent, counter, updatePath, getCipherText());
+    }
+
+    /**
+     * @return view of the nonce, ciphertext and tag, with its own position
+     */
+    public ByteBuffer getCipherTextBuffer() {
+        return cipherText.duplicate();
     }
 }
@@ -1,37 +1,236 @@
 package art.example.groupchat.core;
 
 import art.example.groupchat.core.crypto.CryptoUtils;
+import art.example.groupchat.core.crypto.IdentitySecretCache;
+import art.example.groupchat.core.crypto.KeyPairPool;
+import art.example.groupchat.core.crypto.SenderChain;
+import art.example.groupchat.core.crypto.StreamingAead;
 import art.example.groupchat.core.crypto.X25519Utils;
 import art.example.groupchat.core.crypto.XECKeyPair;
+import art.example.groupchat.core.serialize.BinaryCodec;
 import art.example.groupchat.core.serialize.SerializeUtils;
+import art.example.groupchat.core.store.GroupStore;
+import art.example.groupchat.core.store.SpillFile;
 import art.example.groupchat.core.tree.DHTree;
 import art.example.groupchat.core.tree.LeafNode;
 import art.example.groupchat.core.tree.Node;
+import art.example.groupchat.core.tree.PathChange;
+import art.example.groupchat.core.tree.PreparedPath;
 
-import javax.xml.bind.DatatypeConverter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.security.interfaces.XECPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
+/**
+ * A member of many groups. <br>
+ * The client is thread-safe: every operation on a group holds the lock of the group's stripe, so operations
+ * on one group are serialized while different groups are served in parallel.
+ */
 public class MessageClient {
 
+    /**
+     * number of group locks, a power of two
+     */
+    private static final int LOCK_STRIPES = 64;
+    /**
+     * number of peers whose identity secret is kept
+     */
+    private static final int IDENTITY_SECRETS = 4096;
+
+    private static final byte[] MEMBERSHIP_MAC = "art membership mac".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MEMBERSHIP_CONFIRMATION =
+            "art membership confirmation".getBytes(StandardCharsets.UTF_8);
+
     private final String username;
     private final XECKeyPair idKeyPair;
+    /**
+     * Secrets between the identity key and the identity keys of other users, shared by all groups
+     */
+    private final IdentitySecretCache idSecrets;
     /**
      * Ephemeral key pair of each group
      */
     private final Map<Integer, XECKeyPair> ephemeralKeyPairs;
-    private final Map<Integer, GroupState> groupStates;
+    private final GroupCache groupStates;
+    private final ReentrantLock[] groupLocks;
+    /**
+     * Pool deriving the leaves and subtrees of a group setup, null to set up on the calling thread
+     */
+    private final ForkJoinPool setupPool;
+    private volatile MessageListener messageListener;
+    /**
+     * own messages per tree update, 1 to update the tree with every message
+     */
+    private volatile int ratchetMessages = 1;
+    private volatile long ratchetPeriodNanos = Long.MAX_VALUE;
+    /**
+     * Store the changes are logged to, null to keep the state on the heap only
+     */
+    private final GroupStore store;
+    /**
+     * Pool of pre-generated ephemeral keys, null to generate each key when it is needed
+     */
+    private volatile KeyPairPool keyPairPool;
+    /**
+     * Executor computing own next path of a group ahead of the send, null to compute it on the send
+     */
+    private volatile Executor speculation;
+    // nhóm đang chờ được tính trước, mỗi nhóm một tác vụ
+    private final Set<Integer> speculating = ConcurrentHashMap.newKeySet();
 
     public MessageClient(String username) {
+        this(username, null);
+    }
+
+    /**
+     * @param username  member alias
+     * @param setupPool pool used by the admin to set up groups in parallel, its parallelism bounds the number
+     *                  of threads; null to set up on the calling thread
+     */
+    public MessageClient(String username, ForkJoinPool setupPool) {
+        this(username, setupPool, null);
+    }
+
+    /**
+     * Client whose state is kept in a store. If the store holds the state of this client, its identity key
+     * and groups are recovered: the groups go on from the epoch of their last stored change, without a new
+     * setup; messages buffered or older than that epoch are lost
+     * @param username  member alias
+     * @param setupPool pool used by the admin to set up groups in parallel, null to set up on the calling thread
+     * @param store     opened store, null to keep the state on the heap only
+     */
+    public MessageClient(String username, ForkJoinPool setupPool, GroupStore store) {
         this.username = username;
-        idKeyPair = X25519Utils.newKeyPair();
-        ephemeralKeyPairs = new HashMap<>();
-        groupStates = new HashMap<>();
+        this.setupPool = setupPool;
+        this.store = store;
+        ephemeralKeyPairs = new ConcurrentHashMap<>();
+        groupLocks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            groupLocks[i] = new ReentrantLock();
+        }
+        groupStates = new GroupCache(this::lockFor, store);
+        if (store != null && store.getIdKeyPair() != null) {
+            if (!username.equals(store.getUsername()))
+                throw new RuntimeException("Store belongs to " + store.getUsername() + ", not " + username);
+            idKeyPair = store.getIdKeyPair();
+            ephemeralKeyPairs.putAll(store.getEphemeralKeyPairs());
+            for (GroupState groupState : store.getGroups().values()) {
+                // chuỗi khóa không được lưu, tin tiếp theo cập nhật cây thay vì dùng lại chỉ số cũ
+                groupState.expireEpoch();
+                groupStates.put(groupState);
+            }
+            // nhóm trong snapshot chưa bị thay đổi thì chỉ được mở và giải mã khi dùng tới
+            store.getEncodedGroups().forEach(groupStates::putSealed);
+        } else {
+            idKeyPair = X25519Utils.newKeyPair();
+            if (store != null) store.logIdentity(username, idKeyPair);
+        }
+        idSecrets = new IdentitySecretCache(idKeyPair, IDENTITY_SECRETS);
+    }
+
+    /**
+     * Take the ephemeral keys of sends, joins and group creation from a pool filled in the background, so they
+     * are not generated on the calling thread. The pool may be shared by several clients and is closed by
+     * its owner
+     * @param pool pool of fresh key pairs, null to generate each key when it is needed
+     */
+    public void setKeyPairPool(KeyPairPool pool) {
+        keyPairPool = pool;
+    }
+
+    private XECKeyPair newEphemeralKey() {
+        KeyPairPool pool = keyPairPool;
+        return pool != null ? pool.take() : X25519Utils.newKeyPair();
+    }
+
+    /**
+     * Compute own next path of a group in the background, after each receive and send, so a send that
+     * updates the tree only sets the prepared keys instead of doing one exchange per level. A path is tied to
+     * the tree it was computed on: if another update comes first it is thrown away and computed again.
+     * Groups evicted by the group cache are not prepared
+     * @param executor executor of the computations, e.g. a single low priority thread; null to compute the
+     *                 path on the send
+     */
+    public void setSpeculativeSend(Executor executor) {
+        speculation = executor;
+    }
+
+    /**
+     * Schedule the preparation of own next path of a group, at most one pending per group
+     */
+    private void speculate(int groupId) {
+        Executor executor = speculation;
+        if (executor == null || !speculating.add(groupId)) return;
+        try {
+            executor.execute(() -> {
+                speculating.remove(groupId);
+                preparePath(groupId);
+            });
+        } catch (RejectedExecutionException e) {
+            speculating.remove(groupId);
+        }
+    }
+
+    private void preparePath(int groupId) {
+        GroupState groupState;
+        LeafNode leafNode;
+        PreparedPath prepared;
+        ReentrantLock lock = lockFor(groupId);
+        lock.lock();
+        try {
+            groupState = groupStates.getLive(groupId);
+            leafNode = groupState == null || groupState.getRoot() == null ? null : groupState.getLeaf(username);
+            if (leafNode == null) return;
+            PreparedPath current = groupState.getPreparedPath();
+            if (current != null && current.matches(leafNode)) return;
+            prepared = PreparedPath.begin(leafNode);
+            if (prepared == null) return;
+        } finally {
+            lock.unlock();
+        }
+        // các phép trao đổi khóa chạy ngoài khóa nhóm
+        prepared.compute(newEphemeralKey());
+        lock.lock();
+        try {
+            // cây đã đổi trong lúc tính thì bỏ, lần nhận sau sẽ tính lại
+            if (groupStates.getLive(groupId) == groupState && prepared.matches(leafNode))
+                groupState.setPreparedPath(prepared);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param groupId id of group
+     * @return lock of the stripe the group belongs to
+     */
+    private ReentrantLock lockFor(int groupId) {
+        int h = groupId * 0x9E3779B9;
+        return groupLocks[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
     }
 
     /**
@@ -43,17 +242,27 @@ public class MessageClient {
         // tạo 1 nhóm theo id
         GroupState newGroupState = new GroupState(id);
         // tạo cặp khóa thiết lập
-        XECKeyPair setupKey = X25519Utils.newKeyPair();
-        // thêm cặp khóa thiết lập vào khóa tạm thời
-        ephemeralKeyPairs.put(id, setupKey);
-        // thêm group vào danh sách group
-        groupStates.put(id, newGroupState);
+        XECKeyPair setupKey = newEphemeralKey();
         // thêm thành viên tạo nhóm vào nhóm
         newGroupState.addMember(
                 username,
                 idKeyPair.getPublic(),
                 setupKey.getPublic()
         );
+        ReentrantLock lock = lockFor(id);
+        lock.lock();
+        try {
+            // thêm cặp khóa thiết lập vào khóa tạm thời
+            ephemeralKeyPairs.put(id, setupKey);
+            // thêm group vào danh sách group
+            groupStates.put(newGroupState);
+            if (store != null) {
+                store.logEphemeralKey(id, setupKey);
+                store.logGroup(newGroupState);
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -66,9 +275,15 @@ public class MessageClient {
      * @return a json string present the tree
      */
     public String addMember(int groupId, String member, XECPublicKey memberIdKey, XECPublicKey memberEphemeralKey) {
-        GroupState groupState = groupStates.get(groupId);
-        groupState.addMember(member, memberIdKey, memberEphemeralKey);
-        return getSetupMessage(groupId, groupState);
+        ReentrantLock lock = lockFor(groupId);
+        lock.lock();
+        try {
+            GroupState groupState = groupStates.get(groupId);
+            groupState.addMember(member, memberIdKey, memberEphemeralKey);
+            return getSetupMessage(groupId, groupState);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -78,9 +293,280 @@ public class MessageClient {
      * @return a json string present the tree
      */
     public String removeMember(int groupId, String member) {
-        GroupState groupState = groupStates.get(groupId);
-        groupState.removeMember(member);
-        return getSetupMessage(groupId, groupState);
+        ReentrantLock lock = lockFor(groupId);
+        lock.lock();
+        try {
+            GroupState groupState = groupStates.get(groupId);
+            groupState.removeMember(member);
+            return getSetupMessage(groupId, groupState);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * For admin <br>
+     * add a member to a set up group by changing a single leaf: the first blank leaf is filled, otherwise a
+     * leaf is appended. Only the path of that leaf is recomputed
+     * @param groupId id of group
+     * @param member new member alias
+     * @param memberIdKey identity key of new member
+     * @param memberEphemeralKey ephemeral key of new member
+     * @return path update for the current members, the new member gets {@link #createWelcomeMessage(int)}
+     */
+    public MembershipMessage addMemberIncremental(int groupId, String member, XECPublicKey memberIdKey,
+                                                  XECPublicKey memberEphemeralKey) {
+        ReentrantLock lock = lockFor(groupId);
+        lock.lock();
+        try {
+            GroupState groupState = groupStates.get(groupId);
+            Node root = groupState.getRoot();
+            if (root == null) throw new RuntimeException("Group " + groupId + " is not set up");
+            if (groupState.getLeaf(member) != null) throw new RuntimeException(member + " is already a member");
+            byte[] groupKey = DHTree.getGroupKey(root);
+            long parent = groupState.getEpochId();
+            // khóa lá của thành viên mới, thành viên tự tính lại từ thông điệp chào mừng
+            byte[] idSecret = idSecrets.get(memberIdKey);
+            XECKeyPair leafKey;
+            try {
+                leafKey = CryptoUtils.setupExchangeKey(
+                        idSecret,
+                        idKeyPair,
+                        memberIdKey,
+                        ephemeralKeyPairs.get(groupId),
+                        memberEphemeralKey
+                );
+            } finally {
+                Arrays.fill(idSecret, (byte) 0);
+            }
+            int numLeaves = DHTree.numLeaves(root);
+            int position = DHTree.findBlankLeaf(root);
+            LeafNode leaf;
+            if (position < 0) {
+                position = numLeaves;
+                leaf = new LeafNode(member, null);
+                root = DHTree.appendLeaf(root, numLeaves, leaf);
+            } else {
+                leaf = DHTree.leafAt(root, numLeaves, position);
+                leaf.setUsername(member);
+            }
+            Queue<BigInteger> path = new LinkedList<>();
+            DHTree.computePublicPath(leaf, leafKey, path);
+            DHTree.updatePath(leaf, new LinkedList<>(path));
+
+            groupState.addMember(member, memberIdKey, memberEphemeralKey);
+            groupState.addLeaf(root, leaf);
+            int epoch = groupState.getEpoch();
+            groupState.recordBarrier();
+            if (store != null) store.logGroup(groupState);
+            return authenticate(new MembershipMessage(groupId, epoch, parent, member, true, position,
+                    memberIdKey.getU(), path, null, null), groupKey, DHTree.getGroupKey(root));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * For admin <br>
+     * remove a member by blanking its leaf with a fresh key that is thrown away, only the path of that leaf is
+     * recomputed
+     * @param groupId id of group
+     * @param member alias of member
+     * @return path update for the remaining members
+     */
+    public MembershipMessage removeMemberIncremental(int groupId, String member) {
+        if (member.equals(username)) throw new RuntimeException("Admin cannot remove itself");
+        ReentrantLock lock = lockFor(groupId);
+        lock.lock();
+        try {
+            GroupState groupState = groupStates.get(groupId);
+            LeafNode leaf = groupState.getLeaf(member);
+            if (leaf == null) throw new RuntimeException(member + " is not a member");
+            byte[] groupKey = DHTree.getGroupKey(groupState.getRoot());
+            long parent = groupState.getEpochId();
+            Queue<BigInteger> path = new LinkedList<>();
+            DHTree.computePublicPath(leaf, newEphemeralKey(), path);
+            leaf.setUsername(LeafNode.BLANK);
+            DHTree.updatePath(leaf, new LinkedList<>(path));
+
+            groupState.removeMember(member);
+            groupState.removeLeaf(member);
+            int epoch = groupState.getEpoch();
+            groupState.recordBarrier();
+            if (store != null) store.logGroup(groupState);
+            return authenticate(new MembershipMessage(groupId, epoch, parent, member, false, -1, null, path,
+                    null, null), groupKey, DHTree.getGroupKey(groupState.getRoot()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * For admin <br>
+     * setup message of the current tree for a member added with {@link #addMemberIncremental}, the tree is
+     * not rebuilt
+     * @param groupId id of group
+     * @return setup message with a public copy of the tree
+     */
+    public SetupMessage createWelcomeMessage(int groupId) {
+        ReentrantLock lock = lockFor(groupId);
+        lock.lock();
+        try {
+            GroupState groupState = groupStates.get(groupId);
+            return new SetupMessage(
+                    groupId,
+                    DHTree.copyPublicTree(groupState.getRoot()),
+                    new HashMap<>(groupState.getIdKeys()),
+                    idKeyPair.getPublic().getU(),
+                    ephemeralKeyPairs.get(groupId).getPublic().getU(),
+                    groupState.getEpoch()
+            );
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void receiveMembershipMessage(String jsonMsg) {
+        receiveMembershipMessage(SerializeUtils.toMembershipMessage(jsonMsg));
+    }
+
+    /**
+     * For member <br>
+     * apply a membership change of the admin. A removed member drops the group, a new member ignores the
+     * change and joins with the welcome message instead. <br>
+     * A change made on a future epoch is buffered. A change wins over the message updates made concurrently
+     * on the same epoch: they are undone, and their messages can no longer be decrypted by members who applied
+     * the change first. <br>
+     * The change is applied only if its MAC matches the group key of its epoch and its confirmation the group
+     * key after it, otherwise it throws and leaves the group as it was
+     * @param message membership change
+     */
+    public void receiveMembershipMessage(MembershipMessage message) {
+        int groupId = message.getGroupId();
+        List<Delivery> released = new ArrayList<>();
+        ReentrantLock lock = lockFor(groupId);
+        lock.lock();
+        try {
+            if (message.getMember().equals(username) && message.isAdded()) return;
+            GroupState groupState = groupStates.get(groupId);
+            if (message.getEpoch() > groupState.getEpoch()) {
+                groupState.buffer(message);
+                return;
+            }
+            if (!applyMembership(groupState, message)) return;
+            releasePending(groupState, released);
+        } finally {
+            lock.unlock();
+        }
+        speculate(message.getGroupId());
+        deliver(released);
+    }
+
+    /**
+     * Verify a membership change on the tree of its epoch and apply it, the group lock must be held. <br>
+     * The updates made since that epoch are undone, and put back if the change does not verify
+     * @return false if the change removed this member and the group was dropped
+     */
+    private boolean applyMembership(GroupState groupState, MembershipMessage message) {
+        int groupId = groupState.getGroupId();
+        // cây của quản trị viên có thể là một nhánh đã thua ở thành viên này
+        Rewound rewound = rewind(groupState, message.getEpoch(), message.getParent());
+        if (rewound == null) throw new RuntimeException("Membership change of epoch " + message.getEpoch()
+                + " is based on an unknown tree");
+        try {
+            byte[] mac = membershipTag(DHTree.getGroupKey(groupState.getRoot()), MEMBERSHIP_MAC, message);
+            if (!MessageDigest.isEqual(mac, message.getMac()))
+                throw new RuntimeException("Membership change of group " + groupId + " does not authenticate");
+            if (message.getMember().equals(username)) {
+                groupStates.remove(groupId);
+                ephemeralKeyPairs.remove(groupId);
+                if (store != null) store.logDrop(groupId);
+                return false;
+            }
+            changeMembership(groupState, message);
+        } catch (RuntimeException e) {
+            // trả lại các cập nhật sau epoch của thay đổi
+            rewound.restore();
+            throw e;
+        }
+        groupState.recordBarrier(message.getEpoch());
+        if (store != null) store.logGroup(groupState);
+        return true;
+    }
+
+    /**
+     * Apply a membership change whose MAC was verified to the tree, and check its confirmation; the tree is
+     * restored if the change is malformed or does not confirm
+     */
+    private void changeMembership(GroupState groupState, MembershipMessage message) {
+        Node root = groupState.getRoot();
+        int numLeaves = DHTree.numLeaves(root);
+        String member = message.getMember();
+        // kiểm tra trước khi đổi cây
+        if (message.isAdded()) {
+            if (groupState.getLeaf(member) != null) throw new RuntimeException(member + " is already a member");
+            if (message.getIdKey() == null) throw new RuntimeException("New member " + member + " has no identity key");
+            if (message.getLeaf() < 0 || message.getLeaf() > numLeaves)
+                throw new RuntimeException("Leaf " + message.getLeaf() + " is out of the tree");
+        } else if (groupState.getLeaf(member) == null) {
+            throw new RuntimeException(member + " is not a member");
+        }
+        boolean appended = message.isAdded() && message.getLeaf() == numLeaves;
+        LeafNode leaf;
+        if (appended) {
+            leaf = new LeafNode(member, null);
+            root = DHTree.appendLeaf(root, numLeaves, leaf);
+        } else if (message.isAdded()) {
+            leaf = DHTree.leafAt(root, numLeaves, message.getLeaf());
+            if (!leaf.isBlank()) throw new RuntimeException("Leaf " + message.getLeaf() + " is not blank");
+        } else {
+            leaf = groupState.getLeaf(member);
+        }
+        String before = leaf.getUsername();
+        PathChange change = PathChange.begin(leaf);
+        try {
+            int depth = 0;
+            for (Node node = leaf; node.getParent() != null; node = node.getParent()) {
+                depth++;
+            }
+            if (message.getUpdatePath().size() != depth + 1) throw new RuntimeException("Update path of "
+                    + message.getUpdatePath().size() + " keys for a leaf at depth " + depth);
+            leaf.setUsername(message.isAdded() ? member : LeafNode.BLANK);
+            DHTree.updatePath(leaf, new LinkedList<>(message.getUpdatePath()));
+            byte[] confirmation = membershipTag(DHTree.getGroupKey(root), MEMBERSHIP_CONFIRMATION, message);
+            if (!MessageDigest.isEqual(confirmation, message.getConfirmation()))
+                throw new RuntimeException("Membership change of group " + groupState.getGroupId()
+                        + " does not confirm the new group key");
+        } catch (RuntimeException e) {
+            change.undo();
+            leaf.setUsername(before);
+            if (appended) DHTree.undoAppendLeaf(groupState.getRoot(), numLeaves);
+            throw e;
+        }
+
+        if (message.isAdded()) {
+            groupState.addLeaf(root, leaf);
+            groupState.getIdKeys().put(member, X25519Utils.fromU(message.getIdKey()));
+        } else {
+            groupState.removeLeaf(member);
+            groupState.getIdKeys().remove(member);
+        }
+    }
+
+    /**
+     * For admin <br>
+     * @return the change with its MAC under the group key before it and its confirmation under the one after
+     */
+    private static MembershipMessage authenticate(MembershipMessage message, byte[] groupKey, byte[] newGroupKey) {
+        return new MembershipMessage(message.getGroupId(), message.getEpoch(), message.getParent(),
+                message.getMember(), message.isAdded(), message.getLeaf(), message.getIdKey(),
+                message.getUpdatePath(), membershipTag(groupKey, MEMBERSHIP_MAC, message),
+                membershipTag(newGroupKey, MEMBERSHIP_CONFIRMATION, message));
+    }
+
+    private static byte[] membershipTag(byte[] groupKey, byte[] info, MembershipMessage message) {
+        byte[] key = CryptoUtils.hkdf(groupKey, new byte[0], info, 32);
+        return CryptoUtils.hmacSha256(message.getAuthenticatedData(), key);
     }
 
     /**
@@ -89,36 +575,75 @@ public class MessageClient {
      * @return
      */
     public XECPublicKey joinGroup(int groupId) {
-        XECKeyPair keyPair = X25519Utils.newKeyPair();
-        ephemeralKeyPairs.put(groupId, keyPair);
+        XECKeyPair keyPair = newEphemeralKey();
+        ReentrantLock lock = lockFor(groupId);
+        lock.lock();
+        try {
+            ephemeralKeyPairs.put(groupId, keyPair);
+            if (store != null) store.logEphemeralKey(groupId, keyPair);
+        } finally {
+            lock.unlock();
+        }
         return keyPair.getPublic();
     }
 
     /**
      * For admin <br>
      * to compute a group setup message
+     * @return setup message in json form
      */
     public String getSetupMessage(int groupId, GroupState groupState) {
-        Node root = DHTree.buildSecretTree(DHTree.setupLeavesNode(
-                username,
-                idKeyPair,
-                ephemeralKeyPairs.get(groupId),
-                groupState.getMembers(),
-                groupState.getIdKeys(),
-                groupState.getEphemeralKeys()
-        ));
-        groupState.setRoot(root);
-        String jsonTree = SerializeUtils.toJson(root);
-//        System.out.println("JSON Tree: " + jsonTree);
-        String jsonMembers = SerializeUtils.toJson(groupState.getIdKeys());
-        SetupMessage setupMessage = new SetupMessage(
-                groupId,
-                jsonTree,
-                jsonMembers,
-                idKeyPair.getPublic().getU(),
-                ephemeralKeyPairs.get(groupId).getPublic().getU()
-        );
-        return SerializeUtils.toJson(setupMessage);
+        return SerializeUtils.toJson(createSetupMessage(groupId, groupState));
+    }
+
+    /**
+     * For admin <br>
+     * rebuild the tree of a group and compute its setup message
+     * @param groupId id of group
+     * @param groupState members of the group
+     * @return setup message with a public copy of the tree, to encode with {@link SerializeUtils} or {@link BinaryCodec}
+     */
+    public SetupMessage createSetupMessage(int groupId, GroupState groupState) {
+        ReentrantLock lock = lockFor(groupId);
+        lock.lock();
+        try {
+            Node root;
+            if (setupPool == null) {
+                root = DHTree.buildSecretTree(DHTree.setupLeavesNode(
+                        username,
+                        idKeyPair,
+                        idSecrets,
+                        ephemeralKeyPairs.get(groupId),
+                        groupState.getMembers(),
+                        groupState.getIdKeys(),
+                        groupState.getEphemeralKeys()
+                ));
+            } else {
+                root = DHTree.buildSecretTree(DHTree.setupLeavesNode(
+                        username,
+                        idKeyPair,
+                        idSecrets,
+                        ephemeralKeyPairs.get(groupId),
+                        groupState.getMembers(),
+                        groupState.getIdKeys(),
+                        groupState.getEphemeralKeys(),
+                        setupPool
+                ), setupPool);
+            }
+            groupState.setRoot(root);
+            groupState.resetEpoch(0);
+            if (store != null) store.logGroup(groupState);
+            return new SetupMessage(
+                    groupId,
+                    DHTree.copyPublicTree(root),
+                    new HashMap<>(groupState.getIdKeys()),
+                    idKeyPair.getPublic().getU(),
+                    ephemeralKeyPairs.get(groupId).getPublic().getU(),
+                    0
+            );
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -127,31 +652,48 @@ public class MessageClient {
      * @param jsonMsg setup msg in json form
      */
     public void receiveSetupMessage(String jsonMsg) {
-        SetupMessage setupMessage = SerializeUtils.toSetupMessage(jsonMsg);
+        receiveSetupMessage(SerializeUtils.toSetupMessage(jsonMsg));
+    }
+
+    /**
+     * For member <br>
+     * to receive a decoded group setup message
+     * @param setupMessage setup message of the admin
+     */
+    public void receiveSetupMessage(SetupMessage setupMessage) {
         GroupState groupState = new GroupState(setupMessage.getGroupId());
-        Node root = SerializeUtils.toTree(setupMessage.getJsonTree());
-//        if(this.username == "tien") {
-//            System.out.println("root receive" + setupMessage.getJsonTree());
-//        }
-        Map<String, XECPublicKey> membersIdKey = SerializeUtils.toMap(setupMessage.getJsonMembers());
-        XECKeyPair ephemeralKeyPair = ephemeralKeyPairs.get(setupMessage.getGroupId());
-        XECKeyPair secretKeyPair = CryptoUtils.recomputeExchangeKey(
-                idKeyPair,
-                X25519Utils.fromU(setupMessage.getAdminIdKey()),
-                ephemeralKeyPair,
-                X25519Utils.fromU(setupMessage.getSetupKey())
-        );
-        LeafNode leafNode = DHTree.findLeafNode(username, root);
-        leafNode.setKeyPair(secretKeyPair);
-        Node rebuildRoot = DHTree.rebuildSecretTree(leafNode);
-//        if(this.username == "tien") {
-//            System.out.println("rebuildRoot" + SerializeUtils.toJson(rebuildRoot));
-//            System.out.println(SerializeUtils.toJson(rebuildRoot).toString() == setupMessage.getJsonTree().toString());
-//        }
+        Node root = setupMessage.getTree();
+        ReentrantLock lock = lockFor(setupMessage.getGroupId());
+        lock.lock();
+        try {
+            XECKeyPair ephemeralKeyPair = ephemeralKeyPairs.get(setupMessage.getGroupId());
+            XECPublicKey adminIdKey = X25519Utils.fromU(setupMessage.getAdminIdKey());
+            byte[] idSecret = idSecrets.get(adminIdKey);
+            XECKeyPair secretKeyPair;
+            try {
+                secretKeyPair = CryptoUtils.recomputeExchangeKey(
+                        idSecret,
+                        idKeyPair,
+                        adminIdKey,
+                        ephemeralKeyPair,
+                        X25519Utils.fromU(setupMessage.getSetupKey())
+                );
+            } finally {
+                Arrays.fill(idSecret, (byte) 0);
+            }
+            groupState.setRoot(root);
+            LeafNode leafNode = groupState.getLeaf(username);
+            leafNode.setKeyPair(secretKeyPair);
+            DHTree.rebuildSecretTree(leafNode);
 
-        groupState.setRoot(root);
-        groupState.setIdKeys(membersIdKey);
-        groupStates.put(groupState.getGroupId(), groupState);
+            groupState.setIdKeys(setupMessage.getMembers());
+            groupState.resetEpoch(setupMessage.getEpoch());
+            groupStates.put(groupState);
+            if (store != null) store.logGroup(groupState);
+        } finally {
+            lock.unlock();
+        }
+        speculate(setupMessage.getGroupId());
     }
 
     /**
@@ -161,39 +703,562 @@ public class MessageClient {
      * @return a json message
      */
     public String sendMessage(int groupId, String plaintext) {
-        // gen new key pair and update tree
-        XECKeyPair sendKey = X25519Utils.newKeyPair();
-        Node root = groupStates.get(groupId).getRoot();
-        LeafNode leafNode = DHTree.findLeafNode(this.username, root);
-        leafNode.setKeyPair(sendKey);
+        return SerializeUtils.toJson(createMessage(groupId, plaintext.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Ratchet the tree only every few messages. <br>
+     * In between, messages are encrypted with the sender's {@link SenderChain} on the current epoch: one HMAC
+     * instead of log2(n) exchanges for the sender and every receiver. A leaked chain key exposes the
+     * following messages of the chain until the next tree update, so both bounds cap that window.
+     * @param messages own messages per tree update, 1 to update the tree with every message
+     * @param period   longest time on one epoch before own next message updates the tree
+     * @param unit     unit of the period
+     */
+    public void setRatchetInterval(int messages, long period, TimeUnit unit) {
+        if (messages < 1) throw new IllegalArgumentException("At least one message per tree update");
+        ratchetMessages = messages;
+        ratchetPeriodNanos = unit.toNanos(period);
+    }
+
+    /**
+     * Encrypt a message, with a new leaf key and group key, or with the next key of own sender chain if the
+     * ratchet interval allows
+     * @param groupId id of group want to send
+     * @param plaintext message want to send
+     * @return message, to encode with {@link SerializeUtils} or {@link BinaryCodec}
+     */
+    public Message createMessage(int groupId, byte[] plaintext) {
+        int messages = ratchetMessages;
+        // gen new key pair outside of the lock, unless the message may go on the sender chain or a path may
+        // be prepared
+        XECKeyPair sendKey = messages == 1 && speculation == null ? newEphemeralKey() : null;
         Queue<BigInteger> path = new LinkedList<>();
-        DHTree.createPublicPath(leafNode, path);
+        byte[] key = null;
+        int epoch;
+        long parent;
+        int counter = 0;
+        ReentrantLock lock = lockFor(groupId);
+        lock.lock();
+        try {
+            GroupState groupState = groupStates.get(groupId);
+            Node root = groupState.getRoot();
+            epoch = groupState.getEpoch();
+            parent = groupState.getEpochId();
+            if (messages > 1 && groupState.getEpochAge() < ratchetPeriodNanos) {
+                SenderChain chain = groupState.getChain(epoch, username, () -> DHTree.getGroupKey(root));
+                // messages - 1 tin dùng chuỗi khóa, tin kế tiếp cập nhật cây
+                if (chain.getCounter() < messages - 1) {
+                    counter = chain.getCounter();
+                    key = chain.nextKey();
+                }
+            }
+            if (key == null) {
+                // update tree
+                LeafNode leafNode = groupState.getLeaf(this.username);
+                PreparedPath prepared = groupState.takePreparedPath();
+                PathChange change = PathChange.begin(leafNode);
+                if (prepared != null && prepared.matches(leafNode)) {
+                    prepared.apply(path);
+                } else {
+                    if (sendKey == null) sendKey = newEphemeralKey();
+                    leafNode.setKeyPair(sendKey);
+                    DHTree.createPublicPath(leafNode, path);
+                }
+                change.commit();
+                groupState.recordChange(change);
+                if (store != null) store.logPath(groupState, leafNode);
+                key = DHTree.getGroupKey(root);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        speculate(groupId);
+        byte[] ciphertext = CryptoUtils.encrypt(plaintext, key);
+        return new Message(this.username, groupId, epoch, parent, counter, path, ciphertext);
+    }
+
+    /**
+     * Encrypt a large payload, e.g. a file, with constant memory. <br>
+     * The stream is keyed from the group key of the current epoch, written first, and chunked with
+     * {@link StreamingAead}; the tree is not updated. Its reference is sent to the group in a regular message
+     * @param groupId id of group
+     * @param in      plaintext, read to its end
+     * @param out     receives the encrypted attachment, it is not closed
+     * @return number of plaintext bytes
+     */
+    public long encryptAttachment(int groupId, ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        int epoch;
+        byte[] groupKey;
+        ReentrantLock lock = lockFor(groupId);
+        lock.lock();
+        try {
+            GroupState groupState = groupStates.get(groupId);
+            epoch = groupState.getEpoch();
+            groupKey = DHTree.getGroupKey(groupState.getRoot());
+        } finally {
+            lock.unlock();
+        }
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(epoch);
+        header.flip();
+        while (header.hasRemaining()) {
+            out.write(header);
+        }
+        return StreamingAead.encrypt(in, out, groupKey);
+    }
+
+    public long encryptAttachment(int groupId, InputStream in, OutputStream out) throws IOException {
+        return encryptAttachment(groupId, Channels.newChannel(in), Channels.newChannel(out));
+    }
 
-        byte[] key = DHTree.getGroupKey(root);
-        byte[] ciphertext = CryptoUtils.encrypt(plaintext.getBytes(StandardCharsets.UTF_8), key);
+    /**
+     * Open an attachment made by {@link #encryptAttachment}. <br>
+     * The group key of its epoch is looked up now, so the attachment must be opened while its epoch is in
+     * the journal window of the group, like a late message
+     * @param groupId id of group
+     * @param in      encrypted attachment
+     * @return channel of the plaintext, a chunk is returned once it is authenticated
+     */
+    public ReadableByteChannel decryptAttachment(int groupId, ReadableByteChannel in) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        while (header.hasRemaining()) {
+            if (in.read(header) < 0) throw new EOFException("Truncated attachment header");
+        }
+        int epoch = header.getInt(0);
+        byte[] groupKey;
+        ReentrantLock lock = lockFor(groupId);
+        lock.lock();
+        try {
+            GroupState groupState = groupStates.get(groupId);
+            if (epoch > groupState.getEpoch()) throw new RuntimeException("Attachment of epoch " + epoch
+                    + " is ahead of epoch " + groupState.getEpoch() + ", receive the messages before it first");
+            groupKey = groupKeyAt(groupState, epoch);
+        } finally {
+            lock.unlock();
+        }
+        return StreamingAead.newDecryptingChannel(in, groupKey);
+    }
 
-        String cipherHex = DatatypeConverter.printHexBinary(ciphertext);
-        String jsonPath = SerializeUtils.toJson(path);
-        Message message = new Message(this.username, groupId, jsonPath, cipherHex);
-        return SerializeUtils.toJson(message);
+    public InputStream decryptAttachment(int groupId, InputStream in) throws IOException {
+        return Channels.newInputStream(decryptAttachment(groupId, Channels.newChannel(in)));
     }
 
     public String receiveMessage(String msgJson) {
-        Message message = SerializeUtils.toMessage(msgJson);
-        Queue<BigInteger> path = SerializeUtils.toQueue(message.getUpdatePath());
-        Node root = groupStates.get(message.getGroupId()).getRoot();
-        LeafNode fromLeaf = DHTree.findLeafNode(message.getFrom(), root);
-        DHTree.updatePath(fromLeaf, path);
-        byte[] key = DHTree.getGroupKey(root);
-        String cipherHex = message.getCipherText();
-        byte[] rawText = CryptoUtils.decrypt(
-          DatatypeConverter.parseHexBinary(cipherHex),
-          key);
-        return new String(rawText, StandardCharsets.UTF_8);
+        byte[] rawText = receiveMessage(SerializeUtils.toMessage(msgJson));
+        return rawText == null ? null : new String(rawText, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Apply the sender's update path and decrypt a message. <br>
+     * A message made on the current epoch moves the group to the next one. A message made on a future epoch is
+     * buffered and handed to the {@link MessageListener} once the group reaches its epoch. A message made on a
+     * past epoch, a concurrent update or a late one, is decrypted by undoing the later updates in the journal;
+     * of concurrent updates on the same tree every member keeps the one whose epoch id is the smallest. A
+     * message made on top of an update that lost is decrypted on its branch, one made on top of an update that
+     * has not arrived yet waits for it. <br>
+     * A message of a sender chain leaves the tree as is and takes the next key of the sender's chain on its
+     * epoch; a chain on the update that lost a concurrent race cannot be followed. <br>
+     * The message is decrypted under the group lock and its update kept only if it authenticates: a forged
+     * or corrupt message throws and leaves the group as it was
+     * @param message decoded message
+     * @return plaintext, null if the message was buffered
+     */
+    public byte[] receiveMessage(Message message) {
+        byte[] plaintext;
+        List<Delivery> released = new ArrayList<>();
+        ReentrantLock lock = lockFor(message.getGroupId());
+        lock.lock();
+        try {
+            GroupState groupState = groupStates.get(message.getGroupId());
+            plaintext = applyMessage(groupState, message,
+                    key -> CryptoUtils.decrypt(message.getCipherTextBuffer(), key));
+            releasePending(groupState, released);
+        } finally {
+            lock.unlock();
+        }
+        speculate(message.getGroupId());
+        deliver(released);
+        return plaintext;
+    }
+
+    /**
+     * Same as {@link #receiveMessage(Message)}, writing the plaintext into a buffer. <br>
+     * With {@link BinaryCodec#toMessage(ByteBuffer)} a relay goes from the network buffer to the
+     * plaintext buffer without copying the ciphertext; a buffered message keeps its own copy, so the network
+     * buffer can be reused as soon as this returns
+     * @param message   decoded message
+     * @param plaintext receives the plaintext at its position, heap or direct
+     * @return number of bytes written, -1 if the message was buffered
+     */
+    public int receiveMessage(Message message, ByteBuffer plaintext) {
+        Integer length;
+        List<Delivery> released = new ArrayList<>();
+        ReentrantLock lock = lockFor(message.getGroupId());
+        lock.lock();
+        try {
+            GroupState groupState = groupStates.get(message.getGroupId());
+            length = applyMessage(groupState, message,
+                    key -> CryptoUtils.decrypt(message.getCipherTextBuffer(), plaintext, key));
+            releasePending(groupState, released);
+        } finally {
+            lock.unlock();
+        }
+        speculate(message.getGroupId());
+        deliver(released);
+        return length == null ? -1 : length;
+    }
+
+    /**
+     * Apply a burst of messages of one group in order and decrypt each with the group key of its own epoch.
+     * <br>
+     * The group lock is taken once for the whole batch. Each message is applied on its own: one that fails
+     * leaves the group as it was, gets a null entry and is reported to {@link MessageListener#onError}, and
+     * the messages around it are still applied
+     * @param messages decoded messages of one group, in the order they were sent
+     * @return plaintexts, in the same order, null for a message that was buffered or failed
+     */
+    public List<byte[]> receiveMessages(List<Message> messages) {
+        if (messages.isEmpty()) return new ArrayList<>();
+        int groupId = messages.get(0).getGroupId();
+        List<byte[]> plaintexts = new ArrayList<>(messages.size());
+        List<Delivery> released = new ArrayList<>();
+        try {
+            ReentrantLock lock = lockFor(groupId);
+            lock.lock();
+            try {
+                GroupState groupState = groupStates.get(groupId);
+                for (Message message : messages) {
+                    try {
+                        if (message.getGroupId() != groupId) throw new RuntimeException(
+                                "Batch mixes groups " + groupId + " and " + message.getGroupId());
+                        plaintexts.add(applyMessage(groupState, message,
+                                key -> CryptoUtils.decrypt(message.getCipherTextBuffer(), key)));
+                    } catch (RuntimeException e) {
+                        // các tin nhắn trước đã được áp dụng, không thể hủy chúng
+                        plaintexts.add(null);
+                        released.add(new Delivery(message, null, e));
+                    }
+                    releasePending(groupState, released);
+                }
+            } finally {
+                lock.unlock();
+            }
+            speculate(groupId);
+        } finally {
+            deliver(released);
+        }
+        return plaintexts;
+    }
+
+    /**
+     * @param listener receiver of the buffered messages, released when their epoch is reached
+     */
+    public void setMessageListener(MessageListener listener) {
+        this.messageListener = listener;
+    }
+
+    /**
+     * Apply a message to the tree and open it with its group key, the group lock must be held. <br>
+     * An update is committed, journaled and logged only once the message opens: a forged or corrupt update
+     * path is undone, so it leaves the tree as it was. <br>
+     * Of concurrent updates on the same tree, the tree keeps the one whose epoch id is the smallest, whatever
+     * the order they arrive in; the others are kept as a branch, so the messages made on top of them can
+     * still be opened
+     * @param open decrypts the message with the group key, throws if it does not authenticate
+     * @return result of open, null if the message was buffered
+     */
+    private <T> T applyMessage(GroupState groupState, Message message, Function<byte[], T> open) {
+        int epoch = groupState.getEpoch();
+        if (message.getEpoch() > epoch) {
+            groupState.buffer(message.detached());
+            return null;
+        }
+        if (message.isChained()) {
+            SenderChain chain = senderChain(groupState, message);
+            T opened = open.apply(chain.keyAt(message.getCounter()));
+            // khóa chỉ bị dùng hết khi tin nhắn được xác thực
+            chain.consume(message.getCounter());
+            return opened;
+        }
+        LeafNode fromLeaf = groupState.getLeaf(message.getFrom());
+        if (fromLeaf == null)
+            throw new RuntimeException(message.getFrom() + " is not a member of group " + groupState.getGroupId());
+        if (message.getEpoch() == epoch && message.getParent() == groupState.getEpochId()) {
+            PathChange change = PathChange.begin(fromLeaf);
+            T opened;
+            try {
+                DHTree.updatePath(fromLeaf, new LinkedList<>(message.getUpdatePath()));
+                change.commit();
+                opened = open.apply(DHTree.getGroupKey(groupState.getRoot()));
+            } catch (RuntimeException e) {
+                // trả cây về trạng thái trước cập nhật
+                change.undo();
+                throw e;
+            }
+            groupState.recordChange(change);
+            if (store != null) store.logPath(groupState, fromLeaf);
+            return opened;
+        }
+
+        // tin nhắn cũ hoặc trên nhánh khác: quay về cây của tin nhắn, áp dụng, rồi chọn cập nhật được giữ
+        Rewound rewound = rewind(groupState, message.getEpoch(), message.getParent());
+        if (rewound == null) {
+            // cập nhật mà tin nhắn dựa trên chưa tới
+            groupState.await(message.getParent(), message.detached());
+            return null;
+        }
+        PathChange change = PathChange.begin(fromLeaf);
+        T opened;
+        try {
+            DHTree.updatePath(fromLeaf, new LinkedList<>(message.getUpdatePath()));
+            change.commit();
+            opened = open.apply(DHTree.getGroupKey(groupState.getRoot()));
+        } catch (RuntimeException e) {
+            change.undo();
+            rewound.restore();
+            throw e;
+        }
+
+        if (rewound.branch.isEmpty() && !rewound.later.isEmpty()) {
+            long kept = rewound.later.get(0).getEpochId();
+            if (change.getEpochId() < kept) {
+                groupState.replaceChangesSince(message.getEpoch(), message.getParent(), change);
+                if (store != null) store.logGroup(groupState);
+                return opened;
+            }
+            // cùng một cập nhật nhận lại thì không có nhánh mới
+            if (change.getEpochId() == kept) {
+                change.undo();
+                rewound.restore();
+                return opened;
+            }
+        }
+        change.undo();
+        rewound.restore();
+        groupState.recordFork(message.getEpoch(), message.getParent(), change);
+        return opened;
+    }
+
+    /**
+     * Turn the tree back to the one with an epoch id on an epoch, from the journal or from a branch, the group
+     * lock must be held
+     * @return changes to put the current tree back with, null if that tree is unknown
+     */
+    private static Rewound rewind(GroupState groupState, int epoch, long epochId) {
+        List<PathChange> later = groupState.changesSince(epoch);
+        if (later == null) throw new RuntimeException("Epoch " + epoch + " is out of the window of epoch "
+                + groupState.getEpoch());
+        for (int i = later.size() - 1; i >= 0; i--) {
+            later.get(i).undo();
+        }
+        if (epochId == DHTree.getEpochId(groupState.getRoot())) return new Rewound(later, new ArrayList<>());
+        for (PathChange change : later) {
+            change.redo();
+        }
+
+        List<GroupState.Fork> branch = groupState.getBranch(epochId);
+        if (branch == null) return null;
+        if (branch.get(branch.size() - 1).epoch + 1 != epoch)
+            throw new RuntimeException("Epoch " + epoch + " is not on the branch of its tree");
+        GroupState.Fork base = branch.get(0);
+        later = groupState.changesSince(base.epoch);
+        if (later == null) throw new RuntimeException("Branch of epoch " + base.epoch
+                + " is out of the window of epoch " + groupState.getEpoch());
+        for (int i = later.size() - 1; i >= 0; i--) {
+            later.get(i).undo();
+        }
+        if (base.parent != DHTree.getEpochId(groupState.getRoot())) {
+            for (PathChange change : later) {
+                change.redo();
+            }
+            throw new RuntimeException("Branch of epoch " + base.epoch + " is no longer on the journal");
+        }
+        for (GroupState.Fork fork : branch) {
+            fork.change.redo();
+        }
+        return new Rewound(later, branch);
+    }
+
+    /**
+     * Tree turned back by {@link #rewind(GroupState, int, long)}
+     */
+    private static final class Rewound {
+        // cập nhật của nhánh chính đã bị hủy
+        private final List<PathChange> later;
+        // cập nhật của nhánh được đặt lại lên cây, rỗng nếu cây ở trên nhánh chính
+        private final List<GroupState.Fork> branch;
+
+        Rewound(List<PathChange> later, List<GroupState.Fork> branch) {
+            this.later = later;
+            this.branch = branch;
+        }
+
+        /**
+         * Put the current tree back
+         */
+        void restore() {
+            for (int i = branch.size() - 1; i >= 0; i--) {
+                branch.get(i).change.undo();
+            }
+            for (PathChange change : later) {
+                change.redo();
+            }
+        }
+    }
+
+    /**
+     * Sender chain of a message on the current epoch or a past one, the group lock must be held
+     */
+    private SenderChain senderChain(GroupState groupState, Message message) {
+        if (groupState.getLeaf(message.getFrom()) == null)
+            throw new RuntimeException(message.getFrom() + " is not a member of group " + groupState.getGroupId());
+        return groupState.getChain(message.getEpoch(), message.getFrom(),
+                () -> groupKeyAt(groupState, message.getEpoch()));
+    }
+
+    /**
+     * Group key of a past epoch, by undoing and redoing the later updates in the journal
+     */
+    private byte[] groupKeyAt(GroupState groupState, int epoch) {
+        List<PathChange> later = groupState.changesSince(epoch);
+        if (later == null) throw new RuntimeException("Message of epoch " + epoch
+                + " is out of the window of epoch " + groupState.getEpoch());
+        for (int i = later.size() - 1; i >= 0; i--) {
+            later.get(i).undo();
+        }
+        byte[] key = DHTree.getGroupKey(groupState.getRoot());
+        for (PathChange change : later) {
+            change.redo();
+        }
+        return key;
+    }
+
+    /**
+     * Apply the buffered changes and messages of the epochs reached, the group lock must be held
+     */
+    private void releasePending(GroupState groupState, List<Delivery> released) {
+        while (true) {
+            MembershipMessage change = groupState.takePendingMembership();
+            if (change != null) {
+                try {
+                    if (!applyMembership(groupState, change)) return;
+                } catch (RuntimeException e) {
+                    released.add(new Delivery(change, e));
+                }
+                continue;
+            }
+            List<Message> ready = groupState.takePending();
+            if (ready == null) return;
+            for (Message message : ready) {
+                try {
+                    byte[] plaintext = applyMessage(groupState, message,
+                            key -> CryptoUtils.decrypt(message.getCipherTextBuffer(), key));
+                    released.add(new Delivery(message, plaintext, null));
+                } catch (RuntimeException e) {
+                    released.add(new Delivery(message, null, e));
+                }
+            }
+        }
+    }
+
+    /**
+     * Pass the released messages to the listener, outside of the group lock
+     */
+    private void deliver(List<Delivery> released) {
+        MessageListener listener = messageListener;
+        if (listener == null) return;
+        for (Delivery delivery : released) {
+            if (delivery.change != null) listener.onError(delivery.change, delivery.error);
+            else if (delivery.error != null) listener.onError(delivery.message, delivery.error);
+            else listener.onMessage(delivery.message, delivery.plaintext);
+        }
+    }
+
+    private static final class Delivery {
+        private final Message message;
+        private final byte[] plaintext;
+        // thay đổi thành viên bị bỏ, null nếu là tin nhắn
+        private final MembershipMessage change;
+        // lỗi khi áp dụng tin nhắn, null nếu tin nhắn mở được
+        private final RuntimeException error;
+
+        Delivery(Message message, byte[] plaintext, RuntimeException error) {
+            this.message = message;
+            this.plaintext = plaintext;
+            this.change = null;
+            this.error = error;
+        }
+
+        Delivery(MembershipMessage change, RuntimeException error) {
+            this.message = null;
+            this.plaintext = null;
+            this.change = change;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Write a snapshot of all groups to the store and drop the log before it. Each group is locked only while
+     * it is written, changes made in the meantime go to the new log. Meant to run periodically, e.g. from a
+     * scheduled executor or once {@link GroupStore#getLogBytes()} grows past a bound
+     */
+    public void checkpoint() throws IOException {
+        if (store == null) throw new IllegalStateException("Client has no store");
+        try (GroupStore.Checkpoint checkpoint = store.beginCheckpoint(username, idKeyPair, ephemeralKeyPairs)) {
+            for (Integer groupId : groupStates.groupIds()) {
+                ReentrantLock lock = lockFor(groupId);
+                lock.lock();
+                try {
+                    // nhóm nguội được chép nguyên dạng nén, không giải mã
+                    GroupState groupState = groupStates.getLive(groupId);
+                    ByteBuffer encoded = groupState == null ? groupStates.getEncoded(groupId) : null;
+                    if (groupState != null) checkpoint.add(groupState);
+                    else if (encoded != null) checkpoint.add(groupId, encoded);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            checkpoint.commit();
+        }
     }
 
     public XECPublicKey getIdKey() {
         return idKeyPair.getPublic();
     }
 
+    /**
+     * Bound the number of groups kept as trees on the heap. Beyond it, the least recently used groups are
+     * kept in compact form and decoded again when next used; an evicted group loses its sender chains and
+     * its journal, so messages from before its epoch are rejected. Meant to be set before the client serves
+     * messages, with a limit well above the number of groups active at once
+     * @param maxLiveGroups most groups kept as trees, at least 1
+     * @param spill         file holding the compact form of evicted groups, null to keep it on the heap
+     */
+    public void setGroupCache(int maxLiveGroups, SpillFile spill) {
+        groupStates.setLimit(maxLiveGroups, spill);
+    }
+
+    /**
+     * @return number of groups kept as trees on the heap
+     */
+    public int getLiveGroupCount() {
+        return groupStates.liveCount();
+    }
+
+    /**
+     * @param groupId id of group
+     * @return state of the group, decoded if it was evicted; it is not thread-safe: do not use it while other
+     * threads work on the group
+     */
+    public GroupState getGroupState(int groupId) {
+        ReentrantLock lock = lockFor(groupId);
+        lock.lock();
+        try {
+            return groupStates.get(groupId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
 }
@@ -0,0 +1,30 @@
+package art.example.groupchat.core;
+
+/**
+ * Receives the messages of a group that were buffered because they arrived before an earlier epoch
+ */
+public interface MessageListener {
+
+    /**
+     * @param message   message released from the buffer
+     * @param plaintext decrypted message
+     */
+    void onMessage(Message message, byte[] plaintext);
+
+    /**
+     * A released message could no longer be applied or did not authenticate, it is dropped. Ignored by default
+     * @param message message released from the buffer
+     * @param error   why the message was dropped
+     */
+    default void onError(Message message, RuntimeException error) {
+    }
+
+    /**
+     * A released membership change could not be verified or applied, it is dropped and the group is left as
+     * it was. Ignored by default
+     * @param change membership change released from the buffer
+     * @param error  why the change was dropped
+     */
+    default void onError(MembershipMessage change, RuntimeException error) {
+    }
+}
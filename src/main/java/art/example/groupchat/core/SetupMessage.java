@@ -1,32 +1,42 @@
 package art.example.groupchat.core;
 
+import art.example.groupchat.core.tree.Node;
+
 import java.math.BigInteger;
+import java.security.interfaces.XECPublicKey;
+import java.util.Map;
 
 public class SetupMessage {
     private final int groupId;
-    private final String jsonTree;
-    private final String jsonMembers;
+    // cây công khai
+    private final Node tree;
+    // khóa định danh của các thành viên
+    private final Map<String, XECPublicKey> members;
     private final BigInteger adminIdKey;
     private final BigInteger setupKey;
+    // epoch của cây, 0 sau khi dựng lại toàn bộ cây
+    private final int epoch;
 
-    public SetupMessage(int groupId, String jsonTree, String jsonMembers, BigInteger adminIdKey, BigInteger setupKey) {
+    public SetupMessage(int groupId, Node tree, Map<String, XECPublicKey> members, BigInteger adminIdKey,
+                        BigInteger setupKey, int epoch) {
         this.groupId = groupId;
-        this.jsonTree = jsonTree;
-        this.jsonMembers = jsonMembers;
+        this.tree = tree;
+        this.members = members;
         this.adminIdKey = adminIdKey;
         this.setupKey = setupKey;
+        this.epoch = epoch;
     }
 
     public int getGroupId() {
         return groupId;
     }
 
-    public String getJsonTree() {
-        return jsonTree;
+    public Node getTree() {
+        return tree;
     }
 
-    public String getJsonMembers() {
-        return jsonMembers;
+    public Map<String, XECPublicKey> getMembers() {
+        return members;
     }
 
     public BigInteger getAdminIdKey() {
@@ -36,4 +46,8 @@ public class SetupMessage {
     public BigInteger getSetupKey() {
         return setupKey;
     }
+
+    public int getEpoch() {
+        return epoch;
+    }
 }
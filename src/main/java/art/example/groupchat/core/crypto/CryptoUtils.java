@@ -4,6 +4,7 @@ import javax.crypto.Cipher;
 import javax.crypto.Mac;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 import java.security.*;
 import java.security.interfaces.XECPublicKey;
 import java.util.Arrays;
@@ -14,17 +15,18 @@ import java.util.Arrays;
 public class CryptoUtils {
 
     /**
-     * Tạo một đối tượng MessageDigest sử dụng thuật toán SHA-256 để tính hash
+     * AES-GCM nonce and tag sizes, in bytes
+     */
+    public static final int NONCE_LENGTH = 12;
+    public static final int TAG_LENGTH = 16;
+
+    /**
+     * Tạo một đối tượng MessageDigest sử dụng thuật toán SHA-256 để tính hash <br>
+     * The digest is cached per thread, it is only valid until the next call on the same thread
      * @return
      */
     public static MessageDigest startSHA256() {
-        MessageDigest md = null;
-        try {
-            md = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        return md;
+        return JcaEngines.sha256();
     }
 
     /**
@@ -37,7 +39,7 @@ public class CryptoUtils {
         Mac mac;
         byte[] result = null;
         try {
-            mac = Mac.getInstance("HmacSHA256");
+            mac = JcaEngines.hmacSha256();
             // khởi tạo đối tượng mac với khóa bí mật
             mac.init(new SecretKeySpec(key, "HmacSHA256"));
             mac.update(data);
@@ -88,8 +90,7 @@ public class CryptoUtils {
      */
     public static byte[] randomBytes(int n) {
         byte[] result = new byte[n];
-        SecureRandom rng = new SecureRandom();
-        rng.nextBytes(result);
+        JcaEngines.secureRandom().nextBytes(result);
         return result;
     }
 
@@ -97,38 +98,33 @@ public class CryptoUtils {
      * Mã hóa một thông điệp bằng AES ở chế độ GCM (Galois/Counter Mode).
      * @param message
      * @param keyBytes
-     * @return
+     * @return nonce followed by the ciphertext and tag
      */
     public static byte[] encrypt(byte[] message, byte[] keyBytes) {
-        Cipher cipher;
-        Key key;
+        byte[] result = new byte[encryptedLength(message.length)];
+        encrypt(ByteBuffer.wrap(message), ByteBuffer.wrap(result), keyBytes);
+        return result;
+    }
+
+    /**
+     * Encrypt from one buffer into another, heap or direct, without intermediate copies
+     * @param message  plaintext, from its position to its limit; the position is moved to the limit
+     * @param output   receives the nonce, ciphertext and tag at its position, needs
+     *                 {@link #encryptedLength(int)} bytes remaining
+     * @param keyBytes AES key
+     * @return number of bytes written
+     */
+    public static int encrypt(ByteBuffer message, ByteBuffer output, byte[] keyBytes) {
         try {
             // sử dụng thuật toán mã hóa AES GCM NoPadding
-            cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            Cipher cipher = JcaEngines.aesGcm();
             // tạo nonce
-            byte[] nonce = randomBytes(12);
-            GCMParameterSpec paramSpec = new GCMParameterSpec(16 * 8, nonce);
-
-            // Chuyển đổi mảng byte keyBytes thành một đối tượng Key tương thích với thuật toán AES.
-            key = new SecretKeySpec(keyBytes, "AES");
-            cipher.init(Cipher.ENCRYPT_MODE, key, paramSpec);
-
-            // Xác định độ dài của dữ liệu sau khi mã hóa.
-            int len = cipher.getOutputSize(message.length);
-            System.out.println("len: " + len);
-            byte[] result = new byte[len + 12];
-            System.arraycopy(nonce, 0, result, 0, 12);
-
-            //  Mã hóa dữ liệu đầu vào (message) và ghi kết quả vào mảng result, bắt đầu từ vị trí thứ 12 (sau Nonce).
-            cipher.doFinal(
-                    message,
-                    0,
-                    message.length,
-                    result,
-                    12
-            );
-            System.out.println("cipher: " + result.length);
-            return result;
+            byte[] nonce = randomBytes(NONCE_LENGTH);
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyBytes, "AES"),
+                    new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+            output.put(nonce);
+            // mã hóa dữ liệu đầu vào và ghi kết quả vào output, ngay sau nonce
+            return NONCE_LENGTH + cipher.doFinal(message, output);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -141,24 +137,62 @@ public class CryptoUtils {
      * @return
      */
     public static byte[] decrypt(byte[] encrypted, byte[] keyBytes) {
-        Cipher cipher;
-        Key key;
-        try {
-            cipher = Cipher.getInstance("AES/GCM/NoPadding");
-
-            byte[] nonce = Arrays.copyOfRange(encrypted, 0, 12);
-            byte[] ciphertext = Arrays.copyOfRange(encrypted, 12, encrypted.length);
-            GCMParameterSpec paramSpec = new GCMParameterSpec(16 * 8, nonce);
+        return decrypt(ByteBuffer.wrap(encrypted), keyBytes);
+    }
 
-            key = new SecretKeySpec(keyBytes, "AES");
-            cipher.init(Cipher.DECRYPT_MODE, key, paramSpec);
+    /**
+     * @param encrypted nonce, ciphertext and tag from the position to the limit of the buffer
+     * @return plaintext
+     */
+    public static byte[] decrypt(ByteBuffer encrypted, byte[] keyBytes) {
+        if (encrypted.remaining() < NONCE_LENGTH + TAG_LENGTH) throw new RuntimeException("Truncated ciphertext");
+        byte[] result = new byte[decryptedLength(encrypted.remaining())];
+        decrypt(encrypted, ByteBuffer.wrap(result), keyBytes);
+        return result;
+    }
 
-            return cipher.doFinal(ciphertext);
+    /**
+     * Decrypt from one buffer into another, heap or direct, without intermediate copies. Nothing is written to
+     * the output if the tag does not match
+     * @param encrypted nonce, ciphertext and tag from the position to the limit; the position is moved to the
+     *                  limit
+     * @param output    receives the plaintext at its position, needs {@link #decryptedLength(int)} bytes remaining
+     * @param keyBytes  AES key
+     * @return number of bytes written
+     */
+    public static int decrypt(ByteBuffer encrypted, ByteBuffer output, byte[] keyBytes) {
+        if (encrypted.remaining() < NONCE_LENGTH + TAG_LENGTH) throw new RuntimeException("Truncated ciphertext");
+        try {
+            Cipher cipher = JcaEngines.aesGcm();
+            GCMParameterSpec paramSpec;
+            if (encrypted.hasArray()) {
+                // nonce đọc thẳng từ mảng của buffer
+                paramSpec = new GCMParameterSpec(TAG_LENGTH * 8,
+                        encrypted.array(), encrypted.arrayOffset() + encrypted.position(), NONCE_LENGTH);
+                encrypted.position(encrypted.position() + NONCE_LENGTH);
+            } else {
+                byte[] nonce = new byte[NONCE_LENGTH];
+                encrypted.get(nonce);
+                paramSpec = new GCMParameterSpec(TAG_LENGTH * 8, nonce);
+            }
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyBytes, "AES"), paramSpec);
+            return cipher.doFinal(encrypted, output);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * @return size of the nonce, ciphertext and tag of a plaintext
+     */
+    public static int encryptedLength(int plaintextLength) {
+        return NONCE_LENGTH + plaintextLength + TAG_LENGTH;
+    }
+
+    public static int decryptedLength(int encryptedLength) {
+        return encryptedLength - NONCE_LENGTH - TAG_LENGTH;
+    }
+
     /**
      *  thực hiện một quá trình trao đổi khóa để tạo ra một khóa trao đổi (shared secret)
      * @param adminIdKeys: Cặp khóa (khóa công khai và khóa riêng tư) của quản trị viên
@@ -172,10 +206,30 @@ public class CryptoUtils {
             XECPublicKey memberIdKey,
             XECKeyPair setupKeys,
             XECPublicKey memberEphemeralKey
+    ) {
+        byte[] idSecret = X25519Utils.exchange(adminIdKeys, memberIdKey);
+        try {
+            return setupExchangeKey(idSecret, adminIdKeys, memberIdKey, setupKeys, memberEphemeralKey);
+        } finally {
+            Arrays.fill(idSecret, (byte) 0);
+        }
+    }
+
+    /**
+     * Same as {@link #setupExchangeKey(XECKeyPair, XECPublicKey, XECKeyPair, XECPublicKey)}, with the secret
+     * of the two identity keys computed before, e.g. by an {@link IdentitySecretCache}
+     * @param idSecret exchange of adminIdKeys and memberIdKey
+     */
+    public static XECKeyPair setupExchangeKey(
+            byte[] idSecret,
+            XECKeyPair adminIdKeys,
+            XECPublicKey memberIdKey,
+            XECKeyPair setupKeys,
+            XECPublicKey memberEphemeralKey
     ) {
         MessageDigest md = startSHA256();
         // Trao đổi giữa quản trị viên và thành viên.
-        md.update(X25519Utils.exchange(adminIdKeys, memberIdKey));
+        md.update(idSecret);
         // Trao đổi giữa quản trị viên và khóa công khai tạm thời của thành viên.
         md.update(X25519Utils.exchange(adminIdKeys, memberEphemeralKey));
         // Trao đổi giữa các khóa thiết lập và khóa công khai của thành viên.
@@ -200,9 +254,29 @@ public class CryptoUtils {
             XECPublicKey adminIdKey,
             XECKeyPair selfEphemeralKeys,
             XECPublicKey setupKey
+    ) {
+        byte[] idSecret = X25519Utils.exchange(selfIdKeys, adminIdKey);
+        try {
+            return recomputeExchangeKey(idSecret, selfIdKeys, adminIdKey, selfEphemeralKeys, setupKey);
+        } finally {
+            Arrays.fill(idSecret, (byte) 0);
+        }
+    }
+
+    /**
+     * Same as {@link #recomputeExchangeKey(XECKeyPair, XECPublicKey, XECKeyPair, XECPublicKey)}, with the
+     * secret of the two identity keys computed before
+     * @param idSecret exchange of selfIdKeys and adminIdKey
+     */
+    public static XECKeyPair recomputeExchangeKey(
+            byte[] idSecret,
+            XECKeyPair selfIdKeys,
+            XECPublicKey adminIdKey,
+            XECKeyPair selfEphemeralKeys,
+            XECPublicKey setupKey
     ) {
         MessageDigest md = startSHA256();
-        md.update(X25519Utils.exchange(selfIdKeys, adminIdKey));
+        md.update(idSecret);
         md.update(X25519Utils.exchange(selfEphemeralKeys, adminIdKey));
         md.update(X25519Utils.exchange(selfIdKeys, setupKey));
         md.update(X25519Utils.exchange(selfEphemeralKeys, setupKey));
@@ -0,0 +1,80 @@
+package art.example.groupchat.core.crypto;
+
+import java.math.BigInteger;
+import java.security.interfaces.XECPublicKey;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the X25519 secrets between own identity key and the identity keys of peers. <br>
+ * Both keys are long-lived, so the secret is the same for every group and every setup between the same two
+ * users; the setup of a group and its recomputation by a member take it from here instead of doing the
+ * exchange again. The least recently used secrets are dropped once the cache is full, and a dropped secret
+ * is overwritten with zeros. <br>
+ * Secrets are handed out as copies, to be wiped by the caller after use.
+ */
+public class IdentitySecretCache {
+
+    private final XECKeyPair idKeyPair;
+    // khóa định danh của người kia (tọa độ u) -> shared secret
+    private final Map<BigInteger, byte[]> secrets;
+
+    /**
+     * @param idKeyPair own identity key pair
+     * @param capacity  most secrets kept, at least 1
+     */
+    public IdentitySecretCache(XECKeyPair idKeyPair, int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+        this.idKeyPair = idKeyPair;
+        secrets = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BigInteger, byte[]> eldest) {
+                if (size() <= capacity) return false;
+                Arrays.fill(eldest.getValue(), (byte) 0);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param peerIdKey identity key of the other user
+     * @return copy of the shared secret between own identity key and the peer's
+     */
+    public byte[] get(XECPublicKey peerIdKey) {
+        BigInteger u = peerIdKey.getU();
+        synchronized (this) {
+            byte[] secret = secrets.get(u);
+            if (secret != null) return secret.clone();
+        }
+        // trao đổi khóa ngoài khóa đồng bộ, hai luồng có thể cùng tính một secret
+        byte[] secret = X25519Utils.exchange(idKeyPair, peerIdKey);
+        synchronized (this) {
+            byte[] old = secrets.put(u, secret.clone());
+            if (old != null) Arrays.fill(old, (byte) 0);
+        }
+        return secret;
+    }
+
+    /**
+     * Forget the secret of a peer, e.g. after its identity key was revoked
+     */
+    public synchronized void remove(XECPublicKey peerIdKey) {
+        byte[] secret = secrets.remove(peerIdKey.getU());
+        if (secret != null) Arrays.fill(secret, (byte) 0);
+    }
+
+    /**
+     * Wipe and forget every secret
+     */
+    public synchronized void clear() {
+        for (byte[] secret : secrets.values()) {
+            Arrays.fill(secret, (byte) 0);
+        }
+        secrets.clear();
+    }
+
+    public synchronized int size() {
+        return secrets.size();
+    }
+}
@@ -0,0 +1,120 @@
+package art.example.groupchat.core.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import java.security.*;
+
+/**
+ * Per-thread cache of the JCA engine objects used by {@link X25519Utils} and {@link CryptoUtils}. <br>
+ * {@code getInstance} walks the provider list on every call; engines are not thread-safe, so each thread
+ * keeps its own instance and re-initializes it before use. An engine returned here must not be held across
+ * a call that may use the same engine on the same thread.
+ */
+public final class JcaEngines {
+
+    private static final ThreadLocal<KeyAgreement> XDH_AGREEMENT = ThreadLocal.withInitial(() -> {
+        try {
+            return KeyAgreement.getInstance("XDH");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    private static final ThreadLocal<KeyPairGenerator> XDH_GENERATOR = ThreadLocal.withInitial(() -> {
+        try {
+            return KeyPairGenerator.getInstance("XDH");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    private static final ThreadLocal<KeyFactory> X25519_FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return KeyFactory.getInstance("X25519");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    private static final ThreadLocal<Cipher> AES_GCM = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    private static final ThreadLocal<Mac> HMAC_SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance("HmacSHA256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    /**
+     * {@link SecureRandom} is thread-safe, one instance is shared by all threads
+     */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private JcaEngines() {
+    }
+
+    /**
+     * @return XDH key agreement of the current thread, must be initialized by the caller
+     */
+    public static KeyAgreement xdhAgreement() {
+        return XDH_AGREEMENT.get();
+    }
+
+    /**
+     * @return XDH key pair generator of the current thread, must be initialized by the caller
+     */
+    public static KeyPairGenerator xdhGenerator() {
+        return XDH_GENERATOR.get();
+    }
+
+    /**
+     * @return X25519 key factory of the current thread
+     */
+    public static KeyFactory x25519Factory() {
+        return X25519_FACTORY.get();
+    }
+
+    /**
+     * @return AES/GCM/NoPadding cipher of the current thread, must be initialized by the caller
+     */
+    public static Cipher aesGcm() {
+        return AES_GCM.get();
+    }
+
+    /**
+     * @return HmacSHA256 of the current thread, must be initialized by the caller
+     */
+    public static Mac hmacSha256() {
+        return HMAC_SHA256.get();
+    }
+
+    /**
+     * @return SHA-256 digest of the current thread, reset and ready for use
+     */
+    public static MessageDigest sha256() {
+        MessageDigest md = SHA256.get();
+        md.reset();
+        return md;
+    }
+
+    public static SecureRandom secureRandom() {
+        return RANDOM;
+    }
+}
@@ -0,0 +1,84 @@
+package art.example.groupchat.core.crypto;
+
+import javax.crypto.KeyAgreement;
+import java.math.BigInteger;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.XECPrivateKey;
+import java.security.interfaces.XECPublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.NamedParameterSpec;
+import java.security.spec.XECPrivateKeySpec;
+import java.security.spec.XECPublicKeySpec;
+
+/**
+ * X25519 of the JCA provider, through the per-thread engines of {@link JcaEngines}. The default engine
+ */
+public class JcaX25519Engine implements X25519Engine {
+
+    /**
+     * điểm cơ sở của đường cong x25519, u = 9
+     */
+    private final XECPublicKey basePoint = publicKey(BigInteger.valueOf(9));
+
+    @Override
+    public byte[] exchange(XECPrivateKey privateKey, XECPublicKey publicKey) {
+        try {
+            // lấy phiên keyAgreement XDH của luồng hiện tại
+            KeyAgreement keyAgreement = JcaEngines.xdhAgreement();
+            // Khởi tạo với khóa riêng
+            keyAgreement.init(privateKey);
+            // Xử lý khóa công khai của bên kia
+            keyAgreement.doPhase(publicKey, true);
+            // trả về là "shared secret"
+            return keyAgreement.generateSecret();
+        } catch (InvalidKeyException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public byte[] scalarMult(byte[] scalar, byte[] u) {
+        return exchange(privateKey(scalar), publicKey(X25519Utils.decodeU(u)));
+    }
+
+    @Override
+    public byte[] scalarMultBase(XECPrivateKey privateKey) {
+        return exchange(privateKey, basePoint);
+    }
+
+    @Override
+    public XECKeyPair newKeyPair() {
+        try {
+            KeyPairGenerator generator = JcaEngines.xdhGenerator();
+            // sử dụng x25519 để sinh khóa
+            generator.initialize(NamedParameterSpec.X25519, JcaEngines.secureRandom());
+            KeyPair keyPair = generator.genKeyPair();
+            return new XECKeyPair((XECPublicKey) keyPair.getPublic(), (XECPrivateKey) keyPair.getPrivate());
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public XECPrivateKey privateKey(byte[] scalar) {
+        try {
+            return (XECPrivateKey) JcaEngines.x25519Factory()
+                    .generatePrivate(new XECPrivateKeySpec(NamedParameterSpec.X25519, scalar));
+        } catch (InvalidKeySpecException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public XECPublicKey publicKey(BigInteger u) {
+        try {
+            return (XECPublicKey) JcaEngines.x25519Factory()
+                    .generatePublic(new XECPublicKeySpec(NamedParameterSpec.X25519, u));
+        } catch (InvalidKeySpecException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
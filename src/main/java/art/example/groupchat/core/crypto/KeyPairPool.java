@@ -0,0 +1,93 @@
+package art.example.groupchat.core.crypto;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of fresh X25519 key pairs, filled by a background thread, so a send or a join takes a key
+ * generated beforehand instead of paying for the scalar multiplication on its own thread. <br>
+ * Each pair is handed out once and removed from the pool; the pool keeps no reference to it. When a burst
+ * empties the pool, {@link #take()} generates the pair on the calling thread, so it never waits for the
+ * refill. <br>
+ * The refill thread comes from the given factory; on Java 21 and later {@code Thread.ofVirtual().factory()}
+ * gives a virtual thread. A pool can be shared by several clients.
+ */
+public class KeyPairPool implements AutoCloseable {
+
+    private final BlockingQueue<XECKeyPair> keys;
+    private final Thread refill;
+    // số lần pool rỗng và khóa phải sinh trên luồng gọi
+    private final AtomicLong misses;
+    private volatile boolean closed;
+
+    /**
+     * @param capacity      most key pairs kept ready, at least 1
+     * @param threadFactory factory of the refill thread
+     */
+    public KeyPairPool(int capacity, ThreadFactory threadFactory) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+        keys = new ArrayBlockingQueue<>(capacity);
+        misses = new AtomicLong();
+        refill = threadFactory.newThread(this::fill);
+        refill.start();
+    }
+
+    /**
+     * @param capacity most key pairs kept ready, filled by a daemon thread
+     */
+    public KeyPairPool(int capacity) {
+        this(capacity, r -> {
+            Thread thread = new Thread(r, "key-pair-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return a fresh key pair, never handed out before; generated on the calling thread if the pool is empty
+     */
+    public XECKeyPair take() {
+        XECKeyPair keyPair = keys.poll();
+        if (keyPair != null) return keyPair;
+        misses.incrementAndGet();
+        return X25519Utils.newKeyPair();
+    }
+
+    /**
+     * @return key pairs ready to be taken
+     */
+    public int available() {
+        return keys.size();
+    }
+
+    /**
+     * @return number of {@link #take()} calls that found the pool empty
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Stop the refill thread and drop the key pairs not taken
+     */
+    @Override
+    public void close() {
+        closed = true;
+        refill.interrupt();
+        keys.clear();
+    }
+
+    private void fill() {
+        try {
+            while (!closed) {
+                // chặn khi pool đầy, tiếp tục ngay khi có khóa được lấy ra
+                keys.put(X25519Utils.newKeyPair());
+            }
+        } catch (InterruptedException e) {
+            // đóng pool
+        }
+        keys.clear();
+    }
+}
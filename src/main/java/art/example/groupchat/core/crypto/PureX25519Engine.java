@@ -0,0 +1,529 @@
+package art.example.groupchat.core.crypto;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.interfaces.XECPrivateKey;
+import java.security.interfaces.XECPublicKey;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.NamedParameterSpec;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * X25519 in Java, RFC 7748: a Montgomery ladder over GF(2^255 - 19) on 32-byte arrays. <br>
+ * Field elements are ten signed limbs of alternately 26 and 25 bits (the ref10 representation), products
+ * are accumulated in longs and carried without branches; the ladder runs 255 steps whatever the scalar and
+ * swaps with a mask, so the time does not depend on secrets. The field elements of a computation live in a
+ * per-thread scratch, nothing is allocated but the result. <br>
+ * Its keys hold the raw 32 bytes, so an exchange needs neither a key factory nor a {@link BigInteger}.
+ */
+public class PureX25519Engine implements X25519Engine {
+
+    private static final byte[] BASE_POINT = new byte[32];
+
+    static {
+        BASE_POINT[0] = 9;
+    }
+
+    private static final ThreadLocal<Ladder> LADDERS = ThreadLocal.withInitial(Ladder::new);
+
+    @Override
+    public byte[] exchange(XECPrivateKey privateKey, XECPublicKey publicKey) {
+        byte[] out = new byte[32];
+        Ladder ladder = LADDERS.get();
+        ladder.scalarMult(out, scalarOf(privateKey), uOf(publicKey, ladder.u));
+        // JCA cũng từ chối điểm có bậc nhỏ
+        return X25519Utils.requireNonZero(out);
+    }
+
+    @Override
+    public byte[] scalarMult(byte[] scalar, byte[] u) {
+        byte[] out = new byte[32];
+        LADDERS.get().scalarMult(out, scalar, u);
+        return out;
+    }
+
+    @Override
+    public byte[] scalarMultBase(XECPrivateKey privateKey) {
+        byte[] out = new byte[32];
+        LADDERS.get().scalarMult(out, scalarOf(privateKey), BASE_POINT);
+        return out;
+    }
+
+    @Override
+    public XECKeyPair newKeyPair() {
+        byte[] scalar = new byte[32];
+        JcaEngines.secureRandom().nextBytes(scalar);
+        PrivateKey privateKey = new PrivateKey(scalar);
+        byte[] u = scalarMultBase(privateKey);
+        return new XECKeyPair(new PublicKey(X25519Utils.decodeU(u), u), privateKey);
+    }
+
+    @Override
+    public XECPrivateKey privateKey(byte[] scalar) {
+        if (scalar.length != 32) throw new RuntimeException("Private key length must be 32");
+        return new PrivateKey(scalar.clone());
+    }
+
+    @Override
+    public XECPublicKey publicKey(BigInteger u) {
+        byte[] encoded = new byte[32];
+        X25519Utils.encodeU(u, encoded, 0);
+        return new PublicKey(u, encoded);
+    }
+
+    private static byte[] scalarOf(XECPrivateKey privateKey) {
+        if (privateKey instanceof PrivateKey) return ((PrivateKey) privateKey).scalar;
+        return privateKey.getScalar().orElseThrow();
+    }
+
+    private static byte[] uOf(XECPublicKey publicKey, byte[] scratch) {
+        if (publicKey instanceof PublicKey) return ((PublicKey) publicKey).encoded;
+        X25519Utils.encodeU(publicKey.getU(), scratch, 0);
+        return scratch;
+    }
+
+    /**
+     * Field elements of one computation, reused by a thread
+     */
+    private static final class Ladder {
+        private final int[] x1 = new int[10];
+        private final int[] x2 = new int[10];
+        private final int[] z2 = new int[10];
+        private final int[] x3 = new int[10];
+        private final int[] z3 = new int[10];
+        private final int[] tmp0 = new int[10];
+        private final int[] tmp1 = new int[10];
+        private final int[] t0 = new int[10];
+        private final int[] t1 = new int[10];
+        private final int[] t2 = new int[10];
+        private final int[] t3 = new int[10];
+        private final byte[] e = new byte[32];
+        private final byte[] u = new byte[32];
+
+        void scalarMult(byte[] out, byte[] scalar, byte[] point) {
+            System.arraycopy(scalar, 0, e, 0, 32);
+            // kẹp scalar theo RFC 7748
+            e[0] &= (byte) 248;
+            e[31] &= 127;
+            e[31] |= 64;
+            fromBytes(x1, point);
+            one(x2);
+            zero(z2);
+            System.arraycopy(x1, 0, x3, 0, 10);
+            one(z3);
+            int swap = 0;
+            for (int pos = 254; pos >= 0; pos--) {
+                int b = (e[pos >>> 3] >>> (pos & 7)) & 1;
+                swap ^= b;
+                cswap(x2, x3, swap);
+                cswap(z2, z3, swap);
+                swap = b;
+                sub(tmp0, x3, z3);
+                sub(tmp1, x2, z2);
+                add(x2, x2, z2);
+                add(z2, x3, z3);
+                mul(z3, tmp0, x2);
+                mul(z2, z2, tmp1);
+                sq(tmp0, tmp1);
+                sq(tmp1, x2);
+                add(x3, z3, z2);
+                sub(z2, z3, z2);
+                mul(x2, tmp1, tmp0);
+                sub(tmp1, tmp1, tmp0);
+                sq(z2, z2);
+                mul121666(z3, tmp1);
+                sq(x3, x3);
+                add(tmp0, tmp0, z3);
+                mul(z3, x1, z2);
+                mul(z2, tmp1, tmp0);
+            }
+            cswap(x2, x3, swap);
+            cswap(z2, z3, swap);
+            invert(z2, z2);
+            mul(x2, x2, z2);
+            toBytes(out, x2);
+            Arrays.fill(e, (byte) 0);
+        }
+
+        /**
+         * out = z^(p - 2)
+         */
+        private void invert(int[] out, int[] z) {
+            sq(t0, z);
+            sq(t1, t0);
+            sq(t1, t1);
+            mul(t1, z, t1);
+            mul(t0, t0, t1);
+            sq(t2, t0);
+            mul(t1, t1, t2);
+            sqTimes(t2, t1, 5);
+            mul(t1, t2, t1);
+            sqTimes(t2, t1, 10);
+            mul(t2, t2, t1);
+            sqTimes(t3, t2, 20);
+            mul(t2, t3, t2);
+            sqTimes(t2, t2, 10);
+            mul(t1, t2, t1);
+            sqTimes(t2, t1, 50);
+            mul(t2, t2, t1);
+            sqTimes(t3, t2, 100);
+            mul(t2, t3, t2);
+            sqTimes(t2, t2, 50);
+            mul(t1, t2, t1);
+            sqTimes(t1, t1, 5);
+            mul(out, t1, t0);
+        }
+
+        private static void sqTimes(int[] h, int[] f, int n) {
+            sq(h, f);
+            for (int i = 1; i < n; i++) {
+                sq(h, h);
+            }
+        }
+    }
+
+    // số học trên GF(2^255 - 19), h = h0 + 2^26 h1 + 2^51 h2 + 2^77 h3 + ... + 2^230 h9
+
+    private static void zero(int[] h) {
+        Arrays.fill(h, 0);
+    }
+
+    private static void one(int[] h) {
+        Arrays.fill(h, 0);
+        h[0] = 1;
+    }
+
+    private static void add(int[] h, int[] f, int[] g) {
+        for (int i = 0; i < 10; i++) {
+            h[i] = f[i] + g[i];
+        }
+    }
+
+    private static void sub(int[] h, int[] f, int[] g) {
+        for (int i = 0; i < 10; i++) {
+            h[i] = f[i] - g[i];
+        }
+    }
+
+    /**
+     * swap f and g if b is 1, leave them if b is 0, without a branch
+     */
+    private static void cswap(int[] f, int[] g, int b) {
+        int mask = -b;
+        for (int i = 0; i < 10; i++) {
+            int x = mask & (f[i] ^ g[i]);
+            f[i] ^= x;
+            g[i] ^= x;
+        }
+    }
+
+    private static void mul(int[] h, int[] f, int[] g) {
+        long f0 = f[0], f1 = f[1], f2 = f[2], f3 = f[3], f4 = f[4], f5 = f[5], f6 = f[6], f7 = f[7], f8 = f[8], f9 = f[9];
+        long g0 = g[0], g1 = g[1], g2 = g[2], g3 = g[3], g4 = g[4], g5 = g[5], g6 = g[6], g7 = g[7], g8 = g[8], g9 = g[9];
+        long h0 = f0 * g0 + f1 * g9 * 38 + f2 * g8 * 19 + f3 * g7 * 38 + f4 * g6 * 19 + f5 * g5 * 38 + f6 * g4 * 19
+                + f7 * g3 * 38 + f8 * g2 * 19 + f9 * g1 * 38;
+        long h1 = f0 * g1 + f1 * g0 + f2 * g9 * 19 + f3 * g8 * 19 + f4 * g7 * 19 + f5 * g6 * 19 + f6 * g5 * 19
+                + f7 * g4 * 19 + f8 * g3 * 19 + f9 * g2 * 19;
+        long h2 = f0 * g2 + f1 * g1 * 2 + f2 * g0 + f3 * g9 * 38 + f4 * g8 * 19 + f5 * g7 * 38 + f6 * g6 * 19
+                + f7 * g5 * 38 + f8 * g4 * 19 + f9 * g3 * 38;
+        long h3 = f0 * g3 + f1 * g2 + f2 * g1 + f3 * g0 + f4 * g9 * 19 + f5 * g8 * 19 + f6 * g7 * 19 + f7 * g6 * 19
+                + f8 * g5 * 19 + f9 * g4 * 19;
+        long h4 = f0 * g4 + f1 * g3 * 2 + f2 * g2 + f3 * g1 * 2 + f4 * g0 + f5 * g9 * 38 + f6 * g8 * 19 + f7 * g7 * 38
+                + f8 * g6 * 19 + f9 * g5 * 38;
+        long h5 = f0 * g5 + f1 * g4 + f2 * g3 + f3 * g2 + f4 * g1 + f5 * g0 + f6 * g9 * 19 + f7 * g8 * 19
+                + f8 * g7 * 19 + f9 * g6 * 19;
+        long h6 = f0 * g6 + f1 * g5 * 2 + f2 * g4 + f3 * g3 * 2 + f4 * g2 + f5 * g1 * 2 + f6 * g0 + f7 * g9 * 38
+                + f8 * g8 * 19 + f9 * g7 * 38;
+        long h7 = f0 * g7 + f1 * g6 + f2 * g5 + f3 * g4 + f4 * g3 + f5 * g2 + f6 * g1 + f7 * g0 + f8 * g9 * 19
+                + f9 * g8 * 19;
+        long h8 = f0 * g8 + f1 * g7 * 2 + f2 * g6 + f3 * g5 * 2 + f4 * g4 + f5 * g3 * 2 + f6 * g2 + f7 * g1 * 2
+                + f8 * g0 + f9 * g9 * 38;
+        long h9 = f0 * g9 + f1 * g8 + f2 * g7 + f3 * g6 + f4 * g5 + f5 * g4 + f6 * g3 + f7 * g2 + f8 * g1 + f9 * g0;
+        carry(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+    }
+
+    private static void sq(int[] h, int[] f) {
+        long f0 = f[0], f1 = f[1], f2 = f[2], f3 = f[3], f4 = f[4], f5 = f[5], f6 = f[6], f7 = f[7], f8 = f[8], f9 = f[9];
+        long h0 = f0 * f0 + f1 * f9 * 76 + f2 * f8 * 38 + f3 * f7 * 76 + f4 * f6 * 38 + f5 * f5 * 38;
+        long h1 = f0 * f1 * 2 + f2 * f9 * 38 + f3 * f8 * 38 + f4 * f7 * 38 + f5 * f6 * 38;
+        long h2 = f0 * f2 * 2 + f1 * f1 * 2 + f3 * f9 * 76 + f4 * f8 * 38 + f5 * f7 * 76 + f6 * f6 * 19;
+        long h3 = f0 * f3 * 2 + f1 * f2 * 2 + f4 * f9 * 38 + f5 * f8 * 38 + f6 * f7 * 38;
+        long h4 = f0 * f4 * 2 + f1 * f3 * 4 + f2 * f2 + f5 * f9 * 76 + f6 * f8 * 38 + f7 * f7 * 38;
+        long h5 = f0 * f5 * 2 + f1 * f4 * 2 + f2 * f3 * 2 + f6 * f9 * 38 + f7 * f8 * 38;
+        long h6 = f0 * f6 * 2 + f1 * f5 * 4 + f2 * f4 * 2 + f3 * f3 * 2 + f7 * f9 * 76 + f8 * f8 * 19;
+        long h7 = f0 * f7 * 2 + f1 * f6 * 2 + f2 * f5 * 2 + f3 * f4 * 2 + f8 * f9 * 38;
+        long h8 = f0 * f8 * 2 + f1 * f7 * 4 + f2 * f6 * 2 + f3 * f5 * 4 + f4 * f4 + f9 * f9 * 38;
+        long h9 = f0 * f9 * 2 + f1 * f8 * 2 + f2 * f7 * 2 + f3 * f6 * 2 + f4 * f5 * 2;
+        carry(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+    }
+
+    /**
+     * h = f * 121666, (A + 2) / 4 of curve25519
+     */
+    private static void mul121666(int[] h, int[] f) {
+        long h0 = f[0] * 121666L;
+        long h1 = f[1] * 121666L;
+        long h2 = f[2] * 121666L;
+        long h3 = f[3] * 121666L;
+        long h4 = f[4] * 121666L;
+        long h5 = f[5] * 121666L;
+        long h6 = f[6] * 121666L;
+        long h7 = f[7] * 121666L;
+        long h8 = f[8] * 121666L;
+        long h9 = f[9] * 121666L;
+        long c;
+        c = (h9 + (1L << 24)) >> 25; h0 += c * 19; h9 -= c << 25;
+        c = (h1 + (1L << 24)) >> 25; h2 += c; h1 -= c << 25;
+        c = (h3 + (1L << 24)) >> 25; h4 += c; h3 -= c << 25;
+        c = (h5 + (1L << 24)) >> 25; h6 += c; h5 -= c << 25;
+        c = (h7 + (1L << 24)) >> 25; h8 += c; h7 -= c << 25;
+        c = (h0 + (1L << 25)) >> 26; h1 += c; h0 -= c << 26;
+        c = (h2 + (1L << 25)) >> 26; h3 += c; h2 -= c << 26;
+        c = (h4 + (1L << 25)) >> 26; h5 += c; h4 -= c << 26;
+        c = (h6 + (1L << 25)) >> 26; h7 += c; h6 -= c << 26;
+        c = (h8 + (1L << 25)) >> 26; h9 += c; h8 -= c << 26;
+        set(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+    }
+
+    /**
+     * Reduce the limbs of a product to 26 and 25 bits, 2^255 = 19
+     */
+    private static void carry(int[] h, long h0, long h1, long h2, long h3, long h4, long h5, long h6, long h7,
+                              long h8, long h9) {
+        long c;
+        c = (h0 + (1L << 25)) >> 26; h1 += c; h0 -= c << 26;
+        c = (h4 + (1L << 25)) >> 26; h5 += c; h4 -= c << 26;
+        c = (h1 + (1L << 24)) >> 25; h2 += c; h1 -= c << 25;
+        c = (h5 + (1L << 24)) >> 25; h6 += c; h5 -= c << 25;
+        c = (h2 + (1L << 25)) >> 26; h3 += c; h2 -= c << 26;
+        c = (h6 + (1L << 25)) >> 26; h7 += c; h6 -= c << 26;
+        c = (h3 + (1L << 24)) >> 25; h4 += c; h3 -= c << 25;
+        c = (h7 + (1L << 24)) >> 25; h8 += c; h7 -= c << 25;
+        c = (h4 + (1L << 25)) >> 26; h5 += c; h4 -= c << 26;
+        c = (h8 + (1L << 25)) >> 26; h9 += c; h8 -= c << 26;
+        c = (h9 + (1L << 24)) >> 25; h0 += c * 19; h9 -= c << 25;
+        c = (h0 + (1L << 25)) >> 26; h1 += c; h0 -= c << 26;
+        set(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+    }
+
+    private static void set(int[] h, long h0, long h1, long h2, long h3, long h4, long h5, long h6, long h7,
+                            long h8, long h9) {
+        h[0] = (int) h0;
+        h[1] = (int) h1;
+        h[2] = (int) h2;
+        h[3] = (int) h3;
+        h[4] = (int) h4;
+        h[5] = (int) h5;
+        h[6] = (int) h6;
+        h[7] = (int) h7;
+        h[8] = (int) h8;
+        h[9] = (int) h9;
+    }
+
+    private static long load3(byte[] s, int i) {
+        return (s[i] & 0xff) | (s[i + 1] & 0xff) << 8 | (long) (s[i + 2] & 0xff) << 16;
+    }
+
+    private static long load4(byte[] s, int i) {
+        return load3(s, i) | (long) (s[i + 3] & 0xff) << 24;
+    }
+
+    /**
+     * u-coordinate, 32 bytes little-endian, the top bit is ignored
+     */
+    private static void fromBytes(int[] h, byte[] s) {
+        long h0 = load4(s, 0);
+        long h1 = load3(s, 4) << 6;
+        long h2 = load3(s, 7) << 5;
+        long h3 = load3(s, 10) << 3;
+        long h4 = load3(s, 13) << 2;
+        long h5 = load4(s, 16);
+        long h6 = load3(s, 20) << 7;
+        long h7 = load3(s, 23) << 5;
+        long h8 = load3(s, 26) << 4;
+        long h9 = (load3(s, 29) & 0x7fffff) << 2;
+        long c;
+        c = (h9 + (1L << 24)) >> 25; h0 += c * 19; h9 -= c << 25;
+        c = (h1 + (1L << 24)) >> 25; h2 += c; h1 -= c << 25;
+        c = (h3 + (1L << 24)) >> 25; h4 += c; h3 -= c << 25;
+        c = (h5 + (1L << 24)) >> 25; h6 += c; h5 -= c << 25;
+        c = (h7 + (1L << 24)) >> 25; h8 += c; h7 -= c << 25;
+        c = (h0 + (1L << 25)) >> 26; h1 += c; h0 -= c << 26;
+        c = (h2 + (1L << 25)) >> 26; h3 += c; h2 -= c << 26;
+        c = (h4 + (1L << 25)) >> 26; h5 += c; h4 -= c << 26;
+        c = (h6 + (1L << 25)) >> 26; h7 += c; h6 -= c << 26;
+        c = (h8 + (1L << 25)) >> 26; h9 += c; h8 -= c << 26;
+        set(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+    }
+
+    /**
+     * Fully reduced value of h, 32 bytes little-endian
+     */
+    private static void toBytes(byte[] s, int[] f) {
+        int h0 = f[0], h1 = f[1], h2 = f[2], h3 = f[3], h4 = f[4], h5 = f[5], h6 = f[6], h7 = f[7], h8 = f[8],
+                h9 = f[9];
+        // q = floor(h / p), 0 hoặc 1
+        int q = (19 * h9 + (1 << 24)) >> 25;
+        q = (h0 + q) >> 26;
+        q = (h1 + q) >> 25;
+        q = (h2 + q) >> 26;
+        q = (h3 + q) >> 25;
+        q = (h4 + q) >> 26;
+        q = (h5 + q) >> 25;
+        q = (h6 + q) >> 26;
+        q = (h7 + q) >> 25;
+        q = (h8 + q) >> 26;
+        q = (h9 + q) >> 25;
+        h0 += 19 * q;
+        int c;
+        c = h0 >> 26; h1 += c; h0 -= c << 26;
+        c = h1 >> 25; h2 += c; h1 -= c << 25;
+        c = h2 >> 26; h3 += c; h2 -= c << 26;
+        c = h3 >> 25; h4 += c; h3 -= c << 25;
+        c = h4 >> 26; h5 += c; h4 -= c << 26;
+        c = h5 >> 25; h6 += c; h5 -= c << 25;
+        c = h6 >> 26; h7 += c; h6 -= c << 26;
+        c = h7 >> 25; h8 += c; h7 -= c << 25;
+        c = h8 >> 26; h9 += c; h8 -= c << 26;
+        c = h9 >> 25; h9 -= c << 25;
+        s[0] = (byte) h0;
+        s[1] = (byte) (h0 >> 8);
+        s[2] = (byte) (h0 >> 16);
+        s[3] = (byte) ((h0 >> 24) | (h1 << 2));
+        s[4] = (byte) (h1 >> 6);
+        s[5] = (byte) (h1 >> 14);
+        s[6] = (byte) ((h1 >> 22) | (h2 << 3));
+        s[7] = (byte) (h2 >> 5);
+        s[8] = (byte) (h2 >> 13);
+        s[9] = (byte) ((h2 >> 21) | (h3 << 5));
+        s[10] = (byte) (h3 >> 3);
+        s[11] = (byte) (h3 >> 11);
+        s[12] = (byte) ((h3 >> 19) | (h4 << 6));
+        s[13] = (byte) (h4 >> 2);
+        s[14] = (byte) (h4 >> 10);
+        s[15] = (byte) (h4 >> 18);
+        s[16] = (byte) h5;
+        s[17] = (byte) (h5 >> 8);
+        s[18] = (byte) (h5 >> 16);
+        s[19] = (byte) ((h5 >> 24) | (h6 << 1));
+        s[20] = (byte) (h6 >> 7);
+        s[21] = (byte) (h6 >> 15);
+        s[22] = (byte) ((h6 >> 23) | (h7 << 3));
+        s[23] = (byte) (h7 >> 5);
+        s[24] = (byte) (h7 >> 13);
+        s[25] = (byte) ((h7 >> 21) | (h8 << 4));
+        s[26] = (byte) (h8 >> 4);
+        s[27] = (byte) (h8 >> 12);
+        s[28] = (byte) ((h8 >> 20) | (h9 << 6));
+        s[29] = (byte) (h9 >> 2);
+        s[30] = (byte) (h9 >> 10);
+        s[31] = (byte) (h9 >> 18);
+    }
+
+    /**
+     * Private key holding its raw scalar, PKCS#8 encoded as in RFC 8410
+     */
+    static final class PrivateKey implements XECPrivateKey {
+        private static final long serialVersionUID = 1L;
+        private static final byte[] PREFIX = {0x30, 0x2e, 0x02, 0x01, 0x00, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x6e,
+                0x04, 0x22, 0x04, 0x20};
+
+        private final byte[] scalar;
+
+        PrivateKey(byte[] scalar) {
+            this.scalar = scalar;
+        }
+
+        @Override
+        public Optional<byte[]> getScalar() {
+            return Optional.of(scalar.clone());
+        }
+
+        @Override
+        public AlgorithmParameterSpec getParams() {
+            return NamedParameterSpec.X25519;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return "XDH";
+        }
+
+        @Override
+        public String getFormat() {
+            return "PKCS#8";
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            byte[] encoded = Arrays.copyOf(PREFIX, PREFIX.length + 32);
+            System.arraycopy(scalar, 0, encoded, PREFIX.length, 32);
+            return encoded;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof XECPrivateKey
+                    && MessageDigest.isEqual(scalar, ((XECPrivateKey) o).getScalar().orElse(null));
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(scalar);
+        }
+    }
+
+    /**
+     * Public key holding its u-coordinate both as a number and as 32 bytes, X.509 encoded as in RFC 8410
+     */
+    static final class PublicKey implements XECPublicKey {
+        private static final long serialVersionUID = 1L;
+        private static final byte[] PREFIX = {0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x6e, 0x03, 0x21, 0x00};
+
+        private final BigInteger u;
+        private final byte[] encoded;
+
+        PublicKey(BigInteger u, byte[] encoded) {
+            this.u = u;
+            this.encoded = encoded;
+        }
+
+        @Override
+        public BigInteger getU() {
+            return u;
+        }
+
+        @Override
+        public AlgorithmParameterSpec getParams() {
+            return NamedParameterSpec.X25519;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return "XDH";
+        }
+
+        @Override
+        public String getFormat() {
+            return "X.509";
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            byte[] x509 = Arrays.copyOf(PREFIX, PREFIX.length + 32);
+            System.arraycopy(encoded, 0, x509, PREFIX.length, 32);
+            return x509;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof XECPublicKey && u.equals(((XECPublicKey) o).getU());
+        }
+
+        @Override
+        public int hashCode() {
+            return u.hashCode();
+        }
+    }
+}
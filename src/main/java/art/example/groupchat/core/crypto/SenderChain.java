@@ -0,0 +1,107 @@
+package art.example.groupchat.core.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Symmetric hash ratchet of one sender on one epoch of the tree. <br>
+ * The chain starts from {@code hkdf(groupKey, sender)}; message {@code i} is encrypted with
+ * {@code HMAC(chain_i, 1)} and the chain moves on to {@code HMAC(chain_i, 2)}, the old chain key is wiped.
+ * A message costs one HMAC instead of a tree update, a leaked chain key only exposes the messages after it
+ * until the next tree update.
+ */
+public class SenderChain {
+    /**
+     * number of message keys kept for messages that arrive out of order
+     */
+    public static final int MAX_SKIP = 256;
+
+    private static final byte[] MESSAGE_KEY = {1};
+    private static final byte[] CHAIN_KEY = {2};
+    private static final byte[] INFO = "art sender chain".getBytes(StandardCharsets.UTF_8);
+
+    private byte[] chainKey;
+    // chỉ số của khóa tin nhắn tiếp theo
+    private int counter;
+    // khóa của các tin nhắn bị bỏ qua, chưa tới nơi
+    private final Map<Integer, byte[]> skipped;
+
+    /**
+     * @param groupKey group key of the epoch
+     * @param sender   alias of the sender
+     */
+    public SenderChain(byte[] groupKey, String sender) {
+        chainKey = CryptoUtils.hkdf(groupKey, sender.getBytes(StandardCharsets.UTF_8), INFO, 32);
+        skipped = new HashMap<>();
+    }
+
+    /**
+     * @return index of the next message key
+     */
+    public int getCounter() {
+        return counter;
+    }
+
+    /**
+     * For the sender <br>
+     * @return key of the next message, its index is the counter before the call
+     */
+    public byte[] nextKey() {
+        byte[] messageKey = CryptoUtils.hmacSha256(MESSAGE_KEY, chainKey);
+        advance();
+        return messageKey;
+    }
+
+    /**
+     * For a receiver <br>
+     * Does not change the chain: the key is only used up by {@link #consume(int)}, once the message opens,
+     * so a forged message can neither burn a key nor skip the chain ahead
+     * @param index index of the message in the chain
+     * @return key of the message
+     */
+    public byte[] keyAt(int index) {
+        if (index < counter) {
+            byte[] messageKey = skipped.get(index);
+            if (messageKey == null) throw new RuntimeException("Message key " + index + " was already used");
+            return messageKey;
+        }
+        if (index - counter + skipped.size() > MAX_SKIP)
+            throw new RuntimeException("Message key " + index + " is too far ahead of " + counter);
+        byte[] key = chainKey;
+        for (int i = counter; i < index; i++) {
+            byte[] next = CryptoUtils.hmacSha256(CHAIN_KEY, key);
+            if (key != chainKey) Arrays.fill(key, (byte) 0);
+            key = next;
+        }
+        byte[] messageKey = CryptoUtils.hmacSha256(MESSAGE_KEY, key);
+        if (key != chainKey) Arrays.fill(key, (byte) 0);
+        return messageKey;
+    }
+
+    /**
+     * For a receiver, after the message of the key of {@link #keyAt(int)} was authenticated <br>
+     * Each key is used once, the keys of the messages skipped on the way are kept until they arrive
+     * @param index index of the message in the chain
+     */
+    public void consume(int index) {
+        if (index < counter) {
+            byte[] messageKey = skipped.remove(index);
+            if (messageKey != null) Arrays.fill(messageKey, (byte) 0);
+            return;
+        }
+        while (counter < index) {
+            skipped.put(counter, CryptoUtils.hmacSha256(MESSAGE_KEY, chainKey));
+            advance();
+        }
+        advance();
+    }
+
+    private void advance() {
+        byte[] next = CryptoUtils.hmacSha256(CHAIN_KEY, chainKey);
+        Arrays.fill(chainKey, (byte) 0);
+        chainKey = next;
+        counter++;
+    }
+}
@@ -0,0 +1,261 @@
+package art.example.groupchat.core.crypto;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+/**
+ * Chunked AES-GCM for payloads too large to hold in memory, e.g. files and media. <br>
+ * The stream starts with a header of a random salt and a random nonce prefix; the key of the stream is
+ * {@code hkdf(groupKey, salt, "art attachment")}. The plaintext is cut into chunks of {@link #CHUNK_SIZE}
+ * bytes, each sealed on its own with the nonce {@code prefix || chunk index || last flag}, so chunks cannot
+ * be reordered, dropped or cut off at the end without failing authentication (the STREAM construction). <br>
+ * Encryption and decryption use two chunk buffers whatever the size of the payload.
+ */
+public class StreamingAead {
+    /**
+     * plaintext bytes per chunk, every chunk but the last is full
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+    public static final int SALT_LENGTH = 16;
+    public static final int HEADER_LENGTH = SALT_LENGTH + 7;
+
+    private static final int PREFIX_LENGTH = 7;
+    private static final int CHUNK_CIPHERTEXT_SIZE = CHUNK_SIZE + CryptoUtils.TAG_LENGTH;
+    private static final byte[] INFO = "art attachment".getBytes(StandardCharsets.UTF_8);
+
+    private StreamingAead() {
+    }
+
+    /**
+     * Encrypt a whole stream
+     * @param in       plaintext, read to its end
+     * @param out      receives the header and the chunks, it is not closed
+     * @param groupKey key the stream key is derived from
+     * @return number of plaintext bytes
+     */
+    public static long encrypt(InputStream in, OutputStream out, byte[] groupKey) throws IOException {
+        return encrypt(Channels.newChannel(in), Channels.newChannel(out), groupKey);
+    }
+
+    /**
+     * @see #encrypt(InputStream, OutputStream, byte[])
+     */
+    public static long encrypt(ReadableByteChannel in, WritableByteChannel out, byte[] groupKey) throws IOException {
+        byte[] header = CryptoUtils.randomBytes(HEADER_LENGTH);
+        SecretKeySpec key = streamKey(groupKey, header);
+        writeFully(out, ByteBuffer.wrap(header));
+
+        // đọc trước 1 byte để biết chunk hiện tại có phải là chunk cuối không
+        ByteBuffer plain = ByteBuffer.allocate(CHUNK_SIZE + 1);
+        ByteBuffer sealed = ByteBuffer.allocate(CHUNK_CIPHERTEXT_SIZE);
+        long total = 0;
+        int index = 0;
+        boolean last = false;
+        while (!last) {
+            last = !readFully(in, plain);
+            plain.flip();
+            int length = Math.min(plain.remaining(), CHUNK_SIZE);
+            int limit = plain.limit();
+            plain.limit(length);
+            sealed.clear();
+            seal(key, header, index, last, plain, sealed);
+            sealed.flip();
+            writeFully(out, sealed);
+            plain.limit(limit);
+            plain.compact();
+            total += length;
+            index = nextIndex(index);
+        }
+        return total;
+    }
+
+    /**
+     * Decrypt a whole stream
+     * @param in       header and chunks, read to its end
+     * @param out      receives the plaintext, it is not closed
+     * @param groupKey key the stream key is derived from
+     * @return number of plaintext bytes
+     * @throws IOException if a chunk fails authentication or the stream is cut off; the chunks written before
+     *                     are authentic but the payload is incomplete
+     */
+    public static long decrypt(InputStream in, OutputStream out, byte[] groupKey) throws IOException {
+        return decrypt(Channels.newChannel(in), Channels.newChannel(out), groupKey);
+    }
+
+    /**
+     * @see #decrypt(InputStream, OutputStream, byte[])
+     */
+    public static long decrypt(ReadableByteChannel in, WritableByteChannel out, byte[] groupKey) throws IOException {
+        ReadableByteChannel plain = newDecryptingChannel(in, groupKey);
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        long total = 0;
+        while (plain.read(buffer) >= 0) {
+            buffer.flip();
+            total += buffer.remaining();
+            writeFully(out, buffer);
+            buffer.clear();
+        }
+        return total;
+    }
+
+    /**
+     * @param in       header and chunks
+     * @param groupKey key the stream key is derived from
+     * @return stream of the plaintext, a chunk is only returned once it is authenticated
+     */
+    public static InputStream newDecryptingStream(InputStream in, byte[] groupKey) {
+        return Channels.newInputStream(newDecryptingChannel(Channels.newChannel(in), groupKey));
+    }
+
+    /**
+     * @see #newDecryptingStream(InputStream, byte[])
+     */
+    public static ReadableByteChannel newDecryptingChannel(ReadableByteChannel in, byte[] groupKey) {
+        return new DecryptingChannel(in, groupKey);
+    }
+
+    private static final class DecryptingChannel implements ReadableByteChannel {
+        private final ReadableByteChannel in;
+        private final byte[] groupKey;
+        private byte[] header;
+        private SecretKeySpec key;
+        // đọc trước 1 byte để biết chunk hiện tại có phải là chunk cuối không
+        private final ByteBuffer sealed = ByteBuffer.allocate(CHUNK_CIPHERTEXT_SIZE + 1);
+        private final ByteBuffer plain = ByteBuffer.allocate(CHUNK_SIZE);
+        private int index;
+        private boolean done;
+
+        DecryptingChannel(ReadableByteChannel in, byte[] groupKey) {
+            this.in = in;
+            this.groupKey = groupKey;
+            plain.flip();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            while (!plain.hasRemaining()) {
+                if (done) return -1;
+                nextChunk();
+            }
+            int n = Math.min(plain.remaining(), dst.remaining());
+            int limit = plain.limit();
+            plain.limit(plain.position() + n);
+            dst.put(plain);
+            plain.limit(limit);
+            return n;
+        }
+
+        private void nextChunk() throws IOException {
+            if (header == null) {
+                ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_LENGTH);
+                if (readFully(in, headerBuffer)) {
+                    header = headerBuffer.array();
+                    key = streamKey(groupKey, header);
+                } else {
+                    throw new EOFException("Truncated attachment header");
+                }
+            }
+            boolean last = !readFully(in, sealed);
+            sealed.flip();
+            int length = Math.min(sealed.remaining(), CHUNK_CIPHERTEXT_SIZE);
+            if (length < CryptoUtils.TAG_LENGTH) throw new EOFException("Truncated attachment");
+            int limit = sealed.limit();
+            sealed.limit(length);
+            plain.clear();
+            open(key, header, index, last, sealed, plain);
+            plain.flip();
+            sealed.limit(limit);
+            sealed.compact();
+            index = nextIndex(index);
+            done = last;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return in.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static SecretKeySpec streamKey(byte[] groupKey, byte[] header) {
+        byte[] salt = new byte[SALT_LENGTH];
+        System.arraycopy(header, 0, salt, 0, SALT_LENGTH);
+        return new SecretKeySpec(CryptoUtils.hkdf(groupKey, salt, INFO, 32), "AES");
+    }
+
+    /**
+     * @return nonce of a chunk: prefix of the header, big-endian index, 1 for the last chunk
+     */
+    private static GCMParameterSpec chunkNonce(byte[] header, int index, boolean last) {
+        byte[] nonce = new byte[CryptoUtils.NONCE_LENGTH];
+        System.arraycopy(header, SALT_LENGTH, nonce, 0, PREFIX_LENGTH);
+        nonce[7] = (byte) (index >>> 24);
+        nonce[8] = (byte) (index >>> 16);
+        nonce[9] = (byte) (index >>> 8);
+        nonce[10] = (byte) index;
+        nonce[11] = (byte) (last ? 1 : 0);
+        return new GCMParameterSpec(CryptoUtils.TAG_LENGTH * 8, nonce);
+    }
+
+    private static void seal(SecretKeySpec key, byte[] header, int index, boolean last,
+                             ByteBuffer plain, ByteBuffer sealed) {
+        try {
+            Cipher cipher = JcaEngines.aesGcm();
+            cipher.init(Cipher.ENCRYPT_MODE, key, chunkNonce(header, index, last));
+            cipher.doFinal(plain, sealed);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void open(SecretKeySpec key, byte[] header, int index, boolean last,
+                             ByteBuffer sealed, ByteBuffer plain) throws IOException {
+        try {
+            Cipher cipher = JcaEngines.aesGcm();
+            cipher.init(Cipher.DECRYPT_MODE, key, chunkNonce(header, index, last));
+            cipher.doFinal(sealed, plain);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Chunk " + index + " of the attachment failed authentication", e);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int nextIndex(int index) {
+        if (index == -1) throw new RuntimeException("Attachment has too many chunks");
+        return index + 1;
+    }
+
+    /**
+     * Read until the buffer is full or the channel ends
+     * @return true if the buffer is full
+     */
+    private static boolean readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) return false;
+        }
+        return true;
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
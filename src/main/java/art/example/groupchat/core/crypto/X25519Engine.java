@@ -0,0 +1,44 @@
+package art.example.groupchat.core.crypto;
+
+import java.math.BigInteger;
+import java.security.interfaces.XECPrivateKey;
+import java.security.interfaces.XECPublicKey;
+
+/**
+ * Implementation of the X25519 function behind {@link X25519Utils}, chosen with
+ * {@link X25519Utils#setEngine(X25519Engine)}. <br>
+ * Keys made by one engine are accepted by the other: both work on any {@link XECPrivateKey} and
+ * {@link XECPublicKey}, an engine only goes faster with its own key objects. An engine is stateless and
+ * thread-safe.
+ */
+public interface X25519Engine {
+
+    /**
+     * @return shared secret, 32 bytes; throws if it is all zero, i.e. the public key has a small order
+     */
+    byte[] exchange(XECPrivateKey privateKey, XECPublicKey publicKey);
+
+    /**
+     * @param scalar private scalar, 32 bytes, clamped by the function
+     * @param u      u-coordinate, 32 bytes little-endian
+     * @return X25519(scalar, u), 32 bytes
+     */
+    byte[] scalarMult(byte[] scalar, byte[] u);
+
+    /**
+     * @return u-coordinate of the public key of a private key: X25519(k, 9), 32 bytes little-endian
+     */
+    byte[] scalarMultBase(XECPrivateKey privateKey);
+
+    XECKeyPair newKeyPair();
+
+    /**
+     * @param scalar raw private key, 32 bytes
+     */
+    XECPrivateKey privateKey(byte[] scalar);
+
+    /**
+     * @param u u-coordinate
+     */
+    XECPublicKey publicKey(BigInteger u);
+}
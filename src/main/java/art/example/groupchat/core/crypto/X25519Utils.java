@@ -1,21 +1,34 @@
 package art.example.groupchat.core.crypto;
 
-import javax.crypto.KeyAgreement;
 import javax.xml.bind.DatatypeConverter;
 import java.math.BigInteger;
-import java.security.*;
 import java.security.interfaces.XECPrivateKey;
 import java.security.interfaces.XECPublicKey;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.NamedParameterSpec;
-import java.security.spec.XECPrivateKeySpec;
-import java.security.spec.XECPublicKeySpec;
+import java.util.Objects;
 
 /**
- * cung cấp các tiên ích dùng để xử lý các thao tác mật mã với đường cong x25519
+ * cung cấp các tiên ích dùng để xử lý các thao tác mật mã với đường cong x25519 <br>
+ * The curve work is done by an {@link X25519Engine}: the JCA provider by default, or the pure Java ladder of
+ * {@link PureX25519Engine} with the system property {@code groupchat.x25519=pure} or
+ * {@link #setEngine(X25519Engine)}.
  */
 public class X25519Utils {
 
+    private static volatile X25519Engine engine =
+            "pure".equals(System.getProperty("groupchat.x25519")) ? new PureX25519Engine() : new JcaX25519Engine();
+
+    /**
+     * chọn cài đặt X25519, áp dụng cho các thao tác sau đó; khóa đã tạo vẫn dùng được với cài đặt mới
+     * @param x25519Engine
+     */
+    public static void setEngine(X25519Engine x25519Engine) {
+        engine = Objects.requireNonNull(x25519Engine);
+    }
+
+    public static X25519Engine getEngine() {
+        return engine;
+    }
+
     /**
      * tính shared secret dựa trên khóa bí mật của mình và khóa công khai của người khác dựa trên thuật toán X25519
      * @param myKeyPair
@@ -23,19 +36,32 @@ public class X25519Utils {
      * @return
      */
     public static byte[] exchange(XECKeyPair myKeyPair, XECPublicKey theirPublicKey) {
-        KeyAgreement keyAgreement;
-        try {
-            // tạo một phiên keyAgreement sử dụng thuật toán XDH
-            keyAgreement = KeyAgreement.getInstance("XDH");
-            // Khởi tạo với khóa riêng
-            keyAgreement.init(myKeyPair.getPrivate());
-            // Xử lý khóa công khai của bên kia
-            keyAgreement.doPhase(theirPublicKey, true);
-            // trả về là "shared secret"
-            return keyAgreement.generateSecret();
-        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-            throw new RuntimeException(e);
+        return engine.exchange(myKeyPair.getPrivate(), theirPublicKey);
+    }
+
+    /**
+     * shared secret từ khóa bí mật và khóa công khai dạng thô, từ chối khóa công khai có bậc nhỏ như
+     * {@link #exchange(XECKeyPair, XECPublicKey)}
+     * @param scalar private scalar, 32 bytes
+     * @param u their public u-coordinate, 32 bytes little-endian
+     * @return shared secret, 32 bytes
+     */
+    public static byte[] exchange(byte[] scalar, byte[] u) {
+        return requireNonZero(engine.scalarMult(scalar, u));
+    }
+
+    /**
+     * điểm có bậc nhỏ cho ra secret toàn 0
+     * @param secret output of the X25519 function
+     * @return secret, if it is not all zero
+     */
+    static byte[] requireNonZero(byte[] secret) {
+        int bits = 0;
+        for (byte b : secret) {
+            bits |= b;
         }
+        if (bits == 0) throw new RuntimeException("Public key has a small order");
+        return secret;
     }
 
     /**
@@ -43,15 +69,7 @@ public class X25519Utils {
      * @return
      */
     public static XECKeyPair newKeyPair() {
-        try {
-            KeyPairGenerator generator = KeyPairGenerator.getInstance("XDH");
-            // sử dụng x25519 để sinh khóa
-            generator.initialize(NamedParameterSpec.X25519);
-            KeyPair keyPair = generator.genKeyPair();
-            return new XECKeyPair((XECPublicKey) keyPair.getPublic(), (XECPrivateKey) keyPair.getPrivate());
-        } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException e) {
-            throw new RuntimeException(e);
-        }
+        return engine.newKeyPair();
     }
 
     /**
@@ -65,7 +83,9 @@ public class X25519Utils {
     }
 
     /**
-     * khôi phục laại cặp khóa dựa trên khóa riêng
+     * khôi phục laại cặp khóa dựa trên khóa riêng <br>
+     * The public key is the X25519 function of the scalar and the base point u = 9, the key agreement clamps
+     * the scalar, so no key pair generator is involved. It is computed on first use of the public key
      * @param rawPrivateKey
      * @return
      */
@@ -73,13 +93,42 @@ public class X25519Utils {
         if (rawPrivateKey.length != 32) {
             throw new RuntimeException("Private key length must be 32");
         }
-        try {
-            KeyPairGenerator generator = KeyPairGenerator.getInstance("XDH");
-            generator.initialize(NamedParameterSpec.X25519, new StaticSecureRandom(rawPrivateKey));
-            KeyPair keyPair = generator.genKeyPair();
-            return new XECKeyPair((XECPublicKey) keyPair.getPublic(), (XECPrivateKey) keyPair.getPrivate());
-        } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException e) {
-            throw new RuntimeException(e);
+        return XECKeyPair.ofPrivate(fromBytes(rawPrivateKey));
+    }
+
+    /**
+     * tính tọa độ u của khóa công khai: X25519(k, 9)
+     * @param privateKey
+     * @return u-coordinate, 32 bytes little-endian
+     */
+    static byte[] scalarMultBase(XECPrivateKey privateKey) {
+        return engine.scalarMultBase(privateKey);
+    }
+
+    /**
+     * chuyển tọa độ u dạng 32 bytes little-endian thành số
+     * @param u
+     * @return
+     */
+    public static BigInteger decodeU(byte[] u) {
+        byte[] bigEndian = new byte[u.length];
+        for (int i = 0; i < u.length; i++) {
+            bigEndian[i] = u[u.length - 1 - i];
+        }
+        return new BigInteger(1, bigEndian);
+    }
+
+    /**
+     * ghi tọa độ u dạng 32 bytes little-endian
+     * @param u u-coordinate
+     * @param dst destination array
+     * @param offset position of the first byte in dst
+     */
+    public static void encodeU(BigInteger u, byte[] dst, int offset) {
+        byte[] bigEndian = u.toByteArray();
+        int len = Math.min(bigEndian.length, 32);
+        for (int i = 0; i < 32; i++) {
+            dst[offset + i] = i < len ? bigEndian[bigEndian.length - 1 - i] : 0;
         }
     }
 
@@ -89,15 +138,8 @@ public class X25519Utils {
      * @return
      */
     public static XECPublicKey fromU(BigInteger u) {
-        try {
-            if (u == null) return null;
-            return (XECPublicKey) KeyFactory
-                    .getInstance("X25519")
-                    .generatePublic(
-                            new XECPublicKeySpec(NamedParameterSpec.X25519, u));
-        } catch (InvalidKeySpecException | NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
+        if (u == null) return null;
+        return engine.publicKey(u);
     }
 
     /**
@@ -110,15 +152,6 @@ public class X25519Utils {
     }
 
     public static XECPrivateKey fromBytes(byte[] bytes) {
-        try {
-            return (XECPrivateKey) KeyFactory
-                    .getInstance("X25519")
-                    .generatePrivate(
-                            new XECPrivateKeySpec(NamedParameterSpec.X25519, bytes));
-        } catch (InvalidKeySpecException | NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
+        return engine.privateKey(bytes);
     }
-
-
 }
@@ -1,13 +1,19 @@
 package art.example.groupchat.core.crypto;
 
+import java.math.BigInteger;
 import java.security.interfaces.XECPrivateKey;
 import java.security.interfaces.XECPublicKey;
 
 /**
- * lớp XECKeyPair để lưu trữ cặp khóa ECC gồm khóa công khai và khóa riêng tư trên đường cong x25519
+ * lớp XECKeyPair để lưu trữ cặp khóa ECC gồm khóa công khai và khóa riêng tư trên đường cong x25519 <br>
+ * A pair can be created from the u-coordinate, the {@link XECPublicKey} is then created on first use, which for
+ * most nodes of a tree is never: only the keys taking part in an exchange need the JCA object. <br>
+ * A pair created from its private key alone derives the u-coordinate on first use, a node secret that is
+ * overwritten before anyone asks for its public key never pays for the scalar multiplication
  */
 public class XECKeyPair {
-    private final XECPublicKey publicKey;
+    private volatile XECPublicKey publicKey;
+    private volatile BigInteger u;
     private final XECPrivateKey privateKey;
 
     public XECKeyPair(XECPublicKey publicKey, XECPrivateKey privateKey) {
@@ -15,8 +21,67 @@ public class XECKeyPair {
         this.privateKey = privateKey;
     }
 
+    private XECKeyPair(BigInteger u, XECPrivateKey privateKey) {
+        this.u = u;
+        this.privateKey = privateKey;
+    }
+
+    /**
+     * @param u u-coordinate of the public key, may be null
+     * @return public-only key pair, the key object is built when {@link #getPublic()} is called
+     */
+    public static XECKeyPair ofPublicU(BigInteger u) {
+        return new XECKeyPair(u, null);
+    }
+
+    /**
+     * @param u u-coordinate of the public key
+     * @param privateKey private key matching u
+     * @return key pair whose public key object is built when {@link #getPublic()} is called
+     */
+    public static XECKeyPair ofPublicU(BigInteger u, XECPrivateKey privateKey) {
+        return new XECKeyPair(u, privateKey);
+    }
+
+    /**
+     * @param privateKey private key
+     * @return key pair whose public key is derived from the private key when first asked for
+     */
+    public static XECKeyPair ofPrivate(XECPrivateKey privateKey) {
+        return new XECKeyPair((BigInteger) null, privateKey);
+    }
+
     public XECPublicKey getPublic() {
-        return publicKey;
+        XECPublicKey key = publicKey;
+        if (key == null) {
+            BigInteger publicU = getPublicU();
+            if (publicU == null) return null;
+            key = X25519Utils.fromU(publicU);
+            publicKey = key;
+        }
+        return key;
+    }
+
+    /**
+     * @return u-coordinate of the public key without creating the key object, null if there is no public key
+     */
+    public BigInteger getPublicU() {
+        XECPublicKey key = publicKey;
+        if (key != null) return key.getU();
+        BigInteger publicU = u;
+        if (publicU == null && privateKey != null) {
+            publicU = X25519Utils.decodeU(X25519Utils.scalarMultBase(privateKey));
+            u = publicU;
+        }
+        return publicU;
+    }
+
+    /**
+     * @return u-coordinate of the public key if it is already known, null otherwise; never derives it
+     */
+    public BigInteger getKnownPublicU() {
+        XECPublicKey key = publicKey;
+        return key != null ? key.getU() : u;
     }
 
     public XECPrivateKey getPrivate() {
@@ -0,0 +1,328 @@
+package art.example.groupchat.core.serialize;
+
+import art.example.groupchat.core.MembershipMessage;
+import art.example.groupchat.core.Message;
+import art.example.groupchat.core.SetupMessage;
+import art.example.groupchat.core.crypto.X25519Utils;
+import art.example.groupchat.core.crypto.XECKeyPair;
+import art.example.groupchat.core.tree.LeafNode;
+import art.example.groupchat.core.tree.Node;
+import art.example.groupchat.core.tree.ParentNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.interfaces.XECPublicKey;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Compact binary wire format for {@link Message}, {@link SetupMessage}, {@link MembershipMessage} and the
+ * public tree. <br>
+ * Every frame starts with the version byte {@value #VERSION} and a type byte, other versions are rejected.
+ * Integers are big-endian, strings are a 2-byte length followed by at most 65535 bytes of UTF-8, public keys
+ * are the raw 32-byte little-endian u-coordinate and ciphertext is a 4-byte length followed by the raw bytes.
+ * <br>
+ * A message is the sender, group id, epoch, 8-byte epoch id of the sender's tree, sender chain counter,
+ * update path and ciphertext. A membership change is the group id, epoch, epoch id, member, whether it is
+ * added with its leaf and identity key, update path, then its 32-byte MAC and confirmation. <br>
+ * A tree is written in pre-order, each node starts with a flag byte ({@code LEAF}, {@code HAS_KEY}),
+ * followed by its key if present and, for a leaf, the username.
+ */
+public class BinaryCodec {
+
+    public static final byte VERSION = 4;
+
+    static final byte TYPE_MESSAGE = 1;
+    static final byte TYPE_SETUP = 2;
+    static final byte TYPE_TREE = 3;
+    static final byte TYPE_MEMBERSHIP = 4;
+
+    static final int LEAF = 1;
+    static final int HAS_KEY = 2;
+
+    public static final int KEY_LENGTH = 32;
+    static final int MAC_LENGTH = 32;
+    /**
+     * deepest tree a decoder accepts, a left-balanced tree of 2^31 leaves has 31 levels of parents; a deeper
+     * frame is rejected before it can exhaust the stack
+     */
+    public static final int MAX_TREE_DEPTH = 32;
+
+    public static byte[] toBytes(Message message) {
+        ByteBuffer cipherText = message.getCipherTextBuffer();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                64 + message.getUpdatePath().size() * KEY_LENGTH + cipherText.remaining());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, TYPE_MESSAGE);
+            writeString(out, message.getFrom());
+            out.writeInt(message.getGroupId());
+            out.writeInt(message.getEpoch());
+            out.writeLong(message.getParent());
+            out.writeInt(message.getCounter());
+            out.writeByte(message.getUpdatePath().size());
+            for (BigInteger u : message.getUpdatePath()) {
+                writeKey(out, u);
+            }
+            out.writeInt(cipherText.remaining());
+            if (cipherText.hasArray()) {
+                out.write(cipherText.array(), cipherText.arrayOffset() + cipherText.position(), cipherText.remaining());
+            } else {
+                out.write(message.getCipherText());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return message, its ciphertext is a view of {@code bytes}
+     */
+    public static Message toMessage(byte[] bytes) {
+        return toMessage(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Decode a message from the current position of a buffer, heap or direct, e.g. straight from the network.
+     * The ciphertext is not copied: the message keeps a view of the buffer, which must not be overwritten
+     * until the message is received; {@link Message#detached()} gives a copy that outlives the buffer
+     * @param in buffer positioned at the frame header, advanced past the message
+     * @return message
+     */
+    public static Message toMessage(ByteBuffer in) {
+        try {
+            readHeader(in, TYPE_MESSAGE);
+            String from = readString(in);
+            int groupId = in.getInt();
+            int epoch = in.getInt();
+            long parent = in.getLong();
+            int counter = in.getInt();
+            int pathLength = in.get() & 0xff;
+            Queue<BigInteger> path = new LinkedList<>();
+            for (int i = 0; i < pathLength; i++) {
+                path.add(readKey(in));
+            }
+            int cipherTextLength = in.getInt();
+            if (cipherTextLength < 0 || cipherTextLength > in.remaining()) throw new BufferUnderflowException();
+            ByteBuffer cipherText = in.slice();
+            cipherText.limit(cipherTextLength);
+            in.position(in.position() + cipherTextLength);
+            return new Message(from, groupId, epoch, parent, counter, path, cipherText);
+        } catch (BufferUnderflowException e) {
+            throw new RuntimeException("Truncated message", e);
+        }
+    }
+
+    public static byte[] toBytes(SetupMessage message) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, TYPE_SETUP);
+            out.writeInt(message.getGroupId());
+            out.writeInt(message.getEpoch());
+            writeKey(out, message.getAdminIdKey());
+            writeKey(out, message.getSetupKey());
+            out.writeInt(message.getMembers().size());
+            for (Map.Entry<String, XECPublicKey> entry : message.getMembers().entrySet()) {
+                writeString(out, entry.getKey());
+                writeKey(out, entry.getValue().getU());
+            }
+            writeNode(out, message.getTree());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static SetupMessage toSetupMessage(byte[] bytes) {
+        return toSetupMessage(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Decode a setup message in one pass from the current position of the buffer
+     * @param in buffer positioned at the frame header
+     * @return setup message, public keys of the tree are created on first use
+     */
+    public static SetupMessage toSetupMessage(ByteBuffer in) {
+        try {
+            readHeader(in, TYPE_SETUP);
+            int groupId = in.getInt();
+            int epoch = in.getInt();
+            BigInteger adminIdKey = readKey(in);
+            BigInteger setupKey = readKey(in);
+            int numMembers = in.getInt();
+            Map<String, XECPublicKey> members = new HashMap<>();
+            for (int i = 0; i < numMembers; i++) {
+                String username = readString(in);
+                members.put(username, X25519Utils.fromU(readKey(in)));
+            }
+            Node tree = readNode(in, 0);
+            return new SetupMessage(groupId, tree, members, adminIdKey, setupKey, epoch);
+        } catch (BufferUnderflowException e) {
+            throw new RuntimeException("Truncated setup message", e);
+        }
+    }
+
+    public static byte[] toBytes(MembershipMessage message) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                56 + (message.getUpdatePath().size() + 3) * KEY_LENGTH);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, TYPE_MEMBERSHIP);
+            out.writeInt(message.getGroupId());
+            out.writeInt(message.getEpoch());
+            out.writeLong(message.getParent());
+            writeString(out, message.getMember());
+            out.writeBoolean(message.isAdded());
+            if (message.isAdded()) {
+                out.writeInt(message.getLeaf());
+                writeKey(out, message.getIdKey());
+            }
+            out.writeByte(message.getUpdatePath().size());
+            for (BigInteger u : message.getUpdatePath()) {
+                writeKey(out, u);
+            }
+            out.write(message.getMac());
+            out.write(message.getConfirmation());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static MembershipMessage toMembershipMessage(byte[] bytes) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            readHeader(in, TYPE_MEMBERSHIP);
+            int groupId = in.getInt();
+            int epoch = in.getInt();
+            long parent = in.getLong();
+            String member = readString(in);
+            boolean added = in.get() != 0;
+            int leaf = -1;
+            BigInteger idKey = null;
+            if (added) {
+                leaf = in.getInt();
+                idKey = readKey(in);
+            }
+            int pathLength = in.get() & 0xff;
+            Queue<BigInteger> path = new LinkedList<>();
+            for (int i = 0; i < pathLength; i++) {
+                path.add(readKey(in));
+            }
+            byte[] mac = new byte[MAC_LENGTH];
+            in.get(mac);
+            byte[] confirmation = new byte[MAC_LENGTH];
+            in.get(confirmation);
+            return new MembershipMessage(groupId, epoch, parent, member, added, leaf, idKey, path, mac, confirmation);
+        } catch (BufferUnderflowException e) {
+            throw new RuntimeException("Truncated membership message", e);
+        }
+    }
+
+    public static byte[] toBytes(Node root) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, TYPE_TREE);
+            writeNode(out, root);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static Node toTree(byte[] bytes) {
+        return toTree(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Decode a tree frame in one pass from the current position of the buffer
+     * @param in buffer positioned at the frame header, advanced past the tree
+     * @return root node, public keys are created on first use
+     */
+    public static Node toTree(ByteBuffer in) {
+        try {
+            readHeader(in, TYPE_TREE);
+            return readNode(in, 0);
+        } catch (BufferUnderflowException e) {
+            throw new RuntimeException("Truncated tree", e);
+        }
+    }
+
+    private static void writeNode(DataOutputStream out, Node node) throws IOException {
+        BigInteger u = node.getKeyPair() == null ? null : node.getKeyPair().getPublicU();
+        int flags = (node instanceof LeafNode ? LEAF : 0) | (u != null ? HAS_KEY : 0);
+        out.writeByte(flags);
+        if (u != null) {
+            writeKey(out, u);
+        }
+        if (node instanceof LeafNode) {
+            writeString(out, ((LeafNode) node).getUsername());
+        } else {
+            writeNode(out, ((ParentNode) node).getLeft());
+            writeNode(out, ((ParentNode) node).getRight());
+        }
+    }
+
+    private static Node readNode(ByteBuffer in, int depth) {
+        if (depth > MAX_TREE_DEPTH) throw new RuntimeException("Tree is deeper than " + MAX_TREE_DEPTH + " levels");
+        int flags = in.get();
+        XECKeyPair keyPair = XECKeyPair.ofPublicU((flags & HAS_KEY) != 0 ? readKey(in) : null);
+        if ((flags & LEAF) != 0) {
+            return new LeafNode(readString(in), keyPair);
+        }
+        Node left = readNode(in, depth + 1);
+        Node right = readNode(in, depth + 1);
+        ParentNode parentNode = new ParentNode(left, right, false);
+        parentNode.setKeyPair(keyPair);
+        return parentNode;
+    }
+
+    private static void writeHeader(DataOutputStream out, byte type) throws IOException {
+        out.writeByte(VERSION);
+        out.writeByte(type);
+    }
+
+    private static void readHeader(ByteBuffer in, byte type) {
+        byte version = in.get();
+        if (version != VERSION) throw new RuntimeException("Unsupported wire format version " + version);
+        byte actualType = in.get();
+        if (actualType != type) throw new RuntimeException("Unexpected frame type " + actualType);
+    }
+
+    /**
+     * Write a string as a 2-byte length and its UTF-8, also used by the local state in {@code StateCodec}
+     */
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        if (utf8.length > 0xffff) throw new RuntimeException("String of " + utf8.length + " bytes is too long");
+        out.writeShort(utf8.length);
+        out.write(utf8);
+    }
+
+    public static String readString(ByteBuffer in) {
+        byte[] utf8 = new byte[in.getShort() & 0xffff];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write a public key as its raw 32-byte little-endian u-coordinate
+     */
+    public static void writeKey(DataOutputStream out, BigInteger u) throws IOException {
+        byte[] key = new byte[KEY_LENGTH];
+        X25519Utils.encodeU(u, key, 0);
+        out.write(key);
+    }
+
+    public static BigInteger readKey(ByteBuffer in) {
+        byte[] key = new byte[KEY_LENGTH];
+        in.get(key);
+        return X25519Utils.decodeU(key);
+    }
+}
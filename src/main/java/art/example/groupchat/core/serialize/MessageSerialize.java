@@ -0,0 +1,40 @@
+package art.example.groupchat.core.serialize;
+
+import art.example.groupchat.core.Message;
+import com.google.gson.*;
+
+import javax.xml.bind.DatatypeConverter;
+import java.lang.reflect.Type;
+
+/**
+ * JSON form of {@link Message}: the update path as a nested JSON string and the ciphertext in hex
+ */
+public class MessageSerialize implements JsonSerializer<Message>, JsonDeserializer<Message> {
+
+    @Override
+    public JsonElement serialize(Message message, Type typeOfSrc, JsonSerializationContext context) {
+        JsonObject json = new JsonObject();
+        json.addProperty("from", message.getFrom());
+        json.addProperty("groupId", message.getGroupId());
+        json.addProperty("epoch", message.getEpoch());
+        json.addProperty("parent", message.getParent());
+        json.addProperty("counter", message.getCounter());
+        json.addProperty("updatePath", SerializeUtils.toJson(message.getUpdatePath()));
+        json.addProperty("cipherText", DatatypeConverter.printHexBinary(message.getCipherText()));
+        return json;
+    }
+
+    @Override
+    public Message deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
+        JsonObject object = json.getAsJsonObject();
+        return new Message(
+                object.get("from").getAsString(),
+                object.get("groupId").getAsInt(),
+                object.has("epoch") ? object.get("epoch").getAsInt() : 0,
+                object.has("parent") ? object.get("parent").getAsLong() : 0,
+                object.has("counter") ? object.get("counter").getAsInt() : 0,
+                SerializeUtils.toQueue(object.get("updatePath").getAsString()),
+                DatatypeConverter.parseHexBinary(object.get("cipherText").getAsString())
+        );
+    }
+}
@@ -2,12 +2,18 @@ package art.example.groupchat.core.serialize;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import art.example.groupchat.core.MembershipMessage;
 import art.example.groupchat.core.Message;
 import art.example.groupchat.core.SetupMessage;
 import art.example.groupchat.core.crypto.X25519Utils;
 import art.example.groupchat.core.tree.Node;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.math.BigInteger;
 import java.security.interfaces.XECPublicKey;
@@ -16,11 +22,15 @@ import java.util.LinkedList;
 import java.util.Map;
 import java.util.Queue;
 
+/**
+ * JSON (Gson) encoding, kept as a readable debug format, see {@link BinaryCodec} for the compact wire format
+ */
 public class SerializeUtils {
 
-
     public static final Gson gson = new GsonBuilder()
             .registerTypeAdapter(Node.class, new TreeSerialize())
+            .registerTypeAdapter(Message.class, new MessageSerialize())
+            .registerTypeAdapter(SetupMessage.class, new SetupMessageSerialize())
             .setPrettyPrinting()
             .create();
 
@@ -29,7 +39,20 @@ public class SerializeUtils {
     }
 
     public static Node toTree(String json) {
-        return gson.fromJson(json, Node.class);
+        return toTree(new StringReader(json));
+    }
+
+    /**
+     * Decode a tree in one pass, see {@link TreeReader}
+     * @param reader json of the tree
+     * @return root node of the public tree
+     */
+    public static Node toTree(Reader reader) {
+        try {
+            return TreeReader.read(new JsonReader(reader));
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
     }
 
     public static String toJson(Queue<BigInteger> queue) {
@@ -78,4 +101,12 @@ public class SerializeUtils {
     public static Message toMessage(String json) {
         return gson.fromJson(json, Message.class);
     }
+
+    public static String toJson(MembershipMessage message) {
+        return gson.toJson(message);
+    }
+
+    public static MembershipMessage toMembershipMessage(String json) {
+        return gson.fromJson(json, MembershipMessage.class);
+    }
 }
@@ -0,0 +1,37 @@
+package art.example.groupchat.core.serialize;
+
+import art.example.groupchat.core.SetupMessage;
+import com.google.gson.*;
+
+import java.lang.reflect.Type;
+
+/**
+ * JSON form of {@link SetupMessage}: the tree and the member keys as nested JSON strings
+ */
+public class SetupMessageSerialize implements JsonSerializer<SetupMessage>, JsonDeserializer<SetupMessage> {
+
+    @Override
+    public JsonElement serialize(SetupMessage message, Type typeOfSrc, JsonSerializationContext context) {
+        JsonObject json = new JsonObject();
+        json.addProperty("groupId", message.getGroupId());
+        json.addProperty("jsonTree", SerializeUtils.toJson(message.getTree()));
+        json.addProperty("jsonMembers", SerializeUtils.toJson(message.getMembers()));
+        json.addProperty("adminIdKey", message.getAdminIdKey());
+        json.addProperty("setupKey", message.getSetupKey());
+        json.addProperty("epoch", message.getEpoch());
+        return json;
+    }
+
+    @Override
+    public SetupMessage deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
+        JsonObject object = json.getAsJsonObject();
+        return new SetupMessage(
+                object.get("groupId").getAsInt(),
+                SerializeUtils.toTree(object.get("jsonTree").getAsString()),
+                SerializeUtils.toMap(object.get("jsonMembers").getAsString()),
+                object.get("adminIdKey").getAsBigInteger(),
+                object.get("setupKey").getAsBigInteger(),
+                object.has("epoch") ? object.get("epoch").getAsInt() : 0
+        );
+    }
+}
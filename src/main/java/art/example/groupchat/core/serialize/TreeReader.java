@@ -0,0 +1,65 @@
+package art.example.groupchat.core.serialize;
+
+import art.example.groupchat.core.crypto.XECKeyPair;
+import art.example.groupchat.core.tree.LeafNode;
+import art.example.groupchat.core.tree.Node;
+import art.example.groupchat.core.tree.ParentNode;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.math.BigInteger;
+
+/**
+ * One pass decoder of the JSON tree written by {@link TreeSerialize}, reading tokens straight from a
+ * {@link JsonReader} without building a {@link com.google.gson.JsonElement} tree first. <br>
+ * Public keys are kept as u-coordinates, the key object of a node is only created if the node takes
+ * part in an exchange, which for a receiver means its copath.
+ */
+public class TreeReader {
+
+    public static Node read(JsonReader in) throws IOException {
+        return read(in, 0);
+    }
+
+    private static Node read(JsonReader in, int depth) throws IOException {
+        if (depth > BinaryCodec.MAX_TREE_DEPTH)
+            throw new JsonParseException("Tree is deeper than " + BinaryCodec.MAX_TREE_DEPTH + " levels at "
+                    + in.getPath());
+        BigInteger u = null;
+        String username = null;
+        Node left = null;
+        Node right = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "publicKey":
+                    u = new BigInteger(in.nextString());
+                    break;
+                case "username":
+                    username = in.nextString();
+                    break;
+                case "left":
+                    left = read(in, depth + 1);
+                    break;
+                case "right":
+                    right = read(in, depth + 1);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        XECKeyPair keyPair = XECKeyPair.ofPublicU(u);
+        if (username != null) {
+            return new LeafNode(username, keyPair);
+        }
+        if (left == null || right == null) {
+            throw new JsonParseException("Parent node without children at " + in.getPath());
+        }
+        ParentNode parentNode = new ParentNode(left, right, false);
+        parentNode.setKeyPair(keyPair);
+        return parentNode;
+    }
+}
@@ -0,0 +1,631 @@
+package art.example.groupchat.core.store;
+
+import art.example.groupchat.core.GroupState;
+import art.example.groupchat.core.crypto.CryptoUtils;
+import art.example.groupchat.core.crypto.XECKeyPair;
+import art.example.groupchat.core.serialize.BinaryCodec;
+import art.example.groupchat.core.tree.LeafNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Local state of a {@link art.example.groupchat.core.MessageClient} on disk: identity key, ephemeral keys and
+ * the tree of every group, with their secrets. <br>
+ * Every change is appended to a write-ahead log: a tree update only logs the keys of the sender's direct path,
+ * a setup or a membership change logs the whole group. A checkpoint writes all groups to a memory-mapped
+ * snapshot and drops the log before it, so recovery maps one file and replays a short log, without any key
+ * exchange. <br>
+ * Files of the directory: {@code wal-<n>} and {@code snapshot-<n>}; snapshot {@code n} is followed by the logs
+ * from {@code n} on. A log record is {@code length, crc32, sealed(type, lsn, payload)}; a torn record at the end
+ * of a log, from a crash in the middle of a write, ends the replay of that log. <br>
+ * The files hold private keys: every log record, the client part of a snapshot and each of its groups are
+ * sealed with AES-GCM under the key given to {@link #open(Path, byte[])}, which the caller keeps, e.g. in a
+ * key store or derived from a passphrase. Only the framing, the group ids and the lsn are in clear. The
+ * directory and the files are also created readable by the owner only. <br>
+ * Records are written to the file on every change, so they survive a crash of the process; {@link #sync()}
+ * also forces them to the disk. The journal of past epochs, the sender chains and the buffered messages are
+ * not stored.
+ */
+public class GroupStore implements Closeable {
+
+    static final int MAGIC = 0x41525453;
+    static final byte VERSION = 1;
+
+    static final byte IDENTITY = 1;
+    static final byte EPHEMERAL_KEY = 2;
+    static final byte GROUP = 3;
+    static final byte PATH = 4;
+    static final byte DROP = 5;
+
+    /**
+     * length of the store key, an AES-256 key
+     */
+    public static final int KEY_LENGTH = 32;
+
+    // length, crc32
+    private static final int RECORD_FRAME = 4 + 4;
+    // type, lsn
+    private static final int RECORD_HEADER = 1 + 8;
+    /**
+     * size of the mapping windows used to read and write snapshots
+     */
+    private static final long READ_WINDOW = 1L << 30;
+    private static final int WRITE_WINDOW = 4 << 20;
+
+    private final Path dir;
+    // khóa niêm phong các bản ghi, do bên gọi giữ
+    private final byte[] key;
+    private FileChannel wal;
+    private long generation;
+    private long nextLsn = 1;
+    private long logBytes;
+    // lsn của bản ghi cuối cùng của từng nhóm
+    private final Map<Integer, Long> groupLsn;
+    private final ReentrantLock checkpointLock;
+
+    // trạng thái khôi phục được khi mở
+    private String username;
+    private XECKeyPair idKeyPair;
+    private final Map<Integer, XECKeyPair> ephemeralKeyPairs;
+    private final Map<Integer, GroupState> groups;
+    // nhóm của snapshot chưa có bản ghi nào sau đó, giữ nguyên dạng đã niêm phong trong vùng ánh xạ
+    private final Map<Integer, ByteBuffer> encodedGroups;
+
+    private GroupStore(Path dir, byte[] key) {
+        this.dir = dir;
+        this.key = key;
+        groupLsn = new ConcurrentHashMap<>();
+        checkpointLock = new ReentrantLock();
+        ephemeralKeyPairs = new HashMap<>();
+        groups = new HashMap<>();
+        encodedGroups = new HashMap<>();
+    }
+
+    /**
+     * Open a store, creating the directory if needed, and recover its state
+     * @param dir directory of the store, used by one client at a time
+     * @param key store key of {@link #KEY_LENGTH} bytes, the same on every open; it is copied
+     * @return store, its recovered state is handed to the client built on it
+     */
+    public static GroupStore open(Path dir, byte[] key) throws IOException {
+        if (key.length != KEY_LENGTH) throw new RuntimeException("Store key length must be " + KEY_LENGTH);
+        GroupStore store = new GroupStore(dir, key.clone());
+        if (!Files.isDirectory(dir)) {
+            if (dir.getParent() != null) Files.createDirectories(dir.getParent());
+            Files.createDirectory(dir, ownerOnly(dir, "rwx------"));
+            restrict(dir);
+        }
+        store.recover();
+        return store;
+    }
+
+    /**
+     * @return alias of the client whose state was recovered, null for a new store
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    public XECKeyPair getIdKeyPair() {
+        return idKeyPair;
+    }
+
+    public Map<Integer, XECKeyPair> getEphemeralKeyPairs() {
+        return ephemeralKeyPairs;
+    }
+
+    /**
+     * @return groups recovered with changes logged after the snapshot, at the epoch of their last change
+     */
+    public Map<Integer, GroupState> getGroups() {
+        return groups;
+    }
+
+    /**
+     * @return other groups recovered, sealed: read-only views of the mapped snapshot that cost no heap until
+     * opened with {@link #unseal(ByteBuffer)}
+     */
+    public Map<Integer, ByteBuffer> getEncodedGroups() {
+        return encodedGroups;
+    }
+
+    /**
+     * @param sealed group of {@link #getEncodedGroups()}, from its position to its limit
+     * @return {@link StateCodec} form of the group, a copy on the heap
+     */
+    public ByteBuffer unseal(ByteBuffer sealed) {
+        try {
+            return ByteBuffer.wrap(CryptoUtils.decrypt(sealed.duplicate(), key));
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Store of " + dir + " does not open with this key", e);
+        }
+    }
+
+    /**
+     * @return bytes logged since the last checkpoint, to decide when the next one is due
+     */
+    public synchronized long getLogBytes() {
+        return logBytes;
+    }
+
+    public void logIdentity(String username, XECKeyPair idKeyPair) {
+        append(IDENTITY, -1, out -> {
+            BinaryCodec.writeString(out, username);
+            StateCodec.writeKeyPair(out, idKeyPair);
+        });
+    }
+
+    /**
+     * @param keyPair ephemeral key pair of the group, null once it is dropped
+     */
+    public void logEphemeralKey(int groupId, XECKeyPair keyPair) {
+        append(EPHEMERAL_KEY, -1, out -> {
+            out.writeInt(groupId);
+            StateCodec.writeKeyPair(out, keyPair);
+        });
+    }
+
+    /**
+     * Log the whole group, after a change of the tree that is not a single update path. The group lock must
+     * be held
+     */
+    public void logGroup(GroupState groupState) {
+        append(GROUP, groupState.getGroupId(), out -> StateCodec.writeGroup(out, groupState));
+    }
+
+    /**
+     * Log the keys of a direct path after an update and the new epoch. The group lock must be held
+     * @param leaf leaf of the sender
+     */
+    public void logPath(GroupState groupState, LeafNode leaf) {
+        append(PATH, groupState.getGroupId(), out -> {
+            out.writeInt(groupState.getGroupId());
+            out.writeInt(groupState.getEpoch());
+            BinaryCodec.writeString(out, leaf.getUsername());
+            StateCodec.writePath(out, leaf);
+        });
+    }
+
+    /**
+     * Log that the group and its ephemeral key were dropped
+     */
+    public void logDrop(int groupId) {
+        append(DROP, groupId, out -> out.writeInt(groupId));
+    }
+
+    /**
+     * Force the log to the disk
+     */
+    public synchronized void sync() throws IOException {
+        wal.force(false);
+    }
+
+    /**
+     * Start a checkpoint: new changes go to a new log, the snapshot then takes each group under its lock. <br>
+     * One checkpoint runs at a time, others wait
+     * @return checkpoint to add the groups to and commit, closing it without commit abandons it
+     */
+    public Checkpoint beginCheckpoint(String username, XECKeyPair idKeyPair,
+                                      Map<Integer, XECKeyPair> ephemeralKeyPairs) throws IOException {
+        checkpointLock.lock();
+        try {
+            long snapshotGeneration;
+            synchronized (this) {
+                wal.force(false);
+                wal.close();
+                generation++;
+                wal = openLog(generation);
+                logBytes = 0;
+                snapshotGeneration = generation;
+            }
+            return new Checkpoint(snapshotGeneration, username, idKeyPair, new HashMap<>(ephemeralKeyPairs));
+        } catch (IOException | RuntimeException e) {
+            checkpointLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Close the log and zero the store key, the groups still sealed can no longer be opened
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (wal.isOpen()) {
+            wal.force(false);
+            wal.close();
+        }
+        Arrays.fill(key, (byte) 0);
+    }
+
+    /**
+     * Snapshot in progress, written through a memory-mapped window
+     */
+    public final class Checkpoint implements Closeable {
+        private final long snapshotGeneration;
+        private final Path file;
+        private final FileChannel channel;
+        private final ByteArrayOutputStream buffer;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long position;
+        private boolean done;
+
+        private Checkpoint(long snapshotGeneration, String username, XECKeyPair idKeyPair,
+                           Map<Integer, XECKeyPair> ephemeralKeyPairs) throws IOException {
+            this.snapshotGeneration = snapshotGeneration;
+            file = dir.resolve("snapshot.tmp");
+            channel = openPrivate(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            BinaryCodec.writeString(out, username);
+            StateCodec.writeKeyPair(out, idKeyPair);
+            out.writeInt(ephemeralKeyPairs.size());
+            for (Map.Entry<Integer, XECKeyPair> entry : ephemeralKeyPairs.entrySet()) {
+                out.writeInt(entry.getKey());
+                StateCodec.writeKeyPair(out, entry.getValue());
+            }
+            byte[] sealed = seal(buffer.toByteArray());
+            ByteBuffer header = ByteBuffer.allocate(4 + 1 + 8 + 4);
+            header.putInt(MAGIC).put(VERSION).putLong(snapshotGeneration).putInt(sealed.length);
+            put(header.flip());
+            put(ByteBuffer.wrap(sealed));
+        }
+
+        /**
+         * Add a group, the group lock must be held
+         */
+        public void add(GroupState groupState) throws IOException {
+            buffer.reset();
+            StateCodec.writeGroup(new DataOutputStream(buffer), groupState);
+            addSealed(groupState.getGroupId(), seal(buffer.toByteArray()));
+        }
+
+        /**
+         * Add a group kept in {@link StateCodec} form, e.g. evicted from the heap; the group lock must be held
+         */
+        public void add(int groupId, ByteBuffer encoded) throws IOException {
+            byte[] plain = new byte[encoded.remaining()];
+            encoded.duplicate().get(plain);
+            addSealed(groupId, seal(plain));
+        }
+
+        private void addSealed(int groupId, byte[] sealed) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(4 + 8 + 4);
+            header.putInt(sealed.length).putLong(groupLsn.getOrDefault(groupId, 0L)).putInt(groupId);
+            put(header.flip());
+            put(ByteBuffer.wrap(sealed));
+        }
+
+        /**
+         * Make the snapshot the starting point of recovery and drop the files before it
+         */
+        public void commit() throws IOException {
+            put(ByteBuffer.allocate(4).putInt(0, -1));
+            window.force();
+            channel.truncate(position);
+            channel.force(true);
+            channel.close();
+            Files.move(file, dir.resolve("snapshot-" + snapshotGeneration), StandardCopyOption.ATOMIC_MOVE);
+            done = true;
+            for (long old : generations("snapshot-")) {
+                if (old < snapshotGeneration) Files.deleteIfExists(dir.resolve("snapshot-" + old));
+            }
+            for (long old : generations("wal-")) {
+                if (old < snapshotGeneration) Files.deleteIfExists(dir.resolve("wal-" + old));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!done) {
+                    channel.close();
+                    Files.deleteIfExists(file);
+                }
+            } finally {
+                checkpointLock.unlock();
+            }
+        }
+
+        private void put(ByteBuffer bytes) throws IOException {
+            int length = bytes.remaining();
+            if (window == null || window.remaining() < length) {
+                if (window != null) window.force();
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, Math.max(WRITE_WINDOW, length));
+            }
+            window.put(bytes);
+            position += length;
+        }
+    }
+
+    private interface Payload {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * @return plaintext sealed with the store key, the plaintext is zeroed
+     */
+    private byte[] seal(byte[] plain) {
+        try {
+            return CryptoUtils.encrypt(plain, key);
+        } finally {
+            Arrays.fill(plain, (byte) 0);
+        }
+    }
+
+    /**
+     * @param groupId group of the record, -1 for a record of the client
+     */
+    private void append(byte type, int groupId, Payload payload) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            // đệm chỗ cho loại và lsn, điền sau khi có lsn
+            bytes.write(new byte[RECORD_HEADER]);
+            payload.write(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] body = bytes.toByteArray();
+        synchronized (this) {
+            long lsn = nextLsn++;
+            ByteBuffer.wrap(body).put(type).putLong(lsn);
+            byte[] sealed = seal(body);
+            ByteBuffer record = ByteBuffer.allocate(RECORD_FRAME + sealed.length);
+            CRC32 crc = new CRC32();
+            crc.update(sealed);
+            record.putInt(sealed.length).putInt((int) crc.getValue()).put(sealed).flip();
+            try {
+                while (record.hasRemaining()) {
+                    wal.write(record);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            logBytes += record.capacity();
+            if (groupId >= 0) groupLsn.put(groupId, lsn);
+        }
+    }
+
+    private void recover() throws IOException {
+        Files.deleteIfExists(dir.resolve("snapshot.tmp"));
+        List<Long> snapshots = generations("snapshot-");
+        List<Long> logs = generations("wal-");
+        long start = 0;
+        if (!snapshots.isEmpty()) {
+            start = snapshots.get(snapshots.size() - 1);
+            readSnapshot(dir.resolve("snapshot-" + start));
+        }
+        generation = start;
+        for (long log : logs) {
+            if (log < start) continue;
+            replay(dir.resolve("wal-" + log));
+            generation = Math.max(generation, log);
+        }
+        // không ghi tiếp vào nhật ký cũ, đuôi của nó có thể bị rách
+        generation++;
+        wal = openLog(generation);
+    }
+
+    private void readSnapshot(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedReader in = new MappedReader(channel);
+            ByteBuffer header = in.next(4 + 1 + 8 + 4);
+            if (header.getInt() != MAGIC) throw new RuntimeException("Not a snapshot: " + file);
+            byte version = header.get();
+            if (version != VERSION) throw new RuntimeException("Unsupported snapshot version " + version);
+            header.getLong();
+            ByteBuffer client = unseal(in.next(header.getInt()));
+            username = BinaryCodec.readString(client);
+            idKeyPair = StateCodec.readKeyPair(client);
+            int numKeys = client.getInt();
+            for (int i = 0; i < numKeys; i++) {
+                ephemeralKeyPairs.put(client.getInt(), StateCodec.readKeyPair(client));
+            }
+            while (true) {
+                int length = in.next(4).getInt();
+                if (length < 0) break;
+                ByteBuffer groupHeader = in.next(8 + 4);
+                long lsn = groupHeader.getLong();
+                int groupId = groupHeader.getInt();
+                // chỉ mở niêm phong khi nhóm được dùng tới
+                encodedGroups.put(groupId, in.next(length).asReadOnlyBuffer());
+                groupLsn.put(groupId, lsn);
+                nextLsn = Math.max(nextLsn, lsn + 1);
+            }
+        }
+    }
+
+    private void replay(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedReader in = new MappedReader(channel);
+            while (in.remaining() >= RECORD_FRAME) {
+                ByteBuffer frame = in.next(RECORD_FRAME);
+                int length = frame.getInt();
+                int checksum = frame.getInt();
+                if (length < CryptoUtils.encryptedLength(RECORD_HEADER) || length > in.remaining()) return;
+                ByteBuffer sealed = in.next(length);
+                CRC32 crc = new CRC32();
+                crc.update(sealed.duplicate());
+                if ((int) crc.getValue() != checksum) return;
+                // bản ghi nguyên vẹn mà không mở được: sai khóa, không phải ghi dở
+                ByteBuffer body = unseal(sealed);
+                try {
+                    apply(body);
+                } finally {
+                    Arrays.fill(body.array(), (byte) 0);
+                }
+            }
+        }
+    }
+
+    private void apply(ByteBuffer body) {
+        byte type = body.get();
+        long lsn = body.getLong();
+        nextLsn = Math.max(nextLsn, lsn + 1);
+        if (type == IDENTITY) {
+            username = BinaryCodec.readString(body);
+            idKeyPair = StateCodec.readKeyPair(body);
+            return;
+        }
+        if (type == EPHEMERAL_KEY) {
+            int groupId = body.getInt();
+            XECKeyPair keyPair = StateCodec.readKeyPair(body);
+            if (keyPair == null) ephemeralKeyPairs.remove(groupId);
+            else ephemeralKeyPairs.put(groupId, keyPair);
+            return;
+        }
+        // mọi bản ghi của nhóm bắt đầu bằng id nhóm; bỏ qua những gì snapshot đã có
+        int groupId = body.getInt(body.position());
+        if (lsn <= groupLsn.getOrDefault(groupId, 0L)) return;
+        groupLsn.put(groupId, lsn);
+        switch (type) {
+            case GROUP:
+                encodedGroups.remove(groupId);
+                groups.put(groupId, StateCodec.readGroup(body));
+                break;
+            case PATH: {
+                body.getInt();
+                int epoch = body.getInt();
+                String sender = BinaryCodec.readString(body);
+                ByteBuffer sealed = encodedGroups.remove(groupId);
+                if (sealed != null) groups.put(groupId, StateCodec.toGroupState(unseal(sealed)));
+                GroupState groupState = groups.get(groupId);
+                LeafNode leaf = groupState == null ? null : groupState.getLeaf(sender);
+                if (leaf == null || !StateCodec.readPath(body, leaf))
+                    throw new RuntimeException("Log does not match the tree of group " + groupId);
+                groupState.resetEpoch(epoch);
+                break;
+            }
+            case DROP:
+                groups.remove(groupId);
+                encodedGroups.remove(groupId);
+                ephemeralKeyPairs.remove(groupId);
+                break;
+            default:
+                throw new RuntimeException("Unknown log record type " + type);
+        }
+    }
+
+    private FileChannel openLog(long generation) throws IOException {
+        return openPrivate(dir.resolve("wal-" + generation),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Open a file, creating it readable and writable by the owner only
+     */
+    static FileChannel openPrivate(Path file, OpenOption... options) throws IOException {
+        boolean created = !Files.exists(file);
+        FileChannel channel = FileChannel.open(file, Set.of(options), ownerOnly(file, "rw-------"));
+        if (created) restrict(file);
+        return channel;
+    }
+
+    /**
+     * @return POSIX permissions to create a file with, none where the file system does not support them
+     */
+    private static FileAttribute<?>[] ownerOnly(Path file, String permissions) {
+        if (!file.getFileSystem().supportedFileAttributeViews().contains("posix")) return new FileAttribute<?>[0];
+        return new FileAttribute<?>[]{
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(permissions))};
+    }
+
+    /**
+     * Without POSIX permissions, take the access of other users away as far as the file system allows
+     */
+    private static void restrict(Path file) {
+        if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) return;
+        File f = file.toFile();
+        f.setReadable(false, false);
+        f.setWritable(false, false);
+        f.setReadable(true, true);
+        f.setWritable(true, true);
+        if (f.isDirectory()) {
+            f.setExecutable(false, false);
+            f.setExecutable(true, true);
+        }
+    }
+
+    /**
+     * @return generations of the files with a prefix, in order
+     */
+    private List<Long> generations(String prefix) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*")) {
+            for (Path file : files) {
+                try {
+                    generations.add(Long.parseLong(file.getFileName().toString().substring(prefix.length())));
+                } catch (NumberFormatException e) {
+                    // không phải tệp của store
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    /**
+     * Reads a file through memory-mapped windows of up to {@link #READ_WINDOW} bytes
+     */
+    private static final class MappedReader {
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long position;
+
+        MappedReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        long remaining() {
+            return size - position;
+        }
+
+        /**
+         * @return view of the next n bytes
+         */
+        ByteBuffer next(int n) throws IOException {
+            if (n > remaining()) throw new EOFException("Truncated file");
+            if (window == null || position + n > windowStart + window.capacity()) {
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(Math.max(READ_WINDOW, n), remaining()));
+            }
+            ByteBuffer view = window.duplicate();
+            view.position((int) (position - windowStart));
+            view.limit(view.position() + n);
+            position += n;
+            return view.slice();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package art.example.groupchat.core.store;
+
+import art.example.groupchat.core.crypto.CryptoUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Memory-mapped file holding the compact form ({@link StateCodec}) of groups evicted from the heap. <br>
+ * Groups are appended to mapped segments and read back from the page cache, the heap only keeps an index
+ * entry per group; the kernel writes cold pages out to the disk. Space of the groups taken back is reclaimed
+ * by rewriting the live ones to a new file once it is more than half of the file. <br>
+ * The compact form holds private keys of the tree: each group is sealed with AES-GCM under a random key that
+ * only lives in memory, and its slot is zeroed when it is removed or replaced. <br>
+ * The content is not durable, the file is truncated when opened: a {@link GroupStore} is what survives a
+ * restart.
+ */
+public class SpillFile implements Closeable {
+    /**
+     * size of the mapped segments
+     */
+    static final int SEGMENT = 64 << 20;
+
+    private final Path path;
+    // khóa mã hóa các nhóm trong tệp, chỉ có trong bộ nhớ của tiến trình
+    private final byte[] key;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long size;
+    // bản mã dạng nén của từng nhóm, là một lát của một segment
+    private final Map<Integer, ByteBuffer> groups;
+    private long liveBytes;
+    private long deadBytes;
+
+    private SpillFile(Path path) {
+        this.path = path;
+        key = CryptoUtils.randomBytes(32);
+        groups = new HashMap<>();
+    }
+
+    public static SpillFile open(Path path) throws IOException {
+        SpillFile spill = new SpillFile(path);
+        spill.channel = openChannel(path);
+        return spill;
+    }
+
+    /**
+     * Store the compact form of a group, replacing the one stored before
+     * @param encoded compact form from its position to its limit, encrypted into the file
+     */
+    public synchronized void put(int groupId, ByteBuffer encoded) {
+        discard(groups.remove(groupId));
+        ByteBuffer slot = allocate(CryptoUtils.encryptedLength(encoded.remaining()));
+        CryptoUtils.encrypt(encoded.duplicate(), slot.duplicate(), key);
+        groups.put(groupId, slot);
+        liveBytes += slot.remaining();
+        if (deadBytes > liveBytes && deadBytes > SEGMENT) compact();
+    }
+
+    /**
+     * @return compact form of the group, a copy on the heap, null if it is not stored
+     */
+    public synchronized ByteBuffer get(int groupId) {
+        ByteBuffer slot = groups.get(groupId);
+        return slot == null ? null : ByteBuffer.wrap(CryptoUtils.decrypt(slot.duplicate(), key));
+    }
+
+    /**
+     * @return compact form of the group, null if it was not stored
+     */
+    public synchronized ByteBuffer remove(int groupId) {
+        ByteBuffer slot = groups.remove(groupId);
+        if (slot == null) return null;
+        ByteBuffer encoded = ByteBuffer.wrap(CryptoUtils.decrypt(slot.duplicate(), key));
+        discard(slot);
+        return encoded;
+    }
+
+    public synchronized Set<Integer> groupIds() {
+        return new HashSet<>(groups.keySet());
+    }
+
+    public synchronized int size() {
+        return groups.size();
+    }
+
+    /**
+     * @return bytes of the file, live and reclaimable
+     */
+    public synchronized long fileSize() {
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        groups.clear();
+        Arrays.fill(key, (byte) 0);
+        segment = null;
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Zero the slot of a group removed or replaced and count it as reclaimable
+     */
+    private void discard(ByteBuffer slot) {
+        if (slot == null) return;
+        int length = slot.remaining();
+        slot.duplicate().put(new byte[length]);
+        liveBytes -= length;
+        deadBytes += length;
+    }
+
+    /**
+     * @return slot of the next bytes of the mapped file, mapping a new segment if needed
+     */
+    private ByteBuffer allocate(int length) {
+        if (segment == null || segment.remaining() < length) {
+            int segmentSize = Math.max(SEGMENT, length);
+            try {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, size, segmentSize);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            size += segmentSize;
+        }
+        ByteBuffer slot = segment.slice();
+        slot.limit(length);
+        segment.position(segment.position() + length);
+        return slot;
+    }
+
+    /**
+     * Rewrite the live groups to a new file that replaces this one, still encrypted with the same key
+     */
+    private void compact() {
+        Map<Integer, ByteBuffer> live = new HashMap<>(groups);
+        Path next = path.resolveSibling(path.getFileName() + ".compact");
+        try {
+            channel.close();
+            channel = openChannel(next);
+            segment = null;
+            size = 0;
+            for (Map.Entry<Integer, ByteBuffer> entry : live.entrySet()) {
+                ByteBuffer slot = allocate(entry.getValue().remaining());
+                slot.duplicate().put(entry.getValue().duplicate());
+                groups.put(entry.getKey(), slot);
+            }
+            Files.move(next, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        deadBytes = 0;
+    }
+
+    private static FileChannel openChannel(Path path) throws IOException {
+        return GroupStore.openPrivate(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+}
@@ -0,0 +1,192 @@
+package art.example.groupchat.core.store;
+
+import art.example.groupchat.core.GroupState;
+import art.example.groupchat.core.crypto.X25519Utils;
+import art.example.groupchat.core.crypto.XECKeyPair;
+import art.example.groupchat.core.serialize.BinaryCodec;
+import art.example.groupchat.core.tree.LeafNode;
+import art.example.groupchat.core.tree.Node;
+import art.example.groupchat.core.tree.ParentNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.interfaces.XECPublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary form of the local state of a client, with its secrets: unlike {@link BinaryCodec} it is never
+ * sent, only written to the {@link GroupStore} and the {@link SpillFile}. Strings and public keys are
+ * written with the helpers of {@link BinaryCodec}. <br>
+ * A key pair is a flag byte ({@code PUBLIC}, {@code PRIVATE}) followed by the raw u-coordinate and the raw
+ * scalar if present; the u-coordinate is only written if it is already known, a pair stored with its scalar
+ * alone derives it on first use after recovery. A tree is written in pre-order like in the wire format.
+ */
+public final class StateCodec {
+
+    private static final int PUBLIC = 1;
+    private static final int PRIVATE = 2;
+    private static final int LEAF = 4;
+
+    private StateCodec() {
+    }
+
+    /**
+     * @return compact form of a group with its secrets, a fraction of the size of the live tree
+     */
+    public static byte[] toBytes(GroupState groupState) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeGroup(out, groupState);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param in compact form from its position, the buffer itself is left as is
+     * @return group at the stored epoch, without journal, sender chains or buffered messages
+     */
+    public static GroupState toGroupState(ByteBuffer in) {
+        return readGroup(in.duplicate());
+    }
+
+    static void writeGroup(DataOutputStream out, GroupState groupState) throws IOException {
+        out.writeInt(groupState.getGroupId());
+        out.writeInt(groupState.getEpoch());
+        out.writeInt(groupState.getMembers().size());
+        for (String member : groupState.getMembers()) {
+            BinaryCodec.writeString(out, member);
+        }
+        writeKeys(out, groupState.getIdKeys());
+        writeKeys(out, groupState.getEphemeralKeys());
+        out.writeBoolean(groupState.getRoot() != null);
+        if (groupState.getRoot() != null) writeNode(out, groupState.getRoot());
+    }
+
+    static GroupState readGroup(ByteBuffer in) {
+        GroupState groupState = new GroupState(in.getInt());
+        int epoch = in.getInt();
+        int numMembers = in.getInt();
+        for (int i = 0; i < numMembers; i++) {
+            groupState.getMembers().add(BinaryCodec.readString(in));
+        }
+        groupState.setIdKeys(readKeys(in));
+        groupState.getEphemeralKeys().putAll(readKeys(in));
+        if (in.get() != 0) groupState.setRoot(readNode(in, 0));
+        groupState.resetEpoch(epoch);
+        return groupState;
+    }
+
+    /**
+     * Keys of a direct path, from the leaf to the root
+     */
+    static void writePath(DataOutputStream out, LeafNode leaf) throws IOException {
+        List<Node> path = new ArrayList<>();
+        for (Node node = leaf; node != null; node = node.getParent()) {
+            path.add(node);
+        }
+        out.writeByte(path.size());
+        for (Node node : path) {
+            writeKeyPair(out, node.getKeyPair());
+        }
+    }
+
+    /**
+     * Set the keys of a direct path read with {@link #writePath}
+     * @return false if the path does not fit the tree of the leaf
+     */
+    static boolean readPath(ByteBuffer in, LeafNode leaf) {
+        int length = in.get() & 0xff;
+        XECKeyPair[] keyPairs = new XECKeyPair[length];
+        for (int i = 0; i < length; i++) {
+            keyPairs[i] = readKeyPair(in);
+        }
+        Node node = leaf;
+        for (int i = 0; i < length; i++, node = node.getParent()) {
+            if (node == null) return false;
+            node.setKeyPair(keyPairs[i]);
+        }
+        return node == null;
+    }
+
+    static void writeKeyPair(DataOutputStream out, XECKeyPair keyPair) throws IOException {
+        writeKeyPair(out, keyPair, 0);
+    }
+
+    /**
+     * @param flags flags of the node, written in the same byte as those of the key pair
+     */
+    private static void writeKeyPair(DataOutputStream out, XECKeyPair keyPair, int flags) throws IOException {
+        BigInteger u = keyPair == null ? null : keyPair.getKnownPublicU();
+        byte[] scalar = keyPair == null || keyPair.getPrivate() == null
+                ? null : keyPair.getPrivate().getScalar().orElseThrow();
+        out.writeByte(flags | (u != null ? PUBLIC : 0) | (scalar != null ? PRIVATE : 0));
+        if (u != null) BinaryCodec.writeKey(out, u);
+        if (scalar != null) out.write(scalar);
+    }
+
+    static XECKeyPair readKeyPair(ByteBuffer in) {
+        return readKeyPair(in, in.get());
+    }
+
+    private static XECKeyPair readKeyPair(ByteBuffer in, int flags) {
+        if ((flags & (PUBLIC | PRIVATE)) == 0) return null;
+        BigInteger u = (flags & PUBLIC) != 0 ? BinaryCodec.readKey(in) : null;
+        if ((flags & PRIVATE) == 0) return XECKeyPair.ofPublicU(u);
+        byte[] scalar = new byte[BinaryCodec.KEY_LENGTH];
+        in.get(scalar);
+        return u != null ? XECKeyPair.ofPublicU(u, X25519Utils.fromBytes(scalar))
+                : X25519Utils.fromPrivateKey(scalar);
+    }
+
+    private static void writeNode(DataOutputStream out, Node node) throws IOException {
+        if (node instanceof LeafNode) {
+            writeKeyPair(out, node.getKeyPair(), LEAF);
+            BinaryCodec.writeString(out, ((LeafNode) node).getUsername());
+        } else {
+            writeKeyPair(out, node.getKeyPair());
+            writeNode(out, ((ParentNode) node).getLeft());
+            writeNode(out, ((ParentNode) node).getRight());
+        }
+    }
+
+    private static Node readNode(ByteBuffer in, int depth) {
+        if (depth > BinaryCodec.MAX_TREE_DEPTH)
+            throw new RuntimeException("Tree is deeper than " + BinaryCodec.MAX_TREE_DEPTH + " levels");
+        int flags = in.get();
+        XECKeyPair keyPair = readKeyPair(in, flags);
+        if ((flags & LEAF) != 0) {
+            return new LeafNode(BinaryCodec.readString(in), keyPair);
+        }
+        Node left = readNode(in, depth + 1);
+        Node right = readNode(in, depth + 1);
+        ParentNode parentNode = new ParentNode(left, right, false);
+        parentNode.setKeyPair(keyPair);
+        return parentNode;
+    }
+
+    private static void writeKeys(DataOutputStream out, Map<String, XECPublicKey> keys) throws IOException {
+        out.writeInt(keys.size());
+        for (Map.Entry<String, XECPublicKey> entry : keys.entrySet()) {
+            BinaryCodec.writeString(out, entry.getKey());
+            BinaryCodec.writeKey(out, entry.getValue().getU());
+        }
+    }
+
+    private static Map<String, XECPublicKey> readKeys(ByteBuffer in) {
+        int size = in.getInt();
+        Map<String, XECPublicKey> keys = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            String username = BinaryCodec.readString(in);
+            keys.put(username, X25519Utils.fromU(BinaryCodec.readKey(in)));
+        }
+        return keys;
+    }
+}
@@ -2,16 +2,23 @@ package art.example.groupchat.core.tree;
 
 import art.example.groupchat.core.serialize.SerializeUtils;
 import art.example.groupchat.core.crypto.CryptoUtils;
+import art.example.groupchat.core.crypto.IdentitySecretCache;
 import art.example.groupchat.core.crypto.X25519Utils;
 import art.example.groupchat.core.crypto.XECKeyPair;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.interfaces.XECPublicKey;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 import static java.lang.Math.*;
 
@@ -20,6 +27,13 @@ import static java.lang.Math.*;
  */
 public class DHTree {
 
+    /**
+     * below this many leaves a fork join task does its work on the current thread
+     */
+    private static final int PARALLEL_THRESHOLD = 8;
+
+    private static final byte[] EPOCH_ID = "art epoch id".getBytes(StandardCharsets.UTF_8);
+
     /**
      * xây dựng nút lá của cây
      * @param username
@@ -36,13 +50,40 @@ public class DHTree {
             XECKeyPair setupKeys,
             XECPublicKey memberEphemeralKey
     ) {
-        // tính cặp khóa của node lá dựa trên khóa của admin, khóa thiết lập, và khóa công khai của người tham gia
-        XECKeyPair keyPair = CryptoUtils.setupExchangeKey(
-                adminIdKeys,
-                memberIdKeys,
-                setupKeys,
-                memberEphemeralKey);
-        return new LeafNode(username, keyPair);
+        return buildLeaf(username, adminIdKeys, null, memberIdKeys, setupKeys, memberEphemeralKey);
+    }
+
+    /**
+     * @param idSecrets cache of the secrets between the admin's identity key and the members', null to compute
+     *                  the secret
+     */
+    public static LeafNode buildLeaf(
+            String username,
+            XECKeyPair adminIdKeys,
+            IdentitySecretCache idSecrets,
+            XECPublicKey memberIdKeys,
+            XECKeyPair setupKeys,
+            XECPublicKey memberEphemeralKey
+    ) {
+        if (idSecrets == null) {
+            // tính cặp khóa của node lá dựa trên khóa của admin, khóa thiết lập, và khóa công khai của người tham gia
+            return new LeafNode(username, CryptoUtils.setupExchangeKey(
+                    adminIdKeys,
+                    memberIdKeys,
+                    setupKeys,
+                    memberEphemeralKey));
+        }
+        byte[] idSecret = idSecrets.get(memberIdKeys);
+        try {
+            return new LeafNode(username, CryptoUtils.setupExchangeKey(
+                    idSecret,
+                    adminIdKeys,
+                    memberIdKeys,
+                    setupKeys,
+                    memberEphemeralKey));
+        } finally {
+            Arrays.fill(idSecret, (byte) 0);
+        }
     }
 
     /**
@@ -63,6 +104,23 @@ public class DHTree {
             List<String> usernames,
             Map<String, XECPublicKey> theirIdKeys,
             Map<String, XECPublicKey> theirEphemeralKeys
+    ) {
+        return setupLeavesNode(admin, adminIdKey, null, setupKey, usernames, theirIdKeys, theirEphemeralKeys);
+    }
+
+    /**
+     * {@link #setupLeavesNode(String, XECKeyPair, XECKeyPair, List, Map, Map)} taking the secrets between
+     * identity keys from a cache
+     * @param idSecrets cache of the admin's identity secrets, null to compute them
+     */
+    public static List<LeafNode> setupLeavesNode(
+            String admin,
+            XECKeyPair adminIdKey,
+            IdentitySecretCache idSecrets,
+            XECKeyPair setupKey,
+            List<String> usernames,
+            Map<String, XECPublicKey> theirIdKeys,
+            Map<String, XECPublicKey> theirEphemeralKeys
     ) {
         List<LeafNode> leaves = new ArrayList<>();
         // add node leaf admin vào list leaves
@@ -74,6 +132,7 @@ public class DHTree {
             leaves.add(buildLeaf(
                     username,
                     adminIdKey,
+                    idSecrets,
                     memberIdKey,
                     setupKey,
                     memberEphemeralKey
@@ -82,6 +141,95 @@ public class DHTree {
         return leaves;
     }
 
+    /**
+     * Parallel version of {@link #setupLeavesNode(String, XECKeyPair, XECKeyPair, List, Map, Map)}, the key of
+     * each member is derived on a worker of the pool
+     *
+     * @param pool fork join pool doing the exchanges
+     * @return list of leaf node in DH tree, in the same order as the sequential version
+     */
+    public static List<LeafNode> setupLeavesNode(
+            String admin,
+            XECKeyPair adminIdKey,
+            XECKeyPair setupKey,
+            List<String> usernames,
+            Map<String, XECPublicKey> theirIdKeys,
+            Map<String, XECPublicKey> theirEphemeralKeys,
+            ForkJoinPool pool
+    ) {
+        return setupLeavesNode(admin, adminIdKey, null, setupKey, usernames, theirIdKeys, theirEphemeralKeys, pool);
+    }
+
+    /**
+     * Parallel version of {@link #setupLeavesNode(String, XECKeyPair, IdentitySecretCache, XECKeyPair, List,
+     * Map, Map)}
+     */
+    public static List<LeafNode> setupLeavesNode(
+            String admin,
+            XECKeyPair adminIdKey,
+            IdentitySecretCache idSecrets,
+            XECKeyPair setupKey,
+            List<String> usernames,
+            Map<String, XECPublicKey> theirIdKeys,
+            Map<String, XECPublicKey> theirEphemeralKeys,
+            ForkJoinPool pool
+    ) {
+        usernames.remove(admin);
+        LeafNode[] leaves = new LeafNode[usernames.size() + 1];
+        leaves[0] = new LeafNode(admin, setupKey);
+        pool.invoke(new LeavesTask(adminIdKey, idSecrets, setupKey, usernames, theirIdKeys, theirEphemeralKeys,
+                leaves, 0, usernames.size()));
+        return new ArrayList<>(List.of(leaves));
+    }
+
+    private static class LeavesTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final XECKeyPair adminIdKey;
+        private final IdentitySecretCache idSecrets;
+        private final XECKeyPair setupKey;
+        private final List<String> usernames;
+        private final Map<String, XECPublicKey> theirIdKeys;
+        private final Map<String, XECPublicKey> theirEphemeralKeys;
+        private final LeafNode[] leaves;
+        private final int from;
+        private final int to;
+
+        LeavesTask(XECKeyPair adminIdKey, IdentitySecretCache idSecrets, XECKeyPair setupKey,
+                   List<String> usernames, Map<String, XECPublicKey> theirIdKeys,
+                   Map<String, XECPublicKey> theirEphemeralKeys, LeafNode[] leaves, int from, int to) {
+            this.adminIdKey = adminIdKey;
+            this.idSecrets = idSecrets;
+            this.setupKey = setupKey;
+            this.usernames = usernames;
+            this.theirIdKeys = theirIdKeys;
+            this.theirEphemeralKeys = theirEphemeralKeys;
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                // leaves[0] là admin
+                for (int i = from; i < to; i++) {
+                    String username = usernames.get(i);
+                    leaves[i + 1] = buildLeaf(username, adminIdKey, idSecrets, theirIdKeys.get(username),
+                            setupKey, theirEphemeralKeys.get(username));
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(split(from, mid), split(mid, to));
+        }
+
+        private LeavesTask split(int from, int to) {
+            return new LeavesTask(adminIdKey, idSecrets, setupKey, usernames, theirIdKeys, theirEphemeralKeys,
+                    leaves, from, to);
+        }
+    }
+
     /**
      * Build a DH ratcheting tree from leaves
      *
@@ -104,6 +252,39 @@ public class DHTree {
         return new ParentNode(left, right, true);
     }
 
+    /**
+     * Parallel version of {@link #buildSecretTree(List)}, the two subtrees of a node are built on the pool
+     *
+     * @param secretLeaves list of {@link LeafNode}
+     * @param pool         fork join pool doing the exchanges
+     * @return root node of the tree, which contain shared secret
+     */
+    public static Node buildSecretTree(List<LeafNode> secretLeaves, ForkJoinPool pool) {
+        if (secretLeaves.isEmpty()) throw new RuntimeException("No leaves");
+        return pool.invoke(new SubtreeTask(secretLeaves));
+    }
+
+    private static class SubtreeTask extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<LeafNode> leaves;
+
+        SubtreeTask(List<LeafNode> leaves) {
+            this.leaves = leaves;
+        }
+
+        @Override
+        protected Node compute() {
+            int n = leaves.size();
+            if (n <= PARALLEL_THRESHOLD) return buildSecretTree(leaves);
+            int l = leftTreeSize(n);
+            SubtreeTask right = new SubtreeTask(leaves.subList(l, n));
+            right.fork();
+            Node left = new SubtreeTask(leaves.subList(0, l)).compute();
+            return new ParentNode(left, right.join(), true);
+        }
+    }
+
     /**
      * Build a public tree from a secret tree by remove private key of each node, this public tree will be sent to all member to compute shared secret
      *
@@ -114,6 +295,23 @@ public class DHTree {
         return SerializeUtils.toTree(json);
     }
 
+    /**
+     * Copy the public part of a tree, the copy shares no node with the original
+     *
+     * @param root root of a secret or public tree
+     * @return root node of the public copy
+     */
+    public static Node copyPublicTree(Node root) {
+        if (root instanceof LeafNode) {
+            return new LeafNode(((LeafNode) root).getUsername(),
+                    XECKeyPair.ofPublicU(root.getKeyPair().getPublicU()));
+        }
+        ParentNode parent = (ParentNode) root;
+        return ParentNode.fromSecretParent(parent,
+                copyPublicTree(parent.getLeft()),
+                copyPublicTree(parent.getRight()));
+    }
+
     /**
      * Rebuild secret tree from its one secret {@link Node}
      *
@@ -137,6 +335,16 @@ public class DHTree {
         return node.getKeyPair().getPrivate().getScalar().orElseThrow();
     }
 
+    /**
+     * Public id of the tree of an epoch, the same for every member holding that tree; it is derived from the
+     * group key, so it is neither stored nor sent with the tree
+     * @param root root of the tree, with its secret
+     * @return first 8 bytes of HMAC(groupKey, "art epoch id")
+     */
+    public static long getEpochId(Node root) {
+        return ByteBuffer.wrap(CryptoUtils.hmacSha256(EPOCH_ID, getGroupKey(root))).getLong();
+    }
+
     /**
      * tìm node lá
      * @param username
@@ -145,7 +353,7 @@ public class DHTree {
      */
     public static LeafNode findLeafNode(String username, Node root) {
         if (root instanceof LeafNode) {
-            if (((LeafNode) root).getUsername().equals(username)) return (LeafNode) root;
+            if (username.equals(((LeafNode) root).getUsername())) return (LeafNode) root;
             return null;
         }
         if (root instanceof ParentNode) {
@@ -156,6 +364,20 @@ public class DHTree {
         return null;
     }
 
+    /**
+     * đánh chỉ mục các node lá theo username
+     * @param root root of the tree
+     * @param index map to fill, username to its {@link LeafNode}
+     */
+    public static void indexLeaves(Node root, Map<String, LeafNode> index) {
+        if (root instanceof LeafNode) {
+            if (!((LeafNode) root).isBlank()) index.put(((LeafNode) root).getUsername(), (LeafNode) root);
+        } else if (root instanceof ParentNode) {
+            indexLeaves(((ParentNode) root).getLeft(), index);
+            indexLeaves(((ParentNode) root).getRight(), index);
+        }
+    }
+
     /**
      * tạo một đường dẫn công khai (public path) trong cây mật mã từ một nút con (child node) lên tới nút gốc (root node) của cây
      * create new key pair for sending new message and update public key to a path
@@ -164,36 +386,132 @@ public class DHTree {
      * @return root node
      */
     public static void createPublicPath(Node child, Queue<BigInteger> updatedPath) {
-        updatedPath.add(child.getKeyPair().getPublic().getU());
+        updatedPath.add(child.getKeyPair().getPublicU());
         if (child.getParent() == null) return;
         child.getParent().computeKeyPair();
         createPublicPath(child.getParent(), updatedPath);
     }
 
     /**
-     * cập nhật khóa công khai (public key) trong một cây mật mã
-     * chưa hiểu ý nghĩa ??
-     * @param child
-     * @param path
+     * cập nhật khóa công khai (public key) trong một cây mật mã <br>
+     * The sender's public keys are set from its leaf up to the node whose sibling holds a secret, our direct
+     * path; only the nodes above that merge point are recomputed, one exchange each. Their public keys are
+     * derived from their new secrets when first needed, never taken from the path, so a bad path cannot put
+     * a public key that does not match its secret on our own path
+     * @param child leaf of the sender
+     * @param path public keys of the sender's direct path, leaf first, consumed up to the merge point
      */
     public static void updatePath(Node child, Queue<BigInteger> path) {
-        // lấy phần tử đầu tiên orong queue
-        BigInteger u = path.peek();
-
-        // lấy khóa công khai từ u
-        XECPublicKey publicKey = X25519Utils.fromU(u);
-
-        child.setKeyPair(new XECKeyPair(publicKey, null));
+        // khóa công khai chỉ được tạo khi dùng để trao đổi khóa
+        child.setKeyPair(XECKeyPair.ofPublicU(path.poll()));
 
         if (child.getSibling().getKeyPair().getPrivate() != null) {
             rebuildSecretTree(child.getSibling());
             return;
         }
 
-        path.poll();
         updatePath(child.getParent(), path);
     }
 
+    /**
+     * Compute the public path a leaf would send with a new key, without changing the tree. <br>
+     * Used by the admin for a key it must not keep, the path is then applied with {@link #updatePath(Node, Queue)}
+     *
+     * @param leaf    leaf whose key changes
+     * @param leafKey new key pair of the leaf
+     * @param path    path to fill with public keys, leaf first
+     */
+    public static void computePublicPath(Node leaf, XECKeyPair leafKey, Queue<BigInteger> path) {
+        XECKeyPair keyPair = leafKey;
+        path.add(keyPair.getPublicU());
+        for (Node node = leaf; node.getParent() != null; node = node.getParent()) {
+            byte[] rawPrivateKey = X25519Utils.exchange(keyPair, node.getSibling().getKeyPair().getPublic());
+            keyPair = X25519Utils.fromPrivateKey(rawPrivateKey);
+            path.add(keyPair.getPublicU());
+        }
+    }
+
+    /**
+     * nối một lá vào cuối cây, giữ hình dạng cân bằng trái như {@link #buildSecretTree(List)} <br>
+     * Only the parents of the right spine above the new leaf are new, they have no key until the path of the
+     * new leaf is applied
+     *
+     * @param root      root of the tree
+     * @param numLeaves number of leaves of the tree
+     * @param leaf      new leaf
+     * @return root of the grown tree
+     */
+    public static Node appendLeaf(Node root, int numLeaves, LeafNode leaf) {
+        if (Integer.bitCount(numLeaves) == 1) return new ParentNode(root, leaf, false);
+        ParentNode parent = (ParentNode) root;
+        int l = leftTreeSize(numLeaves);
+        return new ParentNode(parent.getLeft(), appendLeaf(parent.getRight(), numLeaves - l, leaf), false);
+    }
+
+    /**
+     * Undo {@link #appendLeaf(Node, int, LeafNode)}: the old nodes moved under the new parents are linked back
+     * to their old parents, the old root is the root again
+     *
+     * @param root      old root
+     * @param numLeaves number of leaves before the append
+     */
+    public static void undoAppendLeaf(Node root, int numLeaves) {
+        root.setParent(null);
+        root.setSibling(null);
+        relinkRightSpine(root, numLeaves);
+    }
+
+    private static void relinkRightSpine(Node node, int numLeaves) {
+        // cây con đầy được giữ nguyên, chỉ chính nó được chuyển sang cha mới
+        if (Integer.bitCount(numLeaves) == 1) return;
+        ParentNode parent = (ParentNode) node;
+        parent.getLeft().setParent(parent);
+        parent.getLeft().setSibling(parent.getRight());
+        parent.getRight().setParent(parent);
+        parent.getRight().setSibling(parent.getLeft());
+        relinkRightSpine(parent.getRight(), numLeaves - leftTreeSize(numLeaves));
+    }
+
+    /**
+     * @param root      root of the tree
+     * @param numLeaves number of leaves of the tree
+     * @param index     position of the leaf, from the left
+     * @return leaf at the position
+     */
+    public static LeafNode leafAt(Node root, int numLeaves, int index) {
+        Node node = root;
+        int n = numLeaves;
+        while (node instanceof ParentNode) {
+            int l = leftTreeSize(n);
+            if (index < l) {
+                node = ((ParentNode) node).getLeft();
+                n = l;
+            } else {
+                node = ((ParentNode) node).getRight();
+                index -= l;
+                n -= l;
+            }
+        }
+        return (LeafNode) node;
+    }
+
+    /**
+     * @param root root of the tree
+     * @return position of the leftmost blank leaf, -1 if there is none
+     */
+    public static int findBlankLeaf(Node root) {
+        if (root instanceof LeafNode) return ((LeafNode) root).isBlank() ? 0 : -1;
+        ParentNode parent = (ParentNode) root;
+        int left = findBlankLeaf(parent.getLeft());
+        if (left >= 0) return left;
+        int right = findBlankLeaf(parent.getRight());
+        return right < 0 ? -1 : parent.getLeft().numLeaves() + right;
+    }
+
+    public static int numLeaves(Node root) {
+        return root.numLeaves();
+    }
+
     /**
      * tính số lượng lá của node left
      * @param numLeaves
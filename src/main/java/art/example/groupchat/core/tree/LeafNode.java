@@ -4,7 +4,12 @@ import art.example.groupchat.core.crypto.XECKeyPair;
 
 public class LeafNode extends Node {
 
-    private final String username;
+    /**
+     * username of a leaf whose member was removed, the leaf keeps a key nobody knows until it is filled again
+     */
+    public static final String BLANK = "";
+
+    private String username;
 
     public LeafNode(String username, XECKeyPair keyPair) {
         this.setKeyPair(keyPair);
@@ -15,6 +20,14 @@ public class LeafNode extends Node {
         return username;
     }
 
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public boolean isBlank() {
+        return BLANK.equals(username);
+    }
+
     @Override
     int numLeaves() {
         return 1;
@@ -3,8 +3,6 @@ package art.example.groupchat.core.tree;
 import art.example.groupchat.core.crypto.X25519Utils;
 import art.example.groupchat.core.crypto.XECKeyPair;
 
-import java.security.interfaces.XECPublicKey;
-
 public class ParentNode extends Node {
 
     private final Node left;
@@ -33,27 +31,23 @@ public class ParentNode extends Node {
         return left.numLeaves() + right.numLeaves();
     }
 
+    /**
+     * tính cặp khóa dựa vào khóa con: secret = DH(child secret, sibling public key), the public key is derived
+     * from it on first use
+     */
     public void computeKeyPair() {
+        byte[] rawPrivateKey;
         if (left.getKeyPair().getPrivate() != null) {
-            computeKeyPair(left.getKeyPair(), (XECPublicKey) right.getKeyPair().getPublic());
+            rawPrivateKey = X25519Utils.exchange(left.getKeyPair(), right.getKeyPair().getPublic());
         } else {
-            computeKeyPair(right.getKeyPair(), (XECPublicKey) left.getKeyPair().getPublic());
+            rawPrivateKey = X25519Utils.exchange(right.getKeyPair(), left.getKeyPair().getPublic());
         }
-    }
-
-    /**
-     * tính cặp khóa dựa vào khóa con
-     * @param keyPair
-     * @param publicKey
-     */
-    private void computeKeyPair(XECKeyPair keyPair, XECPublicKey publicKey) {
-        byte[] rawPrivateKey = X25519Utils.exchange(keyPair, publicKey);
         this.setKeyPair(X25519Utils.fromPrivateKey(rawPrivateKey));
     }
 
     public static ParentNode fromSecretParent(ParentNode secretParent, Node publicLeft, Node publicRight) {
         ParentNode publicNode = new ParentNode(publicLeft, publicRight, false);
-        publicNode.setKeyPair(new XECKeyPair(secretParent.getKeyPair().getPublic(), null));
+        publicNode.setKeyPair(XECKeyPair.ofPublicU(secretParent.getKeyPair().getPublicU()));
         return publicNode;
     }
 }
@@ -0,0 +1,82 @@
+package art.example.groupchat.core.tree;
+
+import art.example.groupchat.core.crypto.XECKeyPair;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Key pairs of a direct path before and after an update, an update only changes the nodes from the sender's
+ * leaf to the root, so it can be undone and redone in O(log n) without any exchange
+ */
+public class PathChange {
+
+    private final String sender;
+    private final Node[] path;
+    private final XECKeyPair[] before;
+    private XECKeyPair[] after;
+    // id của epoch mà cập nhật tạo ra
+    private long epochId;
+
+    private PathChange(String sender, Node[] path) {
+        this.sender = sender;
+        this.path = path;
+        this.before = keyPairs();
+    }
+
+    /**
+     * Record the current keys of a direct path, call {@link #commit()} once the update is applied
+     *
+     * @param leaf leaf of the sender
+     * @return change holding the keys before the update
+     */
+    public static PathChange begin(LeafNode leaf) {
+        List<Node> nodes = new ArrayList<>();
+        for (Node node = leaf; node != null; node = node.getParent()) {
+            nodes.add(node);
+        }
+        return new PathChange(leaf.getUsername(), nodes.toArray(new Node[0]));
+    }
+
+    /**
+     * Record the keys after the update, and the id of the tree it leads to
+     */
+    public void commit() {
+        after = keyPairs();
+        epochId = DHTree.getEpochId(path[path.length - 1]);
+    }
+
+    public void undo() {
+        set(before);
+    }
+
+    public void redo() {
+        if (after == null) throw new RuntimeException("Change is not committed");
+        set(after);
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    /**
+     * @return {@link DHTree#getEpochId(Node)} of the tree after the update
+     */
+    public long getEpochId() {
+        return epochId;
+    }
+
+    private XECKeyPair[] keyPairs() {
+        XECKeyPair[] keyPairs = new XECKeyPair[path.length];
+        for (int i = 0; i < path.length; i++) {
+            keyPairs[i] = path[i].getKeyPair();
+        }
+        return keyPairs;
+    }
+
+    private void set(XECKeyPair[] keyPairs) {
+        for (int i = 0; i < path.length; i++) {
+            path[i].setKeyPair(keyPairs[i]);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package art.example.groupchat.core.tree;
+
+import art.example.groupchat.core.crypto.X25519Utils;
+import art.example.groupchat.core.crypto.XECKeyPair;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Direct path of a leaf with a new key, computed ahead of the update. <br>
+ * {@link #begin(LeafNode)} records the path and the copath keys under the group lock, without any exchange;
+ * {@link #compute(XECKeyPair)} does the exchanges off the lock; an update then only sets the prepared keys.
+ * The copath key pairs are immutable and replaced, never changed in place, so comparing them by identity
+ * tells whether the tree moved in the meantime: {@link #matches(LeafNode)} is false after any other update,
+ * and the prepared path is thrown away
+ */
+public class PreparedPath {
+
+    // từ lá lên gốc
+    private final Node[] path;
+    // khóa của các node anh em trên đường đi, lúc chuẩn bị
+    private final XECKeyPair[] copath;
+    private XECKeyPair[] keyPairs;
+
+    private PreparedPath(Node[] path, XECKeyPair[] copath) {
+        this.path = path;
+        this.copath = copath;
+    }
+
+    /**
+     * Record the direct path of a leaf and the keys it is computed against, the group lock must be held
+     * @param leaf own leaf
+     * @return path to compute, null if a node of the copath has no key yet
+     */
+    public static PreparedPath begin(LeafNode leaf) {
+        List<Node> nodes = new ArrayList<>();
+        for (Node node = leaf; node != null; node = node.getParent()) {
+            nodes.add(node);
+        }
+        XECKeyPair[] copath = new XECKeyPair[nodes.size() - 1];
+        for (int i = 0; i < copath.length; i++) {
+            copath[i] = nodes.get(i).getSibling().getKeyPair();
+            if (copath[i] == null) return null;
+        }
+        return new PreparedPath(nodes.toArray(new Node[0]), copath);
+    }
+
+    /**
+     * Derive the keys of the path with a new leaf key, from the recorded copath; needs no lock
+     * @param leafKey new key pair of the leaf
+     * @return this
+     */
+    public PreparedPath compute(XECKeyPair leafKey) {
+        XECKeyPair[] keys = new XECKeyPair[path.length];
+        keys[0] = leafKey;
+        leafKey.getPublicU();
+        for (int i = 0; i < copath.length; i++) {
+            keys[i + 1] = X25519Utils.fromPrivateKey(X25519Utils.exchange(keys[i], copath[i].getPublic()));
+            // khóa công khai cũng tính trước, lúc gửi chỉ còn đọc
+            keys[i + 1].getPublicU();
+        }
+        keyPairs = keys;
+        return this;
+    }
+
+    /**
+     * @param leaf own leaf in the current tree
+     * @return true if the tree has not changed on the path or its copath since {@link #begin(LeafNode)}
+     */
+    public boolean matches(LeafNode leaf) {
+        if (keyPairs == null || path[0] != leaf) return false;
+        for (int i = 0; i < copath.length; i++) {
+            if (path[i].getParent() != path[i + 1]) return false;
+            if (path[i].getSibling().getKeyPair() != copath[i]) return false;
+        }
+        return path[path.length - 1].getParent() == null;
+    }
+
+    /**
+     * Set the prepared keys on the path, the group lock must be held and {@link #matches(LeafNode)} be true
+     * @param updatedPath path to fill with the new public keys, leaf first
+     */
+    public void apply(Queue<BigInteger> updatedPath) {
+        for (int i = 0; i < path.length; i++) {
+            path[i].setKeyPair(keyPairs[i]);
+            updatedPath.add(keyPairs[i].getPublicU());
+        }
+    }
+}
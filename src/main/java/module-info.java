@@ -3,5 +3,7 @@ module soict.it2.groupchat {
     requires com.google.gson;
 
     opens art.example.groupchat;
+    opens art.example.groupchat.core to com.google.gson;
+    opens art.example.groupchat.core.tree to com.google.gson;
     exports art.example.groupchat;
-}
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+package art.example.groupchat.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncMessageClientTest {
+
+    @Test
+    void testOrderedPerGroup() throws Exception {
+        int numGroups = 4;
+        int numMessages = 16;
+        MessageClient admin = new MessageClient("admin");
+        MessageClient alice = new MessageClient("alice");
+        for (int groupId = 0; groupId < numGroups; groupId++) {
+            admin.creatNewGroup(groupId);
+            alice.receiveSetupMessage(admin.addMember(groupId, "alice", alice.getIdKey(), alice.joinGroup(groupId)));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AsyncMessageClient asyncAlice = new AsyncMessageClient(alice, executor, 64);
+        AsyncMessageClient asyncAdmin = new AsyncMessageClient(admin, executor, 64);
+
+        // tin của cùng một nhóm được xử lý đúng thứ tự gửi vào hộp thư
+        List<CompletableFuture<String>> sent = new ArrayList<>();
+        for (int i = 0; i < numMessages * numGroups; i++) {
+            sent.add(asyncAlice.sendMessage(i % numGroups, "msg " + i));
+        }
+        List<CompletableFuture<String>> received = new ArrayList<>();
+        for (CompletableFuture<String> message : sent) {
+            received.add(asyncAdmin.receiveMessage(message.get(10, TimeUnit.SECONDS)));
+        }
+        for (int i = 0; i < received.size(); i++) {
+            assertEquals("msg " + i, received.get(i).get(10, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    void testFullMailboxRejects() {
+        MessageClient alice = new MessageClient("alice");
+        // executor không chạy gì cho tới khi được gọi thủ công
+        Queue<Runnable> pending = new ArrayDeque<>();
+        AsyncMessageClient asyncAlice = new AsyncMessageClient(alice, pending::add, 1);
+
+        CompletableFuture<String> first = asyncAlice.sendMessage(0, "first");
+        CompletableFuture<String> second = asyncAlice.sendMessage(0, "second");
+        ExecutionException e = assertThrows(ExecutionException.class, second::get);
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+
+        // nhóm 0 chưa tồn tại, lỗi được chuyển vào future
+        pending.poll().run();
+        assertTrue(first.isCompletedExceptionally());
+    }
+
+    @Test
+    void testIdleActorsDropped() throws Exception {
+        int numGroups = 64;
+        MessageClient admin = new MessageClient("admin");
+        MessageClient alice = new MessageClient("alice");
+        for (int groupId = 0; groupId < numGroups; groupId++) {
+            admin.creatNewGroup(groupId);
+            alice.receiveSetupMessage(admin.addMember(groupId, "alice", alice.getIdKey(), alice.joinGroup(groupId)));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AsyncMessageClient asyncAlice = new AsyncMessageClient(alice, executor, 64);
+        AsyncMessageClient asyncAdmin = new AsyncMessageClient(admin, executor, 64);
+
+        // mỗi nhóm nhận nhiều đợt, actor bị bỏ và tạo lại giữa các đợt mà vẫn giữ thứ tự
+        for (int round = 0; round < 4; round++) {
+            List<CompletableFuture<String>> sent = new ArrayList<>();
+            for (int i = 0; i < numGroups * 4; i++) {
+                sent.add(asyncAlice.sendMessage(i % numGroups, "msg " + round + " " + i));
+            }
+            List<CompletableFuture<String>> received = new ArrayList<>();
+            for (CompletableFuture<String> message : sent) {
+                received.add(asyncAdmin.receiveMessage(message.get(10, TimeUnit.SECONDS)));
+            }
+            for (int i = 0; i < received.size(); i++) {
+                assertEquals("msg " + round + " " + i, received.get(i).get(10, TimeUnit.SECONDS));
+            }
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, asyncAlice.getActiveGroupCount());
+        assertEquals(0, asyncAdmin.getActiveGroupCount());
+
+        // với executor chạy ngay, actor bị bỏ khi lời gọi xong
+        AsyncMessageClient direct = new AsyncMessageClient(alice, Runnable::run, 1);
+        assertNotNull(direct.sendMessage(0, "direct").get());
+        assertEquals(0, direct.getActiveGroupCount());
+    }
+}
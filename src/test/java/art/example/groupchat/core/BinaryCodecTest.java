@@ -0,0 +1,118 @@
+package art.example.groupchat.core;
+
+import art.example.groupchat.core.crypto.X25519Utils;
+import art.example.groupchat.core.serialize.BinaryCodec;
+import art.example.groupchat.core.serialize.SerializeUtils;
+import art.example.groupchat.core.tree.DHTree;
+import art.example.groupchat.core.tree.LeafNode;
+import art.example.groupchat.core.tree.Node;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryCodecTest {
+
+    @Test
+    void testMessage() {
+        Queue<BigInteger> path = new LinkedList<>();
+        for (int i = 0; i < 4; i++) {
+            path.add(X25519Utils.newKeyPair().getPublic().getU());
+        }
+        Message message = new Message("bob", 7, 3, -42L, path, "ciphertext".getBytes(StandardCharsets.UTF_8));
+
+        byte[] bytes = BinaryCodec.toBytes(message);
+        Message decoded = BinaryCodec.toMessage(bytes);
+
+        assertEquals("bob", decoded.getFrom());
+        assertEquals(7, decoded.getGroupId());
+        assertEquals(3, decoded.getEpoch());
+        assertEquals(-42L, decoded.getParent());
+        assertEquals(new ArrayList<>(path), new ArrayList<>(decoded.getUpdatePath()));
+        assertArrayEquals(message.getCipherText(), decoded.getCipherText());
+        assertTrue(bytes.length < SerializeUtils.toJson(message).length() / 2);
+
+        Message chained = BinaryCodec.toMessage(BinaryCodec.toBytes(
+                new Message("bob", 7, 3, 0L, 5, new LinkedList<>(), message.getCipherText())));
+        assertTrue(chained.isChained());
+        assertEquals(5, chained.getCounter());
+    }
+
+    @Test
+    void testMessagesFromBuffer() {
+        Message first = new Message("bob", 7, 3, 0L, new LinkedList<>(), "first".getBytes(StandardCharsets.UTF_8));
+        Message second = new Message("alice", 7, 3, 0L, 2, new LinkedList<>(), "second".getBytes(StandardCharsets.UTF_8));
+        byte[] a = BinaryCodec.toBytes(first);
+        byte[] b = BinaryCodec.toBytes(second);
+        ByteBuffer in = ByteBuffer.allocateDirect(a.length + b.length);
+        in.put(a).put(b).flip();
+
+        Message decodedFirst = BinaryCodec.toMessage(in);
+        Message decodedSecond = BinaryCodec.toMessage(in);
+        assertFalse(in.hasRemaining());
+        assertArrayEquals(first.getCipherText(), decodedFirst.getCipherText());
+        assertArrayEquals(second.getCipherText(), decodedSecond.getCipherText());
+        assertEquals(2, decodedSecond.getCounter());
+
+        // bản tách ra không còn phụ thuộc vào buffer
+        Message detached = decodedSecond.detached();
+        in.clear();
+        while (in.hasRemaining()) in.put((byte) 0);
+        assertArrayEquals(second.getCipherText(), detached.getCipherText());
+        assertArrayEquals(b, BinaryCodec.toBytes(detached));
+
+        ByteBuffer truncated = ByteBuffer.wrap(a, 0, a.length - 1);
+        assertThrows(RuntimeException.class, () -> BinaryCodec.toMessage(truncated));
+    }
+
+    @Test
+    void testTree() {
+        List<LeafNode> leaves = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            leaves.add(new LeafNode("member-" + i, X25519Utils.newKeyPair()));
+        }
+        Node root = DHTree.buildSecretTree(leaves);
+        Node decoded = BinaryCodec.toTree(BinaryCodec.toBytes(root));
+        assertEquals(SerializeUtils.toJson(root), SerializeUtils.toJson(decoded));
+        assertNull(decoded.getKeyPair().getPrivate());
+    }
+
+    @Test
+    void testRejectDeepTree() {
+        // đầu khung cây rồi một chuỗi dài các cờ nút cha không khóa
+        byte[] bytes = new byte[100_000];
+        System.arraycopy(BinaryCodec.toBytes(new LeafNode("alice", null)), 0, bytes, 0, 2);
+        assertThrows(RuntimeException.class, () -> BinaryCodec.toTree(bytes));
+
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            json.append("{\"left\":");
+        }
+        assertThrows(RuntimeException.class, () -> SerializeUtils.toTree(json.toString()));
+    }
+
+    @Test
+    void testRejectUnknownVersion() {
+        byte[] bytes = BinaryCodec.toBytes(new Message("bob", 0, 0, 0L, new LinkedList<>(), new byte[0]));
+        bytes[0] = 42;
+        assertThrows(RuntimeException.class, () -> BinaryCodec.toMessage(bytes));
+    }
+
+    @Test
+    void testRejectLongString() {
+        // độ dài 2 byte không chứa được tên này, không được ghi ra khung hỏng
+        String from = "b".repeat(0x10000);
+        assertThrows(RuntimeException.class, () ->
+                BinaryCodec.toBytes(new Message(from, 0, 0, 0L, new LinkedList<>(), new byte[0])));
+        String longest = "b".repeat(0xffff);
+        assertEquals(longest, BinaryCodec.toMessage(BinaryCodec.toBytes(
+                new Message(longest, 0, 0, 0L, new LinkedList<>(), new byte[0]))).getFrom());
+    }
+}
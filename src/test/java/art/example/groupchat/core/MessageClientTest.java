@@ -1,8 +1,29 @@
 package art.example.groupchat.core;
 
+import art.example.groupchat.core.crypto.CryptoUtils;
+import art.example.groupchat.core.crypto.SenderChain;
+import art.example.groupchat.core.crypto.StreamingAead;
+import art.example.groupchat.core.crypto.X25519Utils;
+import art.example.groupchat.core.serialize.BinaryCodec;
+import art.example.groupchat.core.serialize.SerializeUtils;
+import art.example.groupchat.core.tree.DHTree;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.security.interfaces.XECPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -68,4 +89,635 @@ class MessageClientTest {
 //        assertEquals(plainMsg, newdecrypted);
     }
 
-}
\ No newline at end of file
+    @Test
+    void testBinaryChat() {
+        MessageClient admin = new MessageClient("admin");
+        MessageClient alice = new MessageClient("alice");
+        MessageClient bob = new MessageClient("bob");
+        admin.creatNewGroup(1);
+        admin.getGroupState(1).addMember("alice", alice.getIdKey(), alice.joinGroup(1));
+        admin.getGroupState(1).addMember("bob", bob.getIdKey(), bob.joinGroup(1));
+        byte[] setupMsg = BinaryCodec.toBytes(admin.createSetupMessage(1, admin.getGroupState(1)));
+        alice.receiveSetupMessage(BinaryCodec.toSetupMessage(setupMsg));
+        bob.receiveSetupMessage(BinaryCodec.toSetupMessage(setupMsg));
+
+        byte[] plain = "Hello group".getBytes(StandardCharsets.UTF_8);
+        byte[] message = BinaryCodec.toBytes(alice.createMessage(1, plain));
+        assertArrayEquals(plain, bob.receiveMessage(BinaryCodec.toMessage(message)));
+        assertArrayEquals(plain, admin.receiveMessage(BinaryCodec.toMessage(message)));
+    }
+
+    @Test
+    void testConcurrentGroups() throws Exception {
+        int numGroups = 8;
+        MessageClient admin = new MessageClient("admin");
+        MessageClient alice = new MessageClient("alice");
+        for (int groupId = 0; groupId < numGroups; groupId++) {
+            admin.creatNewGroup(groupId);
+            alice.receiveSetupMessage(admin.addMember(groupId, "alice", alice.getIdKey(), alice.joinGroup(groupId)));
+        }
+
+        // mỗi nhóm có 4 luồng cùng gửi tin
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> sent = new ArrayList<>();
+        for (int i = 0; i < numGroups * 4; i++) {
+            int groupId = i % numGroups;
+            sent.add(executor.submit(() -> alice.sendMessage(groupId, "concurrent")));
+        }
+        List<String> messages = new ArrayList<>();
+        for (Future<String> future : sent) {
+            messages.add(future.get());
+        }
+        executor.shutdown();
+
+        // admin nhận theo thứ tự ngược: các tin đến sớm được giữ lại rồi giải phóng theo epoch
+        List<String> released = new ArrayList<>();
+        admin.setMessageListener((message, plaintext) -> released.add(new String(plaintext, StandardCharsets.UTF_8)));
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            String plaintext = admin.receiveMessage(messages.get(i));
+            if (plaintext != null) released.add(plaintext);
+        }
+        assertEquals(numGroups * 4, released.size());
+        for (int groupId = 0; groupId < numGroups; groupId++) {
+            assertEquals("last", admin.receiveMessage(alice.sendMessage(groupId, "last")));
+        }
+    }
+
+    @Test
+    void testReceiveBatch() {
+        MessageClient admin = new MessageClient("admin");
+        MessageClient alice = new MessageClient("alice");
+        MessageClient bob = new MessageClient("bob");
+        admin.creatNewGroup(2);
+        admin.getGroupState(2).addMember("alice", alice.getIdKey(), alice.joinGroup(2));
+        admin.getGroupState(2).addMember("bob", bob.getIdKey(), bob.joinGroup(2));
+        SetupMessage setupMsg = admin.createSetupMessage(2, admin.getGroupState(2));
+        alice.receiveSetupMessage(setupMsg);
+        bob.receiveSetupMessage(BinaryCodec.toSetupMessage(BinaryCodec.toBytes(setupMsg)));
+
+        // alice và bob gửi xen kẽ, admin nhận cả loạt một lần
+        List<Message> burst = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            MessageClient sender = i % 3 == 0 ? bob : alice;
+            MessageClient other = sender == bob ? alice : bob;
+            String text = "burst " + i;
+            Message message = sender.createMessage(2, text.getBytes(StandardCharsets.UTF_8));
+            other.receiveMessage(BinaryCodec.toMessage(BinaryCodec.toBytes(message)));
+            burst.add(message);
+            expected.add(text);
+        }
+        List<byte[]> plaintexts = admin.receiveMessages(burst);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), new String(plaintexts.get(i), StandardCharsets.UTF_8));
+        }
+        assertEquals("after", admin.receiveMessage(alice.sendMessage(2, "after")));
+    }
+
+    @Test
+    void testReceiveBatchWithForgedMessage() {
+        MessageClient admin = new MessageClient("admin");
+        MessageClient alice = new MessageClient("alice");
+        MessageClient bob = new MessageClient("bob");
+        admin.creatNewGroup(21);
+        admin.getGroupState(21).addMember("alice", alice.getIdKey(), alice.joinGroup(21));
+        admin.getGroupState(21).addMember("bob", bob.getIdKey(), bob.joinGroup(21));
+        SetupMessage setupMsg = admin.createSetupMessage(21, admin.getGroupState(21));
+        alice.receiveSetupMessage(copy(setupMsg));
+        bob.receiveSetupMessage(copy(setupMsg));
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            MessageClient sender = i % 2 == 0 ? alice : bob;
+            MessageClient other = sender == alice ? bob : alice;
+            Message message = sender.createMessage(21, ("batch " + i).getBytes(StandardCharsets.UTF_8));
+            other.receiveMessage(copy(message));
+            sent.add(message);
+        }
+        List<Message> released = new ArrayList<>();
+        List<Message> failed = new ArrayList<>();
+        admin.setMessageListener(new MessageListener() {
+            @Override
+            public void onMessage(Message message, byte[] plaintext) {
+                released.add(message);
+            }
+
+            @Override
+            public void onError(Message message, RuntimeException error) {
+                failed.add(message);
+            }
+        });
+        // tin cuối tới trước và chờ epoch của nó
+        assertNull(admin.receiveMessage(copy(sent.get(3))));
+
+        // tin giả mạo ở giữa loạt: các tin xung quanh vẫn được nhận
+        Message third = sent.get(2);
+        byte[] tampered = third.getCipherText().clone();
+        tampered[tampered.length - 1] ^= 1;
+        Message forged = new Message("alice", 21, third.getEpoch(), third.getParent(),
+                new LinkedList<>(third.getUpdatePath()), tampered);
+        List<byte[]> plaintexts = admin.receiveMessages(List.of(copy(sent.get(0)), copy(sent.get(1)), forged,
+                copy(third)));
+        assertEquals(4, plaintexts.size());
+        assertEquals("batch 0", new String(plaintexts.get(0), StandardCharsets.UTF_8));
+        assertEquals("batch 1", new String(plaintexts.get(1), StandardCharsets.UTF_8));
+        assertNull(plaintexts.get(2));
+        assertEquals("batch 2", new String(plaintexts.get(3), StandardCharsets.UTF_8));
+        assertEquals(List.of(forged), failed);
+        assertEquals(1, released.size());
+        assertEquals(4, admin.getGroupState(21).getEpoch());
+        assertGroupKey(21, admin, alice, bob);
+    }
+
+    @Test
+    void testIncrementalMembership() {
+        MessageClient admin = new MessageClient("admin");
+        MessageClient alice = new MessageClient("alice");
+        MessageClient bob = new MessageClient("bob");
+        admin.creatNewGroup(3);
+        admin.getGroupState(3).addMember("alice", alice.getIdKey(), alice.joinGroup(3));
+        String setupMsg = admin.addMember(3, "bob", bob.getIdKey(), bob.joinGroup(3));
+        alice.receiveSetupMessage(setupMsg);
+        bob.receiveSetupMessage(setupMsg);
+
+        // thêm charlie: nối lá thứ 4 vào cuối cây
+        MessageClient charlie = new MessageClient("charlie");
+        MembershipMessage added = admin.addMemberIncremental(3, "charlie", charlie.getIdKey(), charlie.joinGroup(3));
+        assertEquals(3, added.getLeaf());
+        assertEquals(3, added.getUpdatePath().size());
+        alice.receiveMembershipMessage(SerializeUtils.toJson(added));
+        bob.receiveMembershipMessage(BinaryCodec.toMembershipMessage(BinaryCodec.toBytes(added)));
+        charlie.receiveSetupMessage(admin.createWelcomeMessage(3));
+        assertGroupKey(3, admin, alice, bob, charlie);
+        String fromCharlie = charlie.sendMessage(3, "hi from charlie");
+        assertEquals("hi from charlie", alice.receiveMessage(fromCharlie));
+        assertEquals("hi from charlie", bob.receiveMessage(fromCharlie));
+        assertEquals("hi from charlie", admin.receiveMessage(fromCharlie));
+
+        // xóa bob: lá của bob thành lá trống
+        MembershipMessage removed = admin.removeMemberIncremental(3, "bob");
+        alice.receiveMembershipMessage(removed);
+        charlie.receiveMembershipMessage(SerializeUtils.toMembershipMessage(SerializeUtils.toJson(removed)));
+        byte[] bobKey = DHTree.getGroupKey(bob.getGroupState(3).getRoot());
+        bob.receiveMembershipMessage(removed);
+        assertNull(bob.getGroupState(3));
+        assertGroupKey(3, admin, alice, charlie);
+        assertFalse(Arrays.equals(bobKey, DHTree.getGroupKey(admin.getGroupState(3).getRoot())));
+        String fromAlice = alice.sendMessage(3, "bob is gone");
+        assertEquals("bob is gone", charlie.receiveMessage(fromAlice));
+        assertEquals("bob is gone", admin.receiveMessage(fromAlice));
+
+        // duke lấp lá trống của bob, eve nối thêm lá vào cây đầy
+        MessageClient duke = new MessageClient("duke");
+        MembershipMessage dukeAdded = admin.addMemberIncremental(3, "duke", duke.getIdKey(), duke.joinGroup(3));
+        assertEquals(2, dukeAdded.getLeaf());
+        alice.receiveMembershipMessage(dukeAdded);
+        charlie.receiveMembershipMessage(dukeAdded);
+        duke.receiveSetupMessage(admin.createWelcomeMessage(3));
+        MessageClient eve = new MessageClient("eve");
+        MembershipMessage eveAdded = admin.addMemberIncremental(3, "eve", eve.getIdKey(), eve.joinGroup(3));
+        assertEquals(4, eveAdded.getLeaf());
+        for (MessageClient member : List.of(alice, charlie, duke)) {
+            member.receiveMembershipMessage(eveAdded);
+        }
+        eve.receiveSetupMessage(SerializeUtils.toJson(admin.createWelcomeMessage(3)));
+        assertGroupKey(3, admin, alice, charlie, duke, eve);
+
+        String fromDuke = duke.sendMessage(3, "hello");
+        for (MessageClient member : List.of(admin, alice, charlie, eve)) {
+            assertEquals("hello", member.receiveMessage(fromDuke));
+        }
+    }
+
+    @Test
+    void testEpochs() {
+        MessageClient admin = new MessageClient("admin");
+        MessageClient alice = new MessageClient("alice");
+        MessageClient bob = new MessageClient("bob");
+        admin.creatNewGroup(4);
+        admin.getGroupState(4).addMember("alice", alice.getIdKey(), alice.joinGroup(4));
+        admin.getGroupState(4).addMember("bob", bob.getIdKey(), bob.joinGroup(4));
+        SetupMessage setupMsg = admin.createSetupMessage(4, admin.getGroupState(4));
+        alice.receiveSetupMessage(setupMsg);
+        bob.receiveSetupMessage(BinaryCodec.toSetupMessage(BinaryCodec.toBytes(setupMsg)));
+
+        // tin đến sai thứ tự được giữ lại tới khi tin trước tới
+        List<String> released = new ArrayList<>();
+        admin.setMessageListener((message, plaintext) -> released.add(new String(plaintext, StandardCharsets.UTF_8)));
+        String first = alice.sendMessage(4, "first");
+        String second = alice.sendMessage(4, "second");
+        assertNull(admin.receiveMessage(second));
+        assertEquals("first", admin.receiveMessage(first));
+        assertEquals(List.of("second"), released);
+        assertEquals("first", bob.receiveMessage(first));
+        assertEquals("second", bob.receiveMessage(second));
+
+        // alice và bob gửi cùng lúc trên epoch 2, mọi thành viên giữ cùng một cập nhật
+        Message fromAlice = alice.createMessage(4, "alice".getBytes(StandardCharsets.UTF_8));
+        Message fromBob = bob.createMessage(4, "bob".getBytes(StandardCharsets.UTF_8));
+        assertEquals(fromAlice.getEpoch(), fromBob.getEpoch());
+        assertArrayEquals("bob".getBytes(StandardCharsets.UTF_8), admin.receiveMessage(copy(fromBob)));
+        assertArrayEquals("alice".getBytes(StandardCharsets.UTF_8), admin.receiveMessage(copy(fromAlice)));
+        assertArrayEquals("bob".getBytes(StandardCharsets.UTF_8), alice.receiveMessage(copy(fromBob)));
+        assertArrayEquals("alice".getBytes(StandardCharsets.UTF_8), bob.receiveMessage(copy(fromAlice)));
+        assertGroupKey(4, admin, alice, bob);
+        assertEquals(3, admin.getGroupState(4).getEpoch());
+
+        // tin cũ hơn cửa sổ nhật ký bị từ chối
+        String old = bob.sendMessage(4, "old");
+        for (int i = 0; i <= GroupState.JOURNAL_DEPTH; i++) {
+            admin.receiveMessage(alice.sendMessage(4, "filler"));
+        }
+        assertThrows(RuntimeException.class, () -> admin.receiveMessage(old));
+    }
+
+    @Test
+    void testSenderChains() {
+        MessageClient admin = new MessageClient("admin");
+        MessageClient alice = new MessageClient("alice");
+        MessageClient bob = new MessageClient("bob");
+        admin.creatNewGroup(5);
+        admin.getGroupState(5).addMember("alice", alice.getIdKey(), alice.joinGroup(5));
+        admin.getGroupState(5).addMember("bob", bob.getIdKey(), bob.joinGroup(5));
+        SetupMessage setupMsg = admin.createSetupMessage(5, admin.getGroupState(5));
+        alice.receiveSetupMessage(setupMsg);
+        bob.receiveSetupMessage(BinaryCodec.toSetupMessage(BinaryCodec.toBytes(setupMsg)));
+
+        // cây được cập nhật ở mỗi tin thứ 4 của alice, 3 tin trước đó dùng chuỗi khóa
+        alice.setRatchetInterval(4, 1, TimeUnit.HOURS);
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            messages.add(alice.createMessage(5, ("hello " + i).getBytes(StandardCharsets.UTF_8)));
+        }
+        assertTrue(messages.get(0).isChained());
+        assertEquals(2, messages.get(2).getCounter());
+        assertFalse(messages.get(3).isChained());
+        assertEquals(1, messages.get(4).getEpoch());
+        assertFalse(messages.get(7).isChained());
+        assertEquals(2, alice.getGroupState(5).getEpoch());
+
+        for (int i = 0; i < 8; i++) {
+            assertArrayEquals(("hello " + i).getBytes(StandardCharsets.UTF_8), bob.receiveMessage(copy(messages.get(i))));
+        }
+        // tin của chuỗi đến sai thứ tự, tin của epoch sau chờ cập nhật cây
+        List<String> released = new ArrayList<>();
+        admin.setMessageListener((message, plaintext) -> released.add(new String(plaintext, StandardCharsets.UTF_8)));
+        assertNull(admin.receiveMessage(copy(messages.get(6))));
+        assertNull(admin.receiveMessage(copy(messages.get(4))));
+        assertArrayEquals("hello 0".getBytes(StandardCharsets.UTF_8), admin.receiveMessage(copy(messages.get(0))));
+        assertArrayEquals("hello 2".getBytes(StandardCharsets.UTF_8), admin.receiveMessage(copy(messages.get(2))));
+        assertArrayEquals("hello 3".getBytes(StandardCharsets.UTF_8), admin.receiveMessage(copy(messages.get(3))));
+        assertEquals(List.of("hello 6", "hello 4"), released);
+        assertArrayEquals("hello 7".getBytes(StandardCharsets.UTF_8), admin.receiveMessage(copy(messages.get(7))));
+        // tin trễ của các epoch trước
+        assertArrayEquals("hello 5".getBytes(StandardCharsets.UTF_8), admin.receiveMessage(copy(messages.get(5))));
+        assertArrayEquals("hello 1".getBytes(StandardCharsets.UTF_8), admin.receiveMessage(copy(messages.get(1))));
+        // mỗi khóa của chuỗi chỉ dùng được một lần
+        assertThrows(RuntimeException.class, () -> admin.receiveMessage(copy(messages.get(1))));
+        assertGroupKey(5, admin, alice, bob);
+    }
+
+    @Test
+    void testAttachments() throws Exception {
+        MessageClient admin = new MessageClient("admin");
+        MessageClient alice = new MessageClient("alice");
+        admin.creatNewGroup(6);
+        admin.getGroupState(6).addMember("alice", alice.getIdKey(), alice.joinGroup(6));
+        alice.receiveSetupMessage(admin.createSetupMessage(6, admin.getGroupState(6)));
+
+        byte[] file = CryptoUtils.randomBytes(3 * StreamingAead.CHUNK_SIZE + 100);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        assertEquals(file.length, alice.encryptAttachment(6, new ByteArrayInputStream(file), encrypted));
+        // tệp đính kèm không cập nhật cây, tin nhắn sau đó thì có
+        assertEquals(0, alice.getGroupState(6).getEpoch());
+        admin.receiveMessage(copy(alice.createMessage(6, "see attachment".getBytes(StandardCharsets.UTF_8))));
+
+        // mở tệp của epoch trước
+        try (InputStream in = admin.decryptAttachment(6, new ByteArrayInputStream(encrypted.toByteArray()))) {
+            assertArrayEquals(file, in.readAllBytes());
+        }
+        assertGroupKey(6, admin, alice);
+    }
+
+    @Test
+    void testSpeculativeSend() {
+        MessageClient admin = new MessageClient("admin");
+        MessageClient alice = new MessageClient("alice");
+        MessageClient bob = new MessageClient("bob");
+        admin.creatNewGroup(7);
+        admin.getGroupState(7).addMember("alice", alice.getIdKey(), alice.joinGroup(7));
+        admin.getGroupState(7).addMember("bob", bob.getIdKey(), bob.joinGroup(7));
+        SetupMessage setupMsg = admin.createSetupMessage(7, admin.getGroupState(7));
+        // tác vụ tính trước của alice chỉ chạy khi test cho phép
+        List<Runnable> tasks = new ArrayList<>();
+        alice.setSpeculativeSend(tasks::add);
+        alice.receiveSetupMessage(copy(setupMsg));
+        bob.receiveSetupMessage(copy(setupMsg));
+        assertEquals(1, tasks.size());
+        runAll(tasks);
+        GroupState aliceState = alice.getGroupState(7);
+        assertTrue(aliceState.getPreparedPath().matches(aliceState.getLeaf("alice")));
+
+        // gửi bằng đường đi đã tính trước
+        byte[] hello = "hello".getBytes(StandardCharsets.UTF_8);
+        Message message = alice.createMessage(7, hello);
+        assertNull(aliceState.getPreparedPath());
+        assertArrayEquals(hello, admin.receiveMessage(copy(message)));
+        assertArrayEquals(hello, bob.receiveMessage(copy(message)));
+        assertGroupKey(7, admin, alice, bob);
+        runAll(tasks);
+
+        // cập nhật của bob đến trước: đường đi đã tính bị bỏ
+        Message fromBob = bob.createMessage(7, hello);
+        assertArrayEquals(hello, admin.receiveMessage(copy(fromBob)));
+        assertArrayEquals(hello, alice.receiveMessage(copy(fromBob)));
+        assertFalse(aliceState.getPreparedPath().matches(aliceState.getLeaf("alice")));
+        message = alice.createMessage(7, hello);
+        assertArrayEquals(hello, admin.receiveMessage(copy(message)));
+        assertArrayEquals(hello, bob.receiveMessage(copy(message)));
+        assertGroupKey(7, admin, alice, bob);
+
+        // nhiều lần nhận chỉ tạo một tác vụ cho nhóm
+        runAll(tasks);
+        Message first = admin.createMessage(7, hello);
+        bob.receiveMessage(copy(first));
+        Message second = bob.createMessage(7, hello);
+        admin.receiveMessage(copy(second));
+        alice.receiveMessage(copy(first));
+        alice.receiveMessage(copy(second));
+        assertEquals(1, tasks.size());
+        runAll(tasks);
+        message = alice.createMessage(7, hello);
+        assertArrayEquals(hello, admin.receiveMessage(copy(message)));
+        assertArrayEquals(hello, bob.receiveMessage(copy(message)));
+        assertGroupKey(7, admin, alice, bob);
+    }
+
+    @Test
+    void testForgedUpdate() {
+        MessageClient admin = new MessageClient("admin");
+        MessageClient alice = new MessageClient("alice");
+        MessageClient bob = new MessageClient("bob");
+        admin.creatNewGroup(8);
+        admin.getGroupState(8).addMember("alice", alice.getIdKey(), alice.joinGroup(8));
+        admin.getGroupState(8).addMember("bob", bob.getIdKey(), bob.joinGroup(8));
+        SetupMessage setupMsg = admin.createSetupMessage(8, admin.getGroupState(8));
+        alice.receiveSetupMessage(copy(setupMsg));
+        bob.receiveSetupMessage(copy(setupMsg));
+        byte[] hello = "hello".getBytes(StandardCharsets.UTF_8);
+        Message message = alice.createMessage(8, hello);
+        byte[] groupKey = DHTree.getGroupKey(bob.getGroupState(8).getRoot());
+
+        // bản mã bị sửa: cập nhật cây bị hủy, epoch không đổi
+        byte[] tampered = message.getCipherText().clone();
+        tampered[tampered.length - 1] ^= 1;
+        Message forged = new Message("alice", 8, message.getEpoch(), message.getParent(),
+                new LinkedList<>(message.getUpdatePath()), tampered);
+        assertThrows(RuntimeException.class, () -> bob.receiveMessage(forged));
+        assertArrayEquals(groupKey, DHTree.getGroupKey(bob.getGroupState(8).getRoot()));
+        assertEquals(0, bob.getGroupState(8).getEpoch());
+
+        // đường đi giả mạo, hoặc quá ngắn
+        Queue<BigInteger> path = new LinkedList<>();
+        for (int i = 0; i < message.getUpdatePath().size(); i++) {
+            path.add(X25519Utils.newKeyPair().getPublicU());
+        }
+        assertThrows(RuntimeException.class, () -> bob.receiveMessage(
+                new Message("alice", 8, message.getEpoch(), message.getParent(), path, message.getCipherText())));
+        assertThrows(RuntimeException.class, () -> bob.receiveMessage(
+                new Message("alice", 8, message.getEpoch(), message.getParent(), new LinkedList<>(), message.getCipherText())));
+        assertArrayEquals(groupKey, DHTree.getGroupKey(bob.getGroupState(8).getRoot()));
+
+        // tin thật vẫn được nhận sau đó
+        assertArrayEquals(hello, bob.receiveMessage(copy(message)));
+        assertArrayEquals(hello, admin.receiveMessage(copy(message)));
+        assertGroupKey(8, admin, alice, bob);
+
+        // tin giả mạo nằm trong hàng đợi: lỗi được báo cho listener
+        List<byte[]> released = new ArrayList<>();
+        List<RuntimeException> errors = new ArrayList<>();
+        bob.setMessageListener(new MessageListener() {
+            @Override
+            public void onMessage(Message message, byte[] plaintext) {
+                released.add(plaintext);
+            }
+
+            @Override
+            public void onError(Message message, RuntimeException error) {
+                errors.add(error);
+            }
+        });
+        Message first = alice.createMessage(8, hello);
+        Message second = alice.createMessage(8, hello);
+        byte[] tamperedSecond = second.getCipherText().clone();
+        tamperedSecond[tamperedSecond.length - 1] ^= 1;
+        assertNull(bob.receiveMessage(new Message("alice", 8, second.getEpoch(), second.getParent(),
+                new LinkedList<>(second.getUpdatePath()), tamperedSecond)));
+        assertArrayEquals(hello, bob.receiveMessage(copy(first)));
+        assertTrue(released.isEmpty());
+        assertEquals(1, errors.size());
+        assertArrayEquals(hello, bob.receiveMessage(copy(second)));
+        assertArrayEquals(hello, admin.receiveMessage(copy(first)));
+        assertArrayEquals(hello, admin.receiveMessage(copy(second)));
+        assertGroupKey(8, admin, alice, bob);
+    }
+
+    @Test
+    void testForgedMembership() {
+        MessageClient admin = new MessageClient("admin");
+        MessageClient alice = new MessageClient("alice");
+        MessageClient bob = new MessageClient("bob");
+        MessageClient carol = new MessageClient("carol");
+        admin.creatNewGroup(20);
+        admin.getGroupState(20).addMember("alice", alice.getIdKey(), alice.joinGroup(20));
+        admin.getGroupState(20).addMember("bob", bob.getIdKey(), bob.joinGroup(20));
+        admin.getGroupState(20).addMember("carol", carol.getIdKey(), carol.joinGroup(20));
+        SetupMessage setupMsg = admin.createSetupMessage(20, admin.getGroupState(20));
+        for (MessageClient member : List.of(alice, bob, carol)) {
+            member.receiveSetupMessage(copy(setupMsg));
+        }
+        // bob nhận cập nhật của alice, quản trị viên thì chưa
+        byte[] hello = "hello".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(hello, bob.receiveMessage(copy(alice.createMessage(20, hello))));
+        assertEquals(1, bob.getGroupState(20).getEpoch());
+        byte[] groupKey = DHTree.getGroupKey(bob.getGroupState(20).getRoot());
+        MembershipMessage removed = admin.removeMemberIncremental(20, "carol");
+
+        // tự xóa giả mạo: bob vẫn ở trong nhóm
+        MembershipMessage selfRemoval = new MembershipMessage(20, removed.getEpoch(), removed.getParent(), "bob",
+                false, -1, null, new LinkedList<>(removed.getUpdatePath()), CryptoUtils.randomBytes(32),
+                removed.getConfirmation());
+        assertThrows(RuntimeException.class, () -> bob.receiveMembershipMessage(selfRemoval));
+        assertNotNull(bob.getGroupState(20));
+
+        // xác nhận bị sửa: cây, epoch và thành viên không đổi
+        byte[] confirmation = removed.getConfirmation().clone();
+        confirmation[0] ^= 1;
+        assertThrows(RuntimeException.class, () -> bob.receiveMembershipMessage(new MembershipMessage(20,
+                removed.getEpoch(), removed.getParent(), "carol", false, -1, null,
+                new LinkedList<>(removed.getUpdatePath()), removed.getMac(), confirmation)));
+        assertEquals(1, bob.getGroupState(20).getEpoch());
+        assertArrayEquals(groupKey, DHTree.getGroupKey(bob.getGroupState(20).getRoot()));
+        assertNotNull(bob.getGroupState(20).getLeaf("carol"));
+
+        // đường đi bị sửa: MAC không khớp
+        Queue<BigInteger> path = new LinkedList<>(removed.getUpdatePath());
+        path.poll();
+        path.add(X25519Utils.newKeyPair().getPublicU());
+        assertThrows(RuntimeException.class, () -> bob.receiveMembershipMessage(new MembershipMessage(20,
+                removed.getEpoch(), removed.getParent(), "carol", false, -1, null, path, removed.getMac(),
+                removed.getConfirmation())));
+        assertArrayEquals(groupKey, DHTree.getGroupKey(bob.getGroupState(20).getRoot()));
+
+        // thay đổi thật vẫn được áp dụng sau đó
+        bob.receiveMembershipMessage(BinaryCodec.toMembershipMessage(BinaryCodec.toBytes(removed)));
+        alice.receiveMembershipMessage(removed);
+        assertNull(bob.getGroupState(20).getLeaf("carol"));
+        assertGroupKey(20, admin, alice, bob);
+        Message fromBob = bob.createMessage(20, hello);
+        assertReceived(admin, fromBob, "hello");
+        assertReceived(alice, fromBob, "hello");
+
+        // lá được nối thêm bị gỡ khi xác nhận sai
+        MessageClient dave = new MessageClient("dave");
+        MembershipMessage daveAdded = admin.addMemberIncremental(20, "dave", dave.getIdKey(), dave.joinGroup(20));
+        alice.receiveMembershipMessage(daveAdded);
+        bob.receiveMembershipMessage(daveAdded);
+        MessageClient eve = new MessageClient("eve");
+        MembershipMessage eveAdded = admin.addMemberIncremental(20, "eve", eve.getIdKey(), eve.joinGroup(20));
+        assertEquals(4, eveAdded.getLeaf());
+        byte[] daveKey = DHTree.getGroupKey(bob.getGroupState(20).getRoot());
+        byte[] eveConfirmation = eveAdded.getConfirmation().clone();
+        eveConfirmation[0] ^= 1;
+        assertThrows(RuntimeException.class, () -> bob.receiveMembershipMessage(new MembershipMessage(20,
+                eveAdded.getEpoch(), eveAdded.getParent(), "eve", true, eveAdded.getLeaf(), eveAdded.getIdKey(),
+                new LinkedList<>(eveAdded.getUpdatePath()), eveAdded.getMac(), eveConfirmation)));
+        assertEquals(4, DHTree.numLeaves(bob.getGroupState(20).getRoot()));
+        assertArrayEquals(daveKey, DHTree.getGroupKey(bob.getGroupState(20).getRoot()));
+        bob.receiveMembershipMessage(eveAdded);
+        alice.receiveMembershipMessage(eveAdded);
+        assertGroupKey(20, admin, alice, bob);
+    }
+
+    @Test
+    void testForgedChainedMessage() {
+        MessageClient admin = new MessageClient("admin");
+        MessageClient alice = new MessageClient("alice");
+        admin.creatNewGroup(9);
+        admin.getGroupState(9).addMember("alice", alice.getIdKey(), alice.joinGroup(9));
+        alice.receiveSetupMessage(copy(admin.createSetupMessage(9, admin.getGroupState(9))));
+        alice.setRatchetInterval(4, 1, TimeUnit.HOURS);
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            messages.add(alice.createMessage(9, ("hello " + i).getBytes(StandardCharsets.UTF_8)));
+        }
+        assertTrue(messages.get(0).isChained());
+
+        // tin giả mạo không làm mất khóa, cũng không đẩy chuỗi đi trước
+        assertThrows(RuntimeException.class, () -> admin.receiveMessage(
+                new Message("alice", 9, 0, 0L, 0, new LinkedList<>(), new byte[40])));
+        assertThrows(RuntimeException.class, () -> admin.receiveMessage(
+                new Message("alice", 9, 0, 0L, 2, new LinkedList<>(), new byte[40])));
+        assertThrows(RuntimeException.class, () -> admin.receiveMessage(
+                new Message("alice", 9, 0, 0L, SenderChain.MAX_SKIP, new LinkedList<>(), new byte[40])));
+        assertArrayEquals("hello 2".getBytes(StandardCharsets.UTF_8), admin.receiveMessage(copy(messages.get(2))));
+        // khóa bị bỏ qua vẫn còn sau một tin giả mạo với cùng chỉ số
+        assertThrows(RuntimeException.class, () -> admin.receiveMessage(
+                new Message("alice", 9, 0, 0L, 1, new LinkedList<>(), new byte[40])));
+        assertArrayEquals("hello 0".getBytes(StandardCharsets.UTF_8), admin.receiveMessage(copy(messages.get(0))));
+        assertArrayEquals("hello 1".getBytes(StandardCharsets.UTF_8), admin.receiveMessage(copy(messages.get(1))));
+        assertThrows(RuntimeException.class, () -> admin.receiveMessage(copy(messages.get(1))));
+    }
+
+    @Test
+    void testConcurrentBranches() {
+        MessageClient admin = new MessageClient("admin");
+        MessageClient aaron = new MessageClient("a_aaron");
+        MessageClient alice = new MessageClient("b_alice");
+        MessageClient carol = new MessageClient("carol");
+        MessageClient dave = new MessageClient("d_dave");
+        MessageClient eve = new MessageClient("eve");
+        MessageClient[] members = {aaron, alice, carol, dave, eve};
+        String[] names = {"a_aaron", "b_alice", "carol", "d_dave", "eve"};
+        List<String> released = new ArrayList<>();
+        admin.setMessageListener((message, plaintext) -> released.add(new String(plaintext, StandardCharsets.UTF_8)));
+
+        // id của epoch là ngẫu nhiên, vài nhóm để cả hai cập nhật đều có lúc thắng
+        for (int groupId = 10; groupId < 18; groupId++) {
+            admin.creatNewGroup(groupId);
+            for (int i = 0; i < members.length; i++) {
+                admin.getGroupState(groupId).addMember(names[i], members[i].getIdKey(), members[i].joinGroup(groupId));
+            }
+            SetupMessage setupMsg = admin.createSetupMessage(groupId, admin.getGroupState(groupId));
+            for (MessageClient member : members) {
+                member.receiveSetupMessage(copy(setupMsg));
+            }
+
+            // aaron và alice cập nhật cùng lúc trên epoch 0, dave cập nhật tiếp trên cây của aaron
+            Message a = aaron.createMessage(groupId, "a".getBytes(StandardCharsets.UTF_8));
+            long aId = aaron.getGroupState(groupId).getEpochId();
+            Message b = alice.createMessage(groupId, "b".getBytes(StandardCharsets.UTF_8));
+            long bId = alice.getGroupState(groupId).getEpochId();
+            assertEquals(a.getEpoch(), b.getEpoch());
+            assertEquals(a.getParent(), b.getParent());
+            assertReceived(dave, a, "a");
+            Message d = dave.createMessage(groupId, "d".getBytes(StandardCharsets.UTF_8));
+            assertEquals(aId, d.getParent());
+
+            assertReceived(carol, a, "a");
+            assertReceived(carol, d, "d");
+            assertReceived(carol, b, "b");
+            assertReceived(eve, a, "a");
+            assertReceived(eve, b, "b");
+            assertReceived(eve, d, "d");
+            assertReceived(aaron, b, "b");
+            assertReceived(aaron, d, "d");
+            assertReceived(alice, a, "a");
+            assertReceived(alice, d, "d");
+            assertReceived(dave, b, "b");
+            // tin của dave tới trước cập nhật mà nó dựa trên: chờ tới khi cập nhật đó tới
+            released.clear();
+            assertReceived(admin, b, "b");
+            assertNull(admin.receiveMessage(copy(d)));
+            assertReceived(admin, a, "a");
+            assertEquals(List.of("d"), released);
+
+            // cập nhật có id nhỏ hơn thắng, cập nhật của dave chỉ còn nếu nó dựa trên cập nhật thắng
+            assertEquals(aId < bId ? 2 : 1, admin.getGroupState(groupId).getEpoch());
+            assertGroupKey(groupId, admin, members);
+            for (MessageClient member : members) {
+                assertEquals(admin.getGroupState(groupId).getEpoch(), member.getGroupState(groupId).getEpoch());
+            }
+            Message next = carol.createMessage(groupId, "next".getBytes(StandardCharsets.UTF_8));
+            assertReceived(admin, next, "next");
+            for (MessageClient member : members) {
+                if (member != carol) assertReceived(member, next, "next");
+            }
+            assertGroupKey(groupId, admin, members);
+        }
+    }
+
+    private static void assertReceived(MessageClient receiver, Message message, String plaintext) {
+        assertArrayEquals(plaintext.getBytes(StandardCharsets.UTF_8), receiver.receiveMessage(copy(message)));
+    }
+
+    private static void runAll(List<Runnable> tasks) {
+        List<Runnable> run = new ArrayList<>(tasks);
+        tasks.clear();
+        run.forEach(Runnable::run);
+    }
+
+    private static Message copy(Message message) {
+        return BinaryCodec.toMessage(BinaryCodec.toBytes(message));
+    }
+
+    private static SetupMessage copy(SetupMessage setupMessage) {
+        return BinaryCodec.toSetupMessage(BinaryCodec.toBytes(setupMessage));
+    }
+
+    private static void assertGroupKey(int groupId, MessageClient admin, MessageClient... members) {
+        byte[] expected = DHTree.getGroupKey(admin.getGroupState(groupId).getRoot());
+        for (MessageClient member : members) {
+            assertArrayEquals(expected, DHTree.getGroupKey(member.getGroupState(groupId).getRoot()));
+        }
+    }
+}
@@ -2,6 +2,9 @@ package art.example.groupchat.core.crypto;
 
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class CryptoUtilsTest {
@@ -42,4 +45,82 @@ class CryptoUtilsTest {
         );
         assertEquals(0, exchange1.getPublic().getU().compareTo(exchange2.getPublic().getU()));
     }
-}
\ No newline at end of file
+
+    /**
+     * khóa lá tính từ secret định danh đã lưu khớp với cách tính đầy đủ
+     */
+    @Test
+    void cachedIdentitySecret() {
+        XECKeyPair adminId = X25519Utils.newKeyPair();
+        XECKeyPair setupKey = X25519Utils.newKeyPair();
+        XECKeyPair memberId = X25519Utils.newKeyPair();
+        XECKeyPair ephemeral = X25519Utils.newKeyPair();
+        IdentitySecretCache adminSecrets = new IdentitySecretCache(adminId, 2);
+        IdentitySecretCache memberSecrets = new IdentitySecretCache(memberId, 2);
+        byte[] secret = adminSecrets.get(memberId.getPublic());
+        assertArrayEquals(secret, memberSecrets.get(adminId.getPublic()));
+        // bản sao trả về có thể bị xóa mà không ảnh hưởng cache
+        Arrays.fill(secret, (byte) 0);
+        assertArrayEquals(X25519Utils.exchange(adminId, memberId.getPublic()), adminSecrets.get(memberId.getPublic()));
+
+        XECKeyPair full = CryptoUtils.setupExchangeKey(adminId, memberId.getPublic(), setupKey, ephemeral.getPublic());
+        XECKeyPair cached = CryptoUtils.setupExchangeKey(adminSecrets.get(memberId.getPublic()), adminId,
+                memberId.getPublic(), setupKey, ephemeral.getPublic());
+        XECKeyPair recomputed = CryptoUtils.recomputeExchangeKey(memberSecrets.get(adminId.getPublic()), memberId,
+                adminId.getPublic(), ephemeral, setupKey.getPublic());
+        assertEquals(full.getPublicU(), cached.getPublicU());
+        assertEquals(full.getPublicU(), recomputed.getPublicU());
+
+        adminSecrets.get(setupKey.getPublic());
+        adminSecrets.get(ephemeral.getPublic());
+        assertEquals(2, adminSecrets.size());
+        adminSecrets.clear();
+        assertEquals(0, adminSecrets.size());
+    }
+
+    @Test
+    void encryptDecrypt() {
+        byte[] key = CryptoUtils.randomBytes(32);
+        byte[] message = "Hello group".getBytes();
+        // engine dùng lại giữa các lần gọi trên cùng một luồng
+        byte[] first = CryptoUtils.encrypt(message, key);
+        byte[] second = CryptoUtils.encrypt(message, key);
+        assertArrayEquals(message, CryptoUtils.decrypt(first, key));
+        assertArrayEquals(message, CryptoUtils.decrypt(second, key));
+    }
+
+    @Test
+    void encryptDecryptBuffers() {
+        byte[] key = CryptoUtils.randomBytes(32);
+        byte[] message = "Hello group".getBytes();
+        ByteBuffer encrypted = ByteBuffer.allocateDirect(CryptoUtils.encryptedLength(message.length));
+        assertEquals(encrypted.capacity(), CryptoUtils.encrypt(ByteBuffer.wrap(message), encrypted, key));
+        encrypted.flip();
+        byte[] copy = new byte[encrypted.remaining()];
+        encrypted.duplicate().get(copy);
+        // hai API tương thích với nhau
+        assertArrayEquals(message, CryptoUtils.decrypt(copy, key));
+        ByteBuffer plaintext = ByteBuffer.allocate(CryptoUtils.decryptedLength(encrypted.remaining()));
+        assertEquals(message.length, CryptoUtils.decrypt(encrypted, plaintext, key));
+        assertArrayEquals(message, plaintext.array());
+
+        // ciphertext ở giữa một mảng lớn hơn
+        byte[] framed = new byte[copy.length + 8];
+        System.arraycopy(copy, 0, framed, 4, copy.length);
+        assertArrayEquals(message, CryptoUtils.decrypt(ByteBuffer.wrap(framed, 4, copy.length).slice(), key));
+
+        copy[copy.length - 1] ^= 1;
+        assertThrows(RuntimeException.class, () -> CryptoUtils.decrypt(ByteBuffer.wrap(copy), key));
+        assertThrows(RuntimeException.class, () -> CryptoUtils.decrypt(ByteBuffer.allocate(4), key));
+    }
+
+    @Test
+    void enginesArePerThread() throws InterruptedException {
+        assertSame(JcaEngines.aesGcm(), JcaEngines.aesGcm());
+        Object[] other = new Object[1];
+        Thread thread = new Thread(() -> other[0] = JcaEngines.aesGcm());
+        thread.start();
+        thread.join();
+        assertNotSame(JcaEngines.aesGcm(), other[0]);
+    }
+}
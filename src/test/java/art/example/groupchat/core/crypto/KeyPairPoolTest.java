@@ -0,0 +1,69 @@
+package art.example.groupchat.core.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyPairPoolTest {
+
+    @Test
+    void eachKeyOnce() throws Exception {
+        Set<BigInteger> seen = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (KeyPairPool pool = new KeyPairPool(8)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        XECKeyPair keyPair = pool.take();
+                        // khóa công khai phải khớp khóa riêng
+                        assertEquals(keyPair.getPublicU(),
+                                X25519Utils.fromPrivateKey(keyPair.getPrivate()).getPublicU());
+                        assertTrue(seen.add(keyPair.getPublicU()));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(200, seen.size());
+    }
+
+    @Test
+    void refillAndClose() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        KeyPairPool pool = new KeyPairPool(4, r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            threads.add(thread);
+            return thread;
+        });
+        // đợi pool đầy
+        for (int i = 0; i < 500 && pool.available() < 4; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(4, pool.available());
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(pool.take());
+        }
+        pool.close();
+        threads.get(0).join(5000);
+        assertFalse(threads.get(0).isAlive());
+        // pool đã đóng vẫn sinh khóa trên luồng gọi
+        long misses = pool.getMisses();
+        assertNotNull(pool.take().getPrivate());
+        assertEquals(misses + 1, pool.getMisses());
+    }
+}
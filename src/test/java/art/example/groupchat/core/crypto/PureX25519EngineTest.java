@@ -0,0 +1,130 @@
+package art.example.groupchat.core.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import javax.xml.bind.DatatypeConverter;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.security.interfaces.XECPrivateKey;
+import java.security.interfaces.XECPublicKey;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PureX25519EngineTest {
+
+    PureX25519Engine pure = new PureX25519Engine();
+    JcaX25519Engine jca = new JcaX25519Engine();
+
+    private static byte[] hex(String hex) {
+        return DatatypeConverter.parseHexBinary(hex);
+    }
+
+    /**
+     * RFC 7748, section 5.2
+     */
+    @Test
+    void testVectors() {
+        assertArrayEquals(hex("c3da55379de9c6908e94ea4df28d084f32eccf03491c71f754b4075577a28552"),
+                pure.scalarMult(hex("a546e36bf0527c9d3b16154b82465edd62144c0ac1fc5a18506a2244ba449ac4"),
+                        hex("e6db6867583030db3594c1a424b15f7c726624ec26b3353b10a903a6d0ab1c4c")));
+        // bit cao nhất của u bị bỏ qua
+        assertArrayEquals(hex("95cbde9476e8907d7aade45cb4b873f88b595a68799fa152e6f8f7647aac7957"),
+                pure.scalarMult(hex("4b66e9d4d1b4673c5ad22691957d6af5c11b6421e0ea01d42ca4169e7918ba0d"),
+                        hex("e5210f12786811d3f4b7959d0538ae2c31dbe7106fc03c3efc4cd549c715a493")));
+    }
+
+    /**
+     * RFC 7748, section 5.2: k = X25519(k, u), u = k cũ, lặp 1 và 1000 lần
+     */
+    @Test
+    void testIterations() {
+        byte[] k = new byte[32];
+        k[0] = 9;
+        byte[] u = k.clone();
+        for (int i = 1; i <= 1000; i++) {
+            byte[] next = pure.scalarMult(k, u);
+            u = k;
+            k = next;
+            if (i == 1) {
+                assertArrayEquals(hex("422c8e7a6227d7bca1350b3e2bb7279f7897b87bb6854b783c60e80311ae3079"), k);
+            }
+        }
+        assertArrayEquals(hex("684cf59ba83309552800ef566f2f4d3c1c3887c49360e3875f2eb94d99532c51"), k);
+    }
+
+    /**
+     * RFC 7748, section 6.1
+     */
+    @Test
+    void testDiffieHellman() {
+        XECPrivateKey alice = pure.privateKey(hex("77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a"));
+        XECPrivateKey bob = pure.privateKey(hex("5dab087e624a8a4b79e17f8b83800ee66f3bb1292618b6fd1c2f8b27ff88e0eb"));
+        assertArrayEquals(hex("8520f0098930a754748b7ddcb43ef75a0dbf3a0d26381af4eba4a98eaa9b4e6a"),
+                pure.scalarMultBase(alice));
+        assertArrayEquals(hex("de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f"),
+                pure.scalarMultBase(bob));
+        byte[] shared = hex("4a5d9d5ba4ce2de1728e3bf480350f25e07e21c947d19e3376f09b3c1e161742");
+        assertArrayEquals(shared,
+                pure.exchange(alice, pure.publicKey(X25519Utils.decodeU(pure.scalarMultBase(bob)))));
+        assertArrayEquals(shared,
+                pure.exchange(bob, pure.publicKey(X25519Utils.decodeU(pure.scalarMultBase(alice)))));
+    }
+
+    @Test
+    void testAgainstJca() {
+        SecureRandom random = new SecureRandom();
+        for (int i = 0; i < 200; i++) {
+            byte[] scalar = new byte[32];
+            byte[] u = new byte[32];
+            random.nextBytes(scalar);
+            random.nextBytes(u);
+            // JCA đọc u modulo p sau khi bỏ bit cao nhất
+            u[31] &= 127;
+            assertArrayEquals(jca.scalarMult(scalar, u), pure.scalarMult(scalar, u));
+        }
+        // khóa của engine này dùng được với engine kia và ngược lại
+        XECKeyPair mine = pure.newKeyPair();
+        XECKeyPair theirs = jca.newKeyPair();
+        assertArrayEquals(jca.exchange(theirs.getPrivate(), mine.getPublic()),
+                pure.exchange(mine.getPrivate(), theirs.getPublic()));
+        assertArrayEquals(jca.exchange(mine.getPrivate(), theirs.getPublic()),
+                pure.exchange(theirs.getPrivate(), mine.getPublic()));
+        assertEquals(X25519Utils.decodeU(jca.scalarMultBase(mine.getPrivate())), mine.getPublicU());
+    }
+
+    @Test
+    void testEncodingAsJca() {
+        XECKeyPair keyPair = jca.newKeyPair();
+        byte[] scalar = keyPair.getPrivate().getScalar().orElseThrow();
+        XECPrivateKey privateKey = pure.privateKey(scalar);
+        XECPublicKey publicKey = pure.publicKey(keyPair.getPublic().getU());
+        assertArrayEquals(keyPair.getPrivate().getEncoded(), privateKey.getEncoded());
+        assertArrayEquals(keyPair.getPublic().getEncoded(), publicKey.getEncoded());
+        assertEquals(keyPair.getPublic().getU(), publicKey.getU());
+        assertEquals(publicKey, pure.publicKey(keyPair.getPublic().getU()));
+        assertEquals(privateKey, pure.privateKey(scalar));
+    }
+
+    @Test
+    void testSmallOrderRejected() {
+        XECKeyPair keyPair = pure.newKeyPair();
+        assertThrows(RuntimeException.class, () -> pure.exchange(keyPair.getPrivate(), pure.publicKey(BigInteger.ZERO)));
+        assertThrows(RuntimeException.class, () -> pure.exchange(keyPair.getPrivate(), pure.publicKey(BigInteger.ONE)));
+    }
+
+    @Test
+    void testSelectEngine() {
+        X25519Engine before = X25519Utils.getEngine();
+        try {
+            X25519Utils.setEngine(pure);
+            XECKeyPair alice = X25519Utils.newKeyPair();
+            X25519Utils.setEngine(jca);
+            XECKeyPair bob = X25519Utils.newKeyPair();
+            byte[] secret = X25519Utils.exchange(bob, alice.getPublic());
+            X25519Utils.setEngine(pure);
+            assertArrayEquals(secret, X25519Utils.exchange(alice, bob.getPublic()));
+        } finally {
+            X25519Utils.setEngine(before);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package art.example.groupchat.core.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingAeadTest {
+
+    @Test
+    void encryptDecrypt() throws IOException {
+        byte[] groupKey = CryptoUtils.randomBytes(32);
+        int chunk = StreamingAead.CHUNK_SIZE;
+        // rỗng, vừa đúng 1 chunk, nhiều chunk với chunk cuối lẻ
+        for (int size : new int[]{0, 1, chunk, chunk + 1, 3 * chunk + 17}) {
+            byte[] plaintext = CryptoUtils.randomBytes(size);
+            byte[] encrypted = encrypt(plaintext, groupKey);
+            int chunks = Math.max(1, (size + chunk - 1) / chunk);
+            assertEquals(StreamingAead.HEADER_LENGTH + size + chunks * CryptoUtils.TAG_LENGTH, encrypted.length);
+
+            try (InputStream in = StreamingAead.newDecryptingStream(new ByteArrayInputStream(encrypted), groupKey)) {
+                assertArrayEquals(plaintext, in.readAllBytes());
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(size, StreamingAead.decrypt(new ByteArrayInputStream(encrypted), out, groupKey));
+            assertArrayEquals(plaintext, out.toByteArray());
+        }
+    }
+
+    @Test
+    void rejectTampering() throws IOException {
+        byte[] groupKey = CryptoUtils.randomBytes(32);
+        int chunk = StreamingAead.CHUNK_SIZE;
+        int sealedChunk = chunk + CryptoUtils.TAG_LENGTH;
+        byte[] encrypted = encrypt(CryptoUtils.randomBytes(2 * chunk + 5), groupKey);
+
+        byte[] flipped = encrypted.clone();
+        flipped[flipped.length - 1] ^= 1;
+        assertThrows(IOException.class, () -> decrypt(flipped, groupKey));
+
+        // cắt đúng ở ranh giới chunk: chunk cuối còn lại không mang cờ "cuối"
+        byte[] truncated = Arrays.copyOf(encrypted, StreamingAead.HEADER_LENGTH + 2 * sealedChunk);
+        assertThrows(IOException.class, () -> decrypt(truncated, groupKey));
+
+        // đổi chỗ 2 chunk đầu
+        byte[] swapped = encrypted.clone();
+        System.arraycopy(encrypted, StreamingAead.HEADER_LENGTH, swapped, StreamingAead.HEADER_LENGTH + sealedChunk, sealedChunk);
+        System.arraycopy(encrypted, StreamingAead.HEADER_LENGTH + sealedChunk, swapped, StreamingAead.HEADER_LENGTH, sealedChunk);
+        assertThrows(IOException.class, () -> decrypt(swapped, groupKey));
+
+        assertThrows(IOException.class, () -> decrypt(encrypted, CryptoUtils.randomBytes(32)));
+        assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(encrypted, 10), groupKey));
+    }
+
+    private static byte[] encrypt(byte[] plaintext, byte[] groupKey) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(plaintext.length, StreamingAead.encrypt(new ByteArrayInputStream(plaintext), out, groupKey));
+        return out.toByteArray();
+    }
+
+    private static byte[] decrypt(byte[] encrypted, byte[] groupKey) throws IOException {
+        try (InputStream in = StreamingAead.newDecryptingStream(new ByteArrayInputStream(encrypted), groupKey)) {
+            return in.readAllBytes();
+        }
+    }
+}
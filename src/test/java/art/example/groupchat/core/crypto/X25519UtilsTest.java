@@ -2,10 +2,15 @@ package art.example.groupchat.core.crypto;
 
 import org.junit.jupiter.api.Test;
 
+import javax.xml.bind.DatatypeConverter;
+import java.math.BigInteger;
 import java.security.interfaces.XECPrivateKey;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class X25519UtilsTest {
 
@@ -29,4 +34,50 @@ class X25519UtilsTest {
         XECKeyPair newKeyPair = X25519Utils.fromPrivateKey(sk);
         assertEquals(newKeyPair.getPrivate().getScalar().orElseThrow().length, 32);
     }
-}
\ No newline at end of file
+
+    /**
+     * RFC 7748, section 6.1
+     */
+    @Test
+    void fromPrivateKeyTestVector() {
+        XECKeyPair alice = X25519Utils.fromPrivateKey(DatatypeConverter.parseHexBinary(
+                "77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a"));
+        BigInteger expected = X25519Utils.decodeU(DatatypeConverter.parseHexBinary(
+                "8520f0098930a754748b7ddcb43ef75a0dbf3a0d26381af4eba4a98eaa9b4e6a"));
+        assertEquals(expected, alice.getPublic().getU());
+    }
+
+    @Test
+    void lazyPublicKey() {
+        XECKeyPair keyPair = X25519Utils.newKeyPair();
+        XECKeyPair lazy = XECKeyPair.ofPublicU(keyPair.getPublic().getU());
+        assertEquals(keyPair.getPublic().getU(), lazy.getPublicU());
+        assertArrayEquals(keyPair.getPublic().getEncoded(), lazy.getPublic().getEncoded());
+        // khóa đã tạo được dùng lại
+        assertSame(lazy.getPublic(), lazy.getPublic());
+        assertNull(XECKeyPair.ofPublicU(null).getPublic());
+    }
+
+    @Test
+    void rawExchangeRejectsSmallOrder() {
+        X25519Engine before = X25519Utils.getEngine();
+        try {
+            for (X25519Engine engine : new X25519Engine[]{new JcaX25519Engine(), new PureX25519Engine()}) {
+                X25519Utils.setEngine(engine);
+                byte[] scalar = X25519Utils.newKeyPair().getPrivate().getScalar().orElseThrow();
+                byte[] zero = new byte[32];
+                byte[] one = new byte[32];
+                one[0] = 1;
+                assertThrows(RuntimeException.class, () -> X25519Utils.exchange(scalar, zero));
+                assertThrows(RuntimeException.class, () -> X25519Utils.exchange(scalar, one));
+                XECKeyPair theirs = X25519Utils.newKeyPair();
+                byte[] u = new byte[32];
+                X25519Utils.encodeU(theirs.getPublicU(), u, 0);
+                assertArrayEquals(X25519Utils.exchange(X25519Utils.fromPrivateKey(scalar), theirs.getPublic()),
+                        X25519Utils.exchange(scalar, u));
+            }
+        } finally {
+            X25519Utils.setEngine(before);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package art.example.groupchat.core.store;
+
+import art.example.groupchat.core.Message;
+import art.example.groupchat.core.MessageClient;
+import art.example.groupchat.core.SetupMessage;
+import art.example.groupchat.core.crypto.CryptoUtils;
+import art.example.groupchat.core.serialize.BinaryCodec;
+import art.example.groupchat.core.tree.DHTree;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupStoreTest {
+
+    @TempDir
+    Path dir;
+
+    byte[] key = CryptoUtils.randomBytes(GroupStore.KEY_LENGTH);
+
+    @Test
+    void testRecoverFromLog() throws IOException {
+        MessageClient admin = new MessageClient("admin");
+        GroupStore store = GroupStore.open(dir, key);
+        MessageClient alice = new MessageClient("alice", null, store);
+        MessageClient bob = new MessageClient("bob");
+        setUp(admin, alice, bob);
+        chat(admin, alice, bob);
+
+        // khởi động lại alice từ nhật ký, không cần thiết lập lại nhóm
+        store.close();
+        store = GroupStore.open(dir, key);
+        MessageClient restarted = new MessageClient("alice", null, store);
+        assertEquals(alice.getIdKey().getU(), restarted.getIdKey().getU());
+        assertEquals(alice.getGroupState(1).getEpoch(), restarted.getGroupState(1).getEpoch());
+        assertGroupKey(admin, restarted);
+        chat(admin, restarted, bob);
+        store.close();
+
+        GroupStore other = GroupStore.open(dir, key);
+        assertThrows(RuntimeException.class, () -> new MessageClient("bob", null, other));
+        other.close();
+    }
+
+    @Test
+    void testRecoverFromSnapshot() throws IOException {
+        MessageClient admin = new MessageClient("admin");
+        GroupStore store = GroupStore.open(dir, key);
+        MessageClient alice = new MessageClient("alice", null, store);
+        MessageClient bob = new MessageClient("bob");
+        setUp(admin, alice, bob);
+        chat(admin, alice, bob);
+        alice.checkpoint();
+        assertEquals(0, store.getLogBytes());
+        chat(admin, alice, bob);
+        alice.checkpoint();
+        // chỉ còn snapshot cuối và nhật ký sau nó
+        assertEquals(1, countFiles("snapshot-"));
+        assertEquals(1, countFiles("wal-"));
+        chat(admin, alice, bob);
+        store.close();
+
+        // bản ghi bị rách ở cuối nhật ký bị bỏ qua
+        Path log = Files.list(dir).filter(f -> f.getFileName().toString().startsWith("wal-")).findFirst().get();
+        Files.write(log, new byte[]{0, 0, 1, 0, 7}, StandardOpenOption.APPEND);
+
+        store = GroupStore.open(dir, key);
+        MessageClient restarted = new MessageClient("alice", null, store);
+        assertGroupKey(admin, restarted);
+        chat(admin, restarted, bob);
+        restarted.checkpoint();
+        store.close();
+
+        store = GroupStore.open(dir, key);
+        assertGroupKey(admin, new MessageClient("alice", null, store));
+        store.close();
+    }
+
+    @Test
+    void testGroupCache() throws IOException {
+        MessageClient admin = new MessageClient("admin");
+        GroupStore store = GroupStore.open(dir.resolve("store"), key);
+        MessageClient alice = new MessageClient("alice", null, store);
+        MessageClient bob = new MessageClient("bob");
+        SpillFile spill = SpillFile.open(dir.resolve("spill"));
+        alice.setGroupCache(2, spill);
+        for (int groupId = 1; groupId <= 6; groupId++) {
+            setUp(groupId, admin, alice, bob);
+            chat(groupId, admin, alice, bob);
+        }
+        assertTrue(alice.getLiveGroupCount() <= 2);
+        assertTrue(spill.size() >= 4);
+
+        // nhóm bị đẩy ra vẫn nhận và gửi tin sau khi được nạp lại
+        for (int groupId = 1; groupId <= 6; groupId++) {
+            chat(groupId, admin, alice, bob);
+            assertGroupKey(groupId, admin, alice);
+        }
+        assertTrue(alice.getLiveGroupCount() <= 2);
+
+        // snapshot gồm cả các nhóm nguội
+        alice.checkpoint();
+        store.close();
+        spill.close();
+        assertFalse(Files.exists(dir.resolve("spill")));
+
+        store = GroupStore.open(dir.resolve("store"), key);
+        assertEquals(6, store.getEncodedGroups().size());
+        MessageClient restarted = new MessageClient("alice", null, store);
+        restarted.setGroupCache(2, null);
+        assertEquals(0, restarted.getLiveGroupCount());
+        for (int groupId = 1; groupId <= 6; groupId++) {
+            assertGroupKey(groupId, admin, restarted);
+            chat(groupId, admin, restarted, bob);
+        }
+        assertTrue(restarted.getLiveGroupCount() <= 2);
+        store.close();
+    }
+
+    @Test
+    void testStoreSealed() throws IOException {
+        Path storeDir = dir.resolve("store");
+        MessageClient admin = new MessageClient("admin");
+        GroupStore store = GroupStore.open(storeDir, key);
+        MessageClient alice = new MessageClient("alice", null, store);
+        MessageClient bob = new MessageClient("bob");
+        setUp(admin, alice, bob);
+        chat(admin, alice, bob);
+        alice.checkpoint();
+        chat(admin, alice, bob);
+        store.close();
+
+        store = GroupStore.open(storeDir, key);
+        byte[] idScalar = store.getIdKeyPair().getPrivate().getScalar().orElseThrow();
+        byte[] leafScalar = new MessageClient("alice", null, store).getGroupState(1).getLeaf("alice")
+                .getKeyPair().getPrivate().getScalar().orElseThrow();
+        store.close();
+        // cả nhật ký lẫn snapshot không chứa khóa riêng ở dạng rõ
+        List<Path> files = Files.list(storeDir).collect(Collectors.toList());
+        assertEquals(1, countFiles(storeDir, "snapshot-"));
+        for (Path file : files) {
+            byte[] content = Files.readAllBytes(file);
+            assertFalse(contains(content, idScalar));
+            assertFalse(contains(content, leafScalar));
+            assertFalse(contains(content, "alice".getBytes(StandardCharsets.UTF_8)));
+        }
+
+        // chỉ chủ sở hữu đọc được thư mục và các tệp
+        if (storeDir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(storeDir));
+            for (Path file : files) {
+                assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(file));
+            }
+        }
+
+        // khóa sai không mở được store
+        byte[] wrongKey = key.clone();
+        wrongKey[0] ^= 1;
+        assertThrows(RuntimeException.class, () -> GroupStore.open(storeDir, wrongKey));
+        assertThrows(RuntimeException.class, () -> GroupStore.open(storeDir, new byte[16]));
+    }
+
+    @Test
+    void testSpillFileEncrypted() throws IOException {
+        Path path = dir.resolve("spill");
+        SpillFile spill = SpillFile.open(path);
+        byte[] secret = new byte[1000];
+        Arrays.fill(secret, (byte) 0x5a);
+        spill.put(1, ByteBuffer.wrap(secret));
+        assertEquals(ByteBuffer.wrap(secret), spill.get(1));
+        // tệp chỉ có bản mã
+        assertFalse(contains(Files.readAllBytes(path), secret));
+
+        // ô của nhóm bị thay hoặc bị xóa được ghi 0
+        byte[] other = secret.clone();
+        other[0] = 1;
+        spill.put(1, ByteBuffer.wrap(other));
+        spill.put(2, ByteBuffer.wrap(secret));
+        assertEquals(ByteBuffer.wrap(other), spill.remove(1));
+        assertEquals(ByteBuffer.wrap(secret), spill.remove(2));
+        assertNull(spill.get(1));
+        byte[] file = Files.readAllBytes(path);
+        for (byte b : file) {
+            assertEquals(0, b);
+        }
+        spill.close();
+    }
+
+    private static void setUp(MessageClient admin, MessageClient alice, MessageClient bob) {
+        setUp(1, admin, alice, bob);
+    }
+
+    private static void setUp(int groupId, MessageClient admin, MessageClient alice, MessageClient bob) {
+        admin.creatNewGroup(groupId);
+        admin.getGroupState(groupId).addMember("alice", alice.getIdKey(), alice.joinGroup(groupId));
+        admin.getGroupState(groupId).addMember("bob", bob.getIdKey(), bob.joinGroup(groupId));
+        SetupMessage setupMessage = admin.createSetupMessage(groupId, admin.getGroupState(groupId));
+        alice.receiveSetupMessage(BinaryCodec.toSetupMessage(BinaryCodec.toBytes(setupMessage)));
+        bob.receiveSetupMessage(BinaryCodec.toSetupMessage(BinaryCodec.toBytes(setupMessage)));
+    }
+
+    /**
+     * each client sends a message the others receive
+     */
+    private static void chat(MessageClient admin, MessageClient alice, MessageClient bob) {
+        chat(1, admin, alice, bob);
+    }
+
+    private static void chat(int groupId, MessageClient admin, MessageClient alice, MessageClient bob) {
+        MessageClient[] clients = {admin, alice, bob};
+        for (MessageClient sender : clients) {
+            byte[] plaintext = "hello".getBytes(StandardCharsets.UTF_8);
+            Message message = sender.createMessage(groupId, plaintext);
+            for (MessageClient receiver : clients) {
+                if (receiver != sender) assertArrayEquals(plaintext, receiver.receiveMessage(message));
+            }
+        }
+    }
+
+    private static void assertGroupKey(MessageClient admin, MessageClient member) {
+        assertGroupKey(1, admin, member);
+    }
+
+    private static void assertGroupKey(int groupId, MessageClient admin, MessageClient member) {
+        assertArrayEquals(DHTree.getGroupKey(admin.getGroupState(groupId).getRoot()),
+                DHTree.getGroupKey(member.getGroupState(groupId).getRoot()));
+    }
+
+    private static boolean contains(byte[] data, byte[] part) {
+        for (int i = 0; i + part.length <= data.length; i++) {
+            if (Arrays.equals(data, i, i + part.length, part, 0, part.length)) return true;
+        }
+        return false;
+    }
+
+    private long countFiles(String prefix) throws IOException {
+        return countFiles(dir, prefix);
+    }
+
+    private static long countFiles(Path dir, String prefix) throws IOException {
+        return Files.list(dir).filter(f -> f.getFileName().toString().startsWith(prefix)).count();
+    }
+}
@@ -6,9 +6,11 @@ import art.example.groupchat.core.crypto.CryptoUtils;
 import art.example.groupchat.core.crypto.X25519Utils;
 import art.example.groupchat.core.crypto.XECKeyPair;
 
+import java.io.StringReader;
 import java.math.BigInteger;
 import java.security.interfaces.XECPublicKey;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static art.example.groupchat.core.serialize.SerializeUtils.*;
@@ -124,5 +126,73 @@ class TreeTest {
                 DHTree.getGroupKey(tree2),
                 DHTree.getGroupKey(publicTree4)
         );
+        // khóa công khai của các nút tính lại khớp với đường cập nhật
+        assertEquals(toJson(tree2), toJson(tree4));
+        assertEquals(X25519Utils.fromPrivateKey(tree4.getKeyPair().getPrivate()).getPublicU(),
+                tree4.getKeyPair().getPublicU());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testUpdatePathIgnoresKeysAboveMergePoint() {
+        String json = toJson(DHTree.buildSecretTree(leaves));
+        Node senderTree = DHTree.buildPublicTree(json);
+        LeafNode senderLeaf = DHTree.findLeafNode("member-1", senderTree);
+        senderLeaf.setKeyPair(X25519Utils.newKeyPair());
+        LinkedList<BigInteger> path = new LinkedList<>();
+        DHTree.createPublicPath(senderLeaf, path);
+        // khóa gốc trong đường đi bị thay, trên đường đi của người nhận
+        path.removeLast();
+        path.addLast(X25519Utils.newKeyPair().getPublicU());
+
+        Node receiverTree = DHTree.buildPublicTree(json);
+        LeafNode receiverLeaf = DHTree.findLeafNode("member-3", receiverTree);
+        receiverLeaf.setKeyPair(CryptoUtils.recomputeExchangeKey(memberIdKeys.get("member-3"),
+                adminIdKey.getPublic(), memberEphemeralKeys.get("member-3"), setupKey.getPublic()));
+        DHTree.rebuildSecretTree(receiverLeaf);
+        DHTree.updatePath(DHTree.findLeafNode("member-1", receiverTree), path);
+        assertEquals(X25519Utils.fromPrivateKey(receiverTree.getKeyPair().getPrivate()).getPublicU(),
+                receiverTree.getKeyPair().getPublicU());
+        assertEquals(senderTree.getKeyPair().getPublicU(), receiverTree.getKeyPair().getPublicU());
+    }
+
+    @Test
+    void testIndexLeaves() {
+        Node tree = DHTree.buildPublicTree(toJson(DHTree.buildSecretTree(leaves)));
+        Map<String, LeafNode> index = new HashMap<>();
+        DHTree.indexLeaves(tree, index);
+        assertEquals(leaves.size(), index.size());
+        for (LeafNode leaf : leaves) {
+            assertSame(DHTree.findLeafNode(leaf.getUsername(), tree), index.get(leaf.getUsername()));
+        }
+    }
+
+    @Test
+    void testStreamingMatchesDom() {
+        String json = toJson(DHTree.buildSecretTree(leaves));
+        Node dom = gson.fromJson(json, Node.class);
+        Node streamed = toTree(new StringReader(json));
+        assertEquals(toJson(dom), toJson(streamed));
+    }
+
+    @Test
+    void testParallelSetup() {
+        List<String> usernames = new ArrayList<>();
+        Map<String, XECPublicKey> theirIdKeys = new HashMap<>();
+        Map<String, XECPublicKey> theirEphemeralKeys = new HashMap<>();
+        for (int i = 0; i < 40; i++) {
+            String username = "member-" + i;
+            usernames.add(username);
+            theirIdKeys.put(username, X25519Utils.newKeyPair().getPublic());
+            theirEphemeralKeys.put(username, X25519Utils.newKeyPair().getPublic());
+        }
+        Node sequential = DHTree.buildSecretTree(DHTree.setupLeavesNode(
+                "admin", adminIdKey, setupKey, new ArrayList<>(usernames), theirIdKeys, theirEphemeralKeys));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Node parallel = DHTree.buildSecretTree(DHTree.setupLeavesNode(
+                "admin", adminIdKey, setupKey, new ArrayList<>(usernames), theirIdKeys, theirEphemeralKeys, pool), pool);
+        pool.shutdown();
+        // cùng khóa đầu vào cho cùng một cây
+        assertEquals(toJson(sequential), toJson(parallel));
+        assertArrayEquals(DHTree.getGroupKey(sequential), DHTree.getGroupKey(parallel));
+    }
+}